@@ -0,0 +1,159 @@
+package com.letstesla.dvdrentalspringboot;
+
+import static com.letstesla.dvdrentalspringboot.db.tables.Actor.*;
+import static com.letstesla.dvdrentalspringboot.db.tables.Address.*;
+import static com.letstesla.dvdrentalspringboot.db.tables.Category.*;
+import static com.letstesla.dvdrentalspringboot.db.tables.City.*;
+import static com.letstesla.dvdrentalspringboot.db.tables.Country.*;
+import static com.letstesla.dvdrentalspringboot.db.tables.Customer.*;
+import static com.letstesla.dvdrentalspringboot.db.tables.CustomerBalance.*;
+import static com.letstesla.dvdrentalspringboot.db.tables.Film.*;
+import static com.letstesla.dvdrentalspringboot.db.tables.Language.*;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.letstesla.dvdrentalspringboot.DataTableQueryParams.Filter;
+import com.letstesla.dvdrentalspringboot.DataTableQueryParams.Order;
+import com.letstesla.dvdrentalspringboot.FilmController.Stock;
+import com.letstesla.dvdrentalspringboot.db.enums.MpaaRating;
+import com.letstesla.dvdrentalspringboot.db.tables.pojos.Actor;
+import com.letstesla.dvdrentalspringboot.db.tables.pojos.Category;
+
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Record;
+import org.jooq.Result;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+/**
+ * Sample-like rows and requests for the benchmarks, built without a database.
+ */
+final class BenchmarkData {
+
+    static final LocalDateTime LAST_UPDATE = LocalDateTime.of(2006, 2, 15, 9, 44);
+
+    /** No connection, only renders and creates records */
+    static final DSLContext DSL_CONTEXT = DSL.using(SQLDialect.POSTGRES);
+
+    private BenchmarkData() {
+    }
+
+    /** Configured like the one Spring Boot hands to the controllers */
+    static ObjectMapper objectMapper() {
+        return Jackson2ObjectMapperBuilder.json().featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .build();
+    }
+
+    static Filter filter(String id, String value) {
+        Filter filter = new Filter();
+        filter.id = id;
+        filter.value = value;
+        return filter;
+    }
+
+    static Order order(String id, boolean desc) {
+        Order order = new Order();
+        order.id = id;
+        order.desc = desc;
+        return order;
+    }
+
+    static DataTableQueryParams customerParams() {
+        DataTableQueryParams params = new DataTableQueryParams();
+        params.filters = new Filter[] { filter("lastName", "son"), filter("address.city.city", "a"),
+                filter("activebool", "1") };
+        params.orders = new Order[] { order("address.city.country.country", false), order("lastName", true) };
+        return params;
+    }
+
+    static DataTableQueryParams filmParams() {
+        DataTableQueryParams params = new DataTableQueryParams();
+        params.filters = new Filter[] { filter("title", "a"), filter("categories.category", "act"),
+                filter("actors.fullName", "nick") };
+        params.orders = new Order[] { order("rating", true), order("title", false) };
+        return params;
+    }
+
+    private static Object[] concat(Object[]... parts) {
+        return Stream.of(parts).flatMap(Stream::of).toArray();
+    }
+
+    private static Result<Record> result(Field<?>[] fields, List<Object[]> rows) {
+        Result<Record> result = DSL_CONTEXT.newResult(fields);
+        for (Object[] values : rows) {
+            Record record = DSL_CONTEXT.newRecord(fields);
+            record.fromArray(values);
+            result.add(record);
+        }
+        return result;
+    }
+
+    /** As selected by the customer page, without the seek columns */
+    static Result<Record> customerResult(int size) {
+        Field<?>[] fields = Stream.of(CUSTOMER.fields(), ADDRESS.fields(), CITY.fields(), COUNTRY.fields(),
+                new Field<?>[] { CUSTOMER_BALANCE.BALANCE }).flatMap(Stream::of).toArray(Field<?>[]::new);
+        List<Object[]> rows = new ArrayList<>(size);
+        for (int i = 1; i <= size; i++) {
+            rows.add(concat(
+                    DSL_CONTEXT.newRecord(CUSTOMER).values(i, (short) 1, "Mary" + i, "Smith" + i,
+                            "mary.smith" + i + "@sakilacustomer.org", (short) (i + 4), true,
+                            LocalDate.of(2006, 2, 14), LAST_UPDATE, 1).intoArray(),
+                    DSL_CONTEXT.newRecord(ADDRESS).values(i + 4, i + " Sakila Drive", null, "Alberta",
+                            (short) (i % 600 + 1), "35200", "28303384290" + i, LAST_UPDATE).intoArray(),
+                    DSL_CONTEXT.newRecord(CITY).values(i % 600 + 1, "Lethbridge", (short) (i % 109 + 1), LAST_UPDATE)
+                            .intoArray(),
+                    DSL_CONTEXT.newRecord(COUNTRY).values(i % 109 + 1, "Canada", LAST_UPDATE).intoArray(),
+                    new Object[] { new BigDecimal(i % 10 + ".99") }));
+        }
+        return result(fields, rows);
+    }
+
+    /** As selected by the film page, without the seek columns and aggregates */
+    static Result<Record> filmResult(int size) {
+        Field<?>[] fields = Stream.of(FILM.fields(), LANGUAGE.fields()).flatMap(Stream::of).toArray(Field<?>[]::new);
+        List<Object[]> rows = new ArrayList<>(size);
+        for (int i = 1; i <= size; i++) {
+            rows.add(concat(
+                    DSL_CONTEXT.newRecord(FILM).values(i, "Academy Dinosaur " + i,
+                            "A Epic Drama of a Feminist And a Mad Scientist who must Battle a Teacher in The Canadian Rockies",
+                            2006, (short) 1, (short) 6, new BigDecimal("0.99"), (short) 86, new BigDecimal("20.99"),
+                            MpaaRating.PG, LAST_UPDATE, new String[] { "Deleted Scenes", "Behind the Scenes" }, null)
+                            .intoArray(),
+                    DSL_CONTEXT.newRecord(LANGUAGE).values(1, "English", LAST_UPDATE).intoArray()));
+        }
+        return result(fields, rows);
+    }
+
+    static List<Category> categories() {
+        return List.of(new Category(6, "Documentary", LAST_UPDATE));
+    }
+
+    static List<Actor> actors() {
+        List<Actor> actors = new ArrayList<>();
+        for (int i = 1; i <= 5; i++) {
+            actors.add(new Actor(i, "Penelope", "Guiness" + i, LAST_UPDATE));
+        }
+        return actors;
+    }
+
+    static List<Stock> stock() {
+        List<Stock> stock = new ArrayList<>();
+        for (short storeId = 1; storeId <= 2; storeId++) {
+            Stock store = new Stock();
+            store.storeId = storeId;
+            store.copies = 4;
+            store.inStock = 3;
+            stock.add(store);
+        }
+        return stock;
+    }
+}
@@ -0,0 +1,91 @@
+package com.letstesla.dvdrentalspringboot;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.letstesla.dvdrentalspringboot.DataTableColumns.Request;
+import com.letstesla.dvdrentalspringboot.QueryTemplate.Binds;
+import com.letstesla.dvdrentalspringboot.db.tables.Customer;
+import com.letstesla.dvdrentalspringboot.db.tables.Film;
+
+import org.jooq.Condition;
+import org.jooq.SortField;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Turning {@link DataTableQueryParams} into SQL: the shape key every request
+ * computes, the conditions and sort fields built with inlined values (exports),
+ * and rendering the statement of a shape not yet in the template cache.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QueryBuildingBenchmark {
+
+    private final DataTableQueryParams customerParams = BenchmarkData.customerParams();
+
+    private final DataTableQueryParams filmParams = BenchmarkData.filmParams();
+
+    @Benchmark
+    public String customerShape() {
+        return CustomerController.COLUMNS.request(customerParams).shape;
+    }
+
+    @Benchmark
+    public String filmShape() {
+        return FilmController.COLUMNS.request(filmParams).shape;
+    }
+
+    @Benchmark
+    public void customerConditionsAndSortFields(Blackhole blackhole) {
+        conditionsAndSortFields(CustomerController.COLUMNS, customerParams, blackhole);
+    }
+
+    @Benchmark
+    public void filmConditionsAndSortFields(Blackhole blackhole) {
+        conditionsAndSortFields(FilmController.COLUMNS, filmParams, blackhole);
+    }
+
+    @Benchmark
+    public String customerRender() {
+        Request request = CustomerController.COLUMNS.request(customerParams);
+        Binds<Request> binds = new Binds<>();
+        return QueryTemplate.render(BenchmarkData.DSL_CONTEXT, binds,
+                BenchmarkData.DSL_CONTEXT.select(Customer.CUSTOMER.fields()).from(CustomerController.FROM)
+                        .where(CustomerController.COLUMNS.conditions(binds, request))
+                        .orderBy(CustomerController.COLUMNS.cursor(binds, request).sortFields()))
+                .getSQL();
+    }
+
+    @Benchmark
+    public String filmRender() {
+        Request request = FilmController.COLUMNS.request(filmParams);
+        Binds<Request> binds = new Binds<>();
+        return QueryTemplate.render(BenchmarkData.DSL_CONTEXT, binds,
+                BenchmarkData.DSL_CONTEXT.select(Film.FILM.fields()).from(FilmController.FROM)
+                        .where(FilmController.COLUMNS.conditions(binds, request))
+                        .orderBy(FilmController.COLUMNS.cursor(binds, request).sortFields()))
+                .getSQL();
+    }
+
+    private static void conditionsAndSortFields(DataTableColumns columns, DataTableQueryParams params,
+            Blackhole blackhole) {
+        Request request = columns.request(params);
+        List<Condition> conditions = columns.conditions(QueryTemplate.inline(request), request);
+        List<SortField<?>> sortFields = columns.cursor(QueryTemplate.inline(request), request).sortFields();
+        blackhole.consume(conditions);
+        blackhole.consume(sortFields);
+    }
+}
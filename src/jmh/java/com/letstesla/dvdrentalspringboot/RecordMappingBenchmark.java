@@ -0,0 +1,85 @@
+package com.letstesla.dvdrentalspringboot;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.letstesla.dvdrentalspringboot.CustomerController.CustomerDTRow;
+import com.letstesla.dvdrentalspringboot.FilmController.FilmDTRow;
+import com.letstesla.dvdrentalspringboot.FilmController.FilmJsonRow;
+import com.letstesla.dvdrentalspringboot.FilmController.Stock;
+import com.letstesla.dvdrentalspringboot.db.tables.pojos.Actor;
+import com.letstesla.dvdrentalspringboot.db.tables.pojos.Category;
+
+import org.jooq.Record;
+import org.jooq.Result;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Mapping a fetched page into the rows of {@link DataTableResponse#data}, as
+ * the controllers do with <code>Record.into()</code>, or into the record
+ * wrappers of {@link RecordJsonWriter}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RecordMappingBenchmark {
+
+    /** Page size */
+    @Param({ "10", "100" })
+    public int rows;
+
+    private Result<Record> customers;
+
+    private Result<Record> films;
+
+    private final List<Category> categories = BenchmarkData.categories();
+
+    private final List<Actor> actors = BenchmarkData.actors();
+
+    private final List<Stock> stock = BenchmarkData.stock();
+
+    @Setup
+    public void setup() {
+        customers = BenchmarkData.customerResult(rows);
+        films = BenchmarkData.filmResult(rows);
+    }
+
+    @Benchmark
+    public List<CustomerDTRow> customerRows() {
+        return customers.map(CustomerController::row);
+    }
+
+    @Benchmark
+    public List<FilmDTRow> filmRows() {
+        return films.map(r -> {
+            FilmDTRow row = FilmController.row(r);
+            row.setCategories(categories);
+            row.setActors(actors);
+            row.setStock(stock);
+            return row;
+        });
+    }
+
+    @Benchmark
+    public List<RecordJsonWriter.Row> customerJsonRows() {
+        return customers.map(CustomerController.JSON::row);
+    }
+
+    @Benchmark
+    public List<FilmJsonRow> filmJsonRows() {
+        return films.map(r -> new FilmJsonRow(r, categories, actors, stock));
+    }
+}
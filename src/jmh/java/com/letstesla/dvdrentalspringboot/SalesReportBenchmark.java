@@ -0,0 +1,79 @@
+package com.letstesla.dvdrentalspringboot;
+
+import static com.letstesla.dvdrentalspringboot.db.tables.SalesByFilmCategory.*;
+import static com.letstesla.dvdrentalspringboot.db.tables.SalesByStore.*;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.jooq.DSLContext;
+import org.jooq.Result;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The sales reports read from the live <code>sales_by_film_category</code> and
+ * <code>sales_by_store</code> views against the same rows read from the
+ * {@link SalesSummaries}. Unlike the other benchmarks this one runs the
+ * statements, against the database of <code>DB_URL</code>,
+ * <code>DB_USER</code> and <code>DB_PASSWORD</code> as the application does;
+ * the summaries are refreshed once before measuring.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SalesReportBenchmark {
+
+    private Connection connection;
+
+    private DSLContext dsl;
+
+    @Setup
+    public void connect() throws SQLException {
+        connection = DriverManager.getConnection(System.getenv("DB_URL"), System.getenv("DB_USER"),
+                System.getenv("DB_PASSWORD"));
+        dsl = DSL.using(connection, SQLDialect.POSTGRES);
+        new SalesSummaries(dsl, new DataTableProperties()).refresh();
+    }
+
+    @TearDown
+    public void close() throws SQLException {
+        connection.close();
+    }
+
+    @Benchmark
+    public Result<?> salesByFilmCategoryView() {
+        return dsl.selectFrom(SALES_BY_FILM_CATEGORY).fetch();
+    }
+
+    @Benchmark
+    public Result<?> salesByFilmCategorySummary() {
+        return SalesSummaries.salesByFilmCategory(dsl).fetch();
+    }
+
+    @Benchmark
+    public Result<?> salesByStoreView() {
+        return dsl.selectFrom(SALES_BY_STORE).fetch();
+    }
+
+    @Benchmark
+    public Result<?> salesByStoreSummary() {
+        return SalesSummaries.salesByStore(dsl).fetch();
+    }
+}
@@ -0,0 +1,92 @@
+package com.letstesla.dvdrentalspringboot;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.letstesla.dvdrentalspringboot.FilmController.FilmDTRow;
+import com.letstesla.dvdrentalspringboot.FilmController.FilmJsonRow;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Writing a {@link DataTableResponse} the way the message converter does, to
+ * a stream rather than into a String, with POJO rows and with rows streamed
+ * from their records by {@link RecordJsonWriter}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SerializationBenchmark {
+
+    /** Page size */
+    @Param({ "10", "100" })
+    public int rows;
+
+    // the stream is reused, the message converter does not close it either
+    private final ObjectWriter writer = BenchmarkData.objectMapper().writerFor(DataTableResponse.class)
+            .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    private final OutputStream out = OutputStream.nullOutputStream();
+
+    private DataTableResponse customers;
+
+    private DataTableResponse films;
+
+    private DataTableResponse customersStreaming;
+
+    private DataTableResponse filmsStreaming;
+
+    @Setup
+    public void setup() {
+        customers = new DataTableResponse(1, 599, 599,
+                BenchmarkData.customerResult(rows).map(CustomerController::row).toArray());
+        films = new DataTableResponse(1, 1000, 1000, BenchmarkData.filmResult(rows).map(r -> {
+            FilmDTRow row = FilmController.row(r);
+            row.setCategories(BenchmarkData.categories());
+            row.setActors(BenchmarkData.actors());
+            row.setStock(BenchmarkData.stock());
+            return row;
+        }).toArray());
+        customersStreaming = new DataTableResponse(1, 599, 599,
+                BenchmarkData.customerResult(rows).map(CustomerController.JSON::row).toArray());
+        filmsStreaming = new DataTableResponse(1, 1000, 1000, BenchmarkData.filmResult(rows).map(
+                r -> new FilmJsonRow(r, BenchmarkData.categories(), BenchmarkData.actors(), BenchmarkData.stock()))
+                .toArray());
+    }
+
+    @Benchmark
+    public void customers() throws IOException {
+        writer.writeValue(out, customers);
+    }
+
+    @Benchmark
+    public void films() throws IOException {
+        writer.writeValue(out, films);
+    }
+
+    @Benchmark
+    public void customersStreaming() throws IOException {
+        writer.writeValue(out, customersStreaming);
+    }
+
+    @Benchmark
+    public void filmsStreaming() throws IOException {
+        writer.writeValue(out, filmsStreaming);
+    }
+}
@@ -0,0 +1,107 @@
+package com.letstesla.dvdrentalspringboot;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The time from starting the application to its first answered datatable
+ * request, with and without the <code>fast-startup</code> profile and the
+ * AppCDS archive. Each invocation starts the jar of
+ * <code>./mvnw package -P appcds</code> in <code>target/appcds</code>, which
+ * has to be built first, against the database of <code>DB_URL</code>,
+ * <code>DB_USER</code> and <code>DB_PASSWORD</code>; the output of the last
+ * start is kept in <code>target/appcds/startup.log</code>.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StartupBenchmark {
+
+    private static final File DIRECTORY = Paths.get("target", "appcds").toFile();
+
+    @Param({ "default", "fast-startup" })
+    public String profile;
+
+    @Param({ "false", "true" })
+    public boolean cds;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    private Process process;
+
+    @Benchmark
+    public int firstRequest() throws IOException, InterruptedException {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        if (cds)
+            command.add("-XX:SharedArchiveFile=app.jsa");
+        command.add("-Dspring.profiles.active=" + profile);
+        command.add("-jar");
+        command.add(jar());
+        command.add("--server.port=" + port);
+        process = new ProcessBuilder(command).directory(DIRECTORY)
+                .redirectErrorStream(true).redirectOutput(new File(DIRECTORY, "startup.log")).start();
+
+        HttpRequest request = HttpRequest
+                .newBuilder(URI.create("http://localhost:" + port + "/api/datatable/customers"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString("{\"limit\":10,\"orders\":[{\"id\":\"lastName\"}]}"))
+                .build();
+        while (true) {
+            if (!process.isAlive())
+                throw new IllegalStateException("The application exited with " + process.exitValue()
+                        + ", see target/appcds/startup.log");
+            try {
+                int status = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+                if (status == 200)
+                    return status;
+            } catch (ConnectException e) {
+                // not listening yet
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void stop() throws InterruptedException {
+        process.destroy();
+        process.waitFor();
+    }
+
+    private static String jar() {
+        String[] jars = DIRECTORY.list((directory, name) -> name.endsWith("-appcds.jar"));
+        if (jars == null || jars.length == 0)
+            throw new IllegalStateException("No jar in target/appcds, run ./mvnw package -P appcds first");
+        return jars[0];
+    }
+}
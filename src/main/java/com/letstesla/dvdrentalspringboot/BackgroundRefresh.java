@@ -0,0 +1,61 @@
+package com.letstesla.dvdrentalspringboot;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs a refresh on a daemon thread of its own, off the thread requesting it,
+ * e.g. the one of the {@link TableChangeListener}. Requests made while a run is
+ * pending fold into it, a request made while one runs schedules the next.
+ * With a delay, a run starts that long after the request scheduling it, and
+ * covers the requests made in between.
+ */
+class BackgroundRefresh {
+
+    private final String name;
+
+    private final Duration delay;
+
+    private final Runnable refresh;
+
+    private final ScheduledExecutorService executor;
+
+    private final AtomicBoolean pending = new AtomicBoolean();
+
+    Logger logger = LoggerFactory.getLogger(BackgroundRefresh.class);
+
+    BackgroundRefresh(String name, Duration delay, Runnable refresh) {
+        this.name = name;
+        this.delay = delay;
+        this.refresh = refresh;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    void request() {
+        if (pending.compareAndSet(false, true))
+            executor.schedule(this::run, delay.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    private void run() {
+        pending.set(false);
+        try {
+            refresh.run();
+        } catch (RuntimeException e) {
+            logger.warn("{} failed", name, e);
+        }
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -4,17 +4,23 @@ import static com.letstesla.dvdrentalspringboot.db.tables.Customer.*;
 import static com.letstesla.dvdrentalspringboot.db.tables.Address.*;
 import static com.letstesla.dvdrentalspringboot.db.tables.City.*;
 import static com.letstesla.dvdrentalspringboot.db.tables.Country.*;
+import static com.letstesla.dvdrentalspringboot.db.tables.CustomerBalance.*;
 
+import static org.jooq.impl.DSL.coalesce;
 import static org.jooq.impl.DSL.countDistinct;
+import static org.jooq.impl.DSL.inline;
 import static org.jooq.impl.DSL.or;
 import static org.jooq.impl.DSL.lower;
+import static org.jooq.impl.DSL.select;
 
-import java.util.ArrayList;
+import java.math.BigDecimal;
 import java.util.List;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.letstesla.dvdrentalspringboot.DataTableColumns.Request;
+import com.letstesla.dvdrentalspringboot.DataTableProperties.RowSerialization;
 import com.letstesla.dvdrentalspringboot.DataTableQueryParams.Filter;
-import com.letstesla.dvdrentalspringboot.DataTableQueryParams.Order;
+import com.letstesla.dvdrentalspringboot.QueryTemplate.Binder;
 import com.letstesla.dvdrentalspringboot.db.tables.pojos.Address;
 import com.letstesla.dvdrentalspringboot.db.tables.pojos.City;
 import com.letstesla.dvdrentalspringboot.db.tables.pojos.Country;
@@ -23,32 +29,106 @@ import com.letstesla.dvdrentalspringboot.db.tables.pojos.Customer;
 import org.jooq.Condition;
 import org.jooq.Configuration;
 import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Record;
 import org.jooq.SortField;
+import org.jooq.Table;
 import org.jooq.impl.SQLDataType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
-import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 @RestController
 public class CustomerController {
 
-    private final DSLContext dsl;
+    /**
+     * Inner joins, the foreign keys are <code>NOT NULL</code>. The smallint
+     * foreign keys are compared to the integer primary keys as they are, a cast
+     * would keep <code>idx_fk_address_id</code> and friends from being used.
+     * <code>customer_balance</code> has a row per customer, maintained by the
+     * triggers of <code>V0006__customer_balance.sql</code>.
+     */
+    static final Table<?> FROM = CUSTOMER.join(ADDRESS)
+            .on(ADDRESS.ADDRESS_ID.eq(CUSTOMER.ADDRESS_ID.coerce(SQLDataType.INTEGER))).join(CITY)
+            .on(CITY.CITY_ID.eq(ADDRESS.CITY_ID.coerce(SQLDataType.INTEGER))).join(COUNTRY)
+            .on(COUNTRY.COUNTRY_ID.eq(CITY.COUNTRY_ID.coerce(SQLDataType.INTEGER))).join(CUSTOMER_BALANCE)
+            .on(CUSTOMER_BALANCE.CUSTOMER_ID.eq(CUSTOMER.CUSTOMER_ID));
+
+    /**
+     * Customer columns followed by the flattened address, city and country, and
+     * the balance
+     */
+    private static final Field<?>[] CSV_COLUMNS = { CUSTOMER.CUSTOMER_ID, CUSTOMER.STORE_ID, CUSTOMER.FIRST_NAME,
+            CUSTOMER.LAST_NAME, CUSTOMER.EMAIL, CUSTOMER.ACTIVEBOOL, CUSTOMER.CREATE_DATE, CUSTOMER.LAST_UPDATE,
+            CUSTOMER.ACTIVE, ADDRESS.ADDRESS_, ADDRESS.ADDRESS2, ADDRESS.DISTRICT, ADDRESS.POSTAL_CODE, ADDRESS.PHONE,
+            CITY.CITY_, COUNTRY.COUNTRY_, CUSTOMER_BALANCE.BALANCE };
+
+    /**
+     * Substring filters compile to <code>ILIKE '%value%'</code>, served by the
+     * trigram indexes of <code>V0002__trigram_indexes.sql</code>. Sort keys are
+     * coalesced where the column is nullable, seek predicates never match
+     * <code>NULL</code>, and match the expression indexes of
+     * <code>V0004__sort_indexes.sql</code> exactly.
+     */
+    static final DataTableColumns COLUMNS = new DataTableColumns(CUSTOMER.CUSTOMER_ID)
+            .filter("firstName", value -> CUSTOMER.FIRST_NAME.likeIgnoreCase(value.contains()))
+            .filter("lastName", value -> CUSTOMER.LAST_NAME.likeIgnoreCase(value.contains()))
+            .filter("address.address",
+                    value -> or(ADDRESS.ADDRESS_.likeIgnoreCase(value.contains()),
+                            ADDRESS.ADDRESS2.likeIgnoreCase(value.contains())))
+            .filter("address.city.city", value -> CITY.CITY_.likeIgnoreCase(value.contains()))
+            .filter("address.postalCode", value -> ADDRESS.POSTAL_CODE.likeIgnoreCase(value.contains()))
+            .filter("address.city.country.country", value -> COUNTRY.COUNTRY_.likeIgnoreCase(value.contains()))
+            .filter("address.phone", value -> ADDRESS.PHONE.likeIgnoreCase(value.contains()))
+            .filter("activebool", value -> CUSTOMER.ACTIVEBOOL.eq(value.as(SQLDataType.BOOLEAN, "1"::equals)))
+            .filter("balance",
+                    value -> CUSTOMER_BALANCE.BALANCE.cast(SQLDataType.VARCHAR).likeIgnoreCase(value.contains()))
+            .order("firstName", lower(CUSTOMER.FIRST_NAME))
+            .order("lastName", lower(CUSTOMER.LAST_NAME))
+            .order("address.address", lower(ADDRESS.ADDRESS_), lower(coalesce(ADDRESS.ADDRESS2, inline(""))))
+            .order("address.city.city", lower(CITY.CITY_))
+            .order("address.postalCode", lower(coalesce(ADDRESS.POSTAL_CODE, inline(""))))
+            .order("address.city.country.country", lower(COUNTRY.COUNTRY_))
+            .order("address.phone", lower(ADDRESS.PHONE))
+            .order("activebool", CUSTOMER.ACTIVEBOOL)
+            .order("balance", CUSTOMER_BALANCE.BALANCE);
+
+    /** Every table the datatable response is computed from */
+    private static final Table<?>[] TABLES = { CUSTOMER, ADDRESS, CITY, COUNTRY, CUSTOMER_BALANCE };
+
+    private final DataTableProperties properties;
+
+    private final DataTableExport export;
+
+    private final DataTableCache cache;
+
+    final DataTablePages pages;
 
     Logger logger = LoggerFactory.getLogger(CustomerController.class);
 
-    public CustomerController(DSLContext dsl, Configuration jooqConfiguration) {
-        this.dsl = dsl;
+    public CustomerController(DSLContext dsl, Configuration jooqConfiguration, DataTableProperties properties,
+            TableCounts tableCounts, QueryExecutor queryExecutor, DataTableExport export,
+            DataTableCache cache) {
+        this.properties = properties;
+        this.export = export;
+        this.cache = cache;
+        this.pages = new DataTablePages(dsl, properties, tableCounts, queryExecutor, "customers", CUSTOMER, FROM,
+                COLUMNS, countDistinct(CUSTOMER.CUSTOMER_ID), select(CUSTOMER.fields()).select(ADDRESS.fields())
+                        .select(CITY.fields()).select(COUNTRY.fields()).select(CUSTOMER_BALANCE.BALANCE).getSelect());
     }
 
     /**
      * Extends class {@link Customer} with <code>address</code>, <code>city</code>,
-     * <code>country</code> fields
+     * <code>country</code>, <code>balance</code> fields
      */
-    private class CustomerDTRow extends Customer {
+    static class CustomerDTRow extends Customer {
 
         private static final long serialVersionUID = -6155356548280523192L;
 
@@ -81,119 +161,95 @@ public class CustomerController {
         @JsonProperty
         private AddressDTRow address;
 
-        public CustomerDTRow(Customer customer, Address address, City city, Country country) {
+        /** see <code>customer_balance</code> */
+        @JsonProperty
+        private BigDecimal balance;
+
+        public CustomerDTRow(Customer customer, Address address, City city, Country country, BigDecimal balance) {
             super(customer);
             this.address = new AddressDTRow(address, city, country);
+            this.balance = balance;
         }
     }
 
-    // Convert a predefined exception to an HTTP Status code
-    @ResponseStatus(value = HttpStatus.BAD_REQUEST, // HTTP 400
-            reason = "'limit' or 'offset' is invalid")
-    public class QueryLimitException extends RuntimeException {
-        private static final long serialVersionUID = 3820023033506881886L;
+    /**
+     * A row selected with the customer, address, city, country and balance
+     * fields. Each POJO is read through its table, columns like
+     * <code>last_update</code> occur once per table.
+     */
+    static CustomerDTRow row(Record r) {
+        return new CustomerDTRow(r.into(CUSTOMER).into(Customer.class), r.into(ADDRESS).into(Address.class),
+                r.into(CITY).into(City.class), r.into(COUNTRY).into(Country.class), r.get(CUSTOMER_BALANCE.BALANCE));
     }
 
-    private final String populateLikeString(String text) {
-        return "%" + text.replace("\\", "\\\\").replace("_", "\\_").replace("%", "\\%") + "%";
+    /**
+     * The JSON of {@link CustomerDTRow}, from a row selected with the customer,
+     * address, city, country and balance fields
+     */
+    static final RecordJsonWriter JSON = RecordJsonWriter.object(CUSTOMER.fields()).with("address",
+            RecordJsonWriter.object(ADDRESS.fields()).with("city",
+                    RecordJsonWriter.object(CITY.fields()).with("country", RecordJsonWriter.object(COUNTRY.fields()))))
+            .then(RecordJsonWriter.object(CUSTOMER_BALANCE.BALANCE));
+
+    /** @return the element of {@link DataTableResponse#data} for a page row */
+    Object dataRow(Record r) {
+        return properties.getRowSerialization() == RowSerialization.STREAMING ? JSON.row(r) : row(r);
     }
 
-    @PostMapping("/api/datatable/customers")
-    public DataTableResponse customers(@RequestBody DataTableQueryParams reqBody) {
-
-        int limit = reqBody.limit;
-        int offset = reqBody.offset;
-        if (limit <= 0 || offset < 0)
-            throw new QueryLimitException();
+    List<Condition> conditions(Filter[] filters) {
+        DataTableQueryParams params = new DataTableQueryParams();
+        params.filters = filters;
+        Request request = COLUMNS.request(params);
+        return COLUMNS.conditions(QueryTemplate.inline(request), request);
+    }
 
-        int recordsTotal = this.dsl.fetchCount(CUSTOMER);
+    @PostMapping("/api/datatable/customers")
+    public ResponseEntity<DataTableResponse> customers(@RequestBody DataTableQueryParams reqBody,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        return cache.conditional("customers", TABLES, reqBody, ifNoneMatch, () -> page(reqBody));
+    }
 
-        logger.debug("Params: {}", reqBody.toString());
+    /** The response of <code>/api/datatable/customers</code>, unconditionally */
+    public DataTableResponse customers(DataTableQueryParams reqBody) {
+        return cache.get("customers", TABLES, reqBody, () -> page(reqBody));
+    }
 
-        List<Condition> conditions = new ArrayList<Condition>();
-        for (Filter filter : reqBody.filters) {
-            if (filter.value == null) {
-                continue;
-            }
+    private DataTableResponse page(DataTableQueryParams reqBody) {
+        DataTablePages.Page page = pages.page(reqBody);
+        return page.response(reqBody, page.rows.map(this::dataRow).toArray());
+    }
 
-            switch (filter.id) {
-                case "firstName":
-                    conditions.add(CUSTOMER.FIRST_NAME.likeIgnoreCase(populateLikeString(filter.value)));
-                    break;
-                case "lastName":
-                    conditions.add(CUSTOMER.LAST_NAME.likeIgnoreCase(populateLikeString(filter.value)));
-                    break;
-                case "address.address":
-                    final String searchValue = populateLikeString(filter.value);
-                    conditions.add(or(ADDRESS.ADDRESS_.likeIgnoreCase(searchValue),
-                            ADDRESS.ADDRESS2.likeIgnoreCase(searchValue)));
-                    break;
-                case "address.city.city":
-                    conditions.add(CITY.CITY_.likeIgnoreCase(populateLikeString(filter.value)));
-                    break;
-                case "address.postalCode":
-                    conditions.add(ADDRESS.POSTAL_CODE.likeIgnoreCase(populateLikeString(filter.value)));
-                    break;
-                case "address.city.country.country":
-                    conditions.add(COUNTRY.COUNTRY_.likeIgnoreCase(populateLikeString(filter.value)));
-                    break;
-                case "address.phone":
-                    conditions.add(ADDRESS.PHONE.likeIgnoreCase(populateLikeString(filter.value)));
-                    break;
-                case "activebool":
-                    conditions.add(
-                            filter.value.equals("1") ? CUSTOMER.ACTIVEBOOL.isTrue() : CUSTOMER.ACTIVEBOOL.isFalse());
-                    break;
-            }
+    /**
+     * The whole filtered and ordered customer list, <code>limit</code>,
+     * <code>offset</code> and <code>after</code> are ignored.
+     *
+     * @param format <code>ndjson</code> (rows as in
+     *               {@link DataTableResponse#data}) or <code>csv</code>
+     */
+    @PostMapping("/api/export/customers")
+    public ResponseEntity<StreamingResponseBody> exportCustomers(@RequestBody DataTableQueryParams reqBody,
+            @RequestParam(defaultValue = "ndjson") String format) {
 
-        }
+        logger.debug("Params: {}", reqBody.toString());
 
-        int recordsFiltered = this.dsl.select(countDistinct(CUSTOMER.CUSTOMER_ID)).from(CUSTOMER).leftJoin(ADDRESS)
-                .on(ADDRESS.ADDRESS_ID.eq(CUSTOMER.ADDRESS_ID.cast(SQLDataType.INTEGER))).leftJoin(CITY)
-                .on(CITY.CITY_ID.eq(ADDRESS.CITY_ID.cast(SQLDataType.INTEGER))).leftJoin(COUNTRY)
-                .on(COUNTRY.COUNTRY_ID.eq(CITY.COUNTRY_ID.cast(SQLDataType.INTEGER))).where(conditions)
-                .fetchOneInto(int.class);
-
-        List<SortField<String>> orderBy = new ArrayList<SortField<String>>();
-        for (Order order : reqBody.orders) {
-            switch (order.id) {
-                case "firstName":
-                    orderBy.add(order.desc ? lower(CUSTOMER.FIRST_NAME).desc() : lower(CUSTOMER.FIRST_NAME).asc());
-                    break;
-                case "lastName":
-                    orderBy.add(order.desc ? lower(CUSTOMER.LAST_NAME).desc() : lower(CUSTOMER.LAST_NAME).asc());
-                    break;
-                case "address.address":
-                    orderBy.add(order.desc ? lower(ADDRESS.ADDRESS_).desc() : lower(ADDRESS.ADDRESS_).asc());
-                    orderBy.add(order.desc ? lower(ADDRESS.ADDRESS2).desc() : lower(ADDRESS.ADDRESS2).asc());
-                    break;
-                case "address.city.city":
-                    orderBy.add(order.desc ? lower(CITY.CITY_).desc() : lower(CITY.CITY_).asc());
-                    break;
-                case "address.postalCode":
-                    orderBy.add(order.desc ? lower(ADDRESS.POSTAL_CODE).desc() : lower(ADDRESS.POSTAL_CODE).asc());
-                    break;
-                case "address.city.country.country":
-                    orderBy.add(order.desc ? lower(COUNTRY.COUNTRY_).desc() : lower(COUNTRY.COUNTRY_).asc());
-                    break;
-                case "address.phone":
-                    orderBy.add(order.desc ? lower(ADDRESS.PHONE).desc() : lower(ADDRESS.PHONE).asc());
-                    break;
-                case "activebool":
-                    orderBy.add(order.desc ? CUSTOMER.ACTIVEBOOL.cast(SQLDataType.VARCHAR).desc()
-                            : CUSTOMER.ACTIVEBOOL.cast(SQLDataType.VARCHAR).asc());
-                    break;
-            }
+        Request request = COLUMNS.request(reqBody);
+        Binder<Request> binder = QueryTemplate.inline(request);
+        List<Condition> conditions = COLUMNS.conditions(binder, request);
+        List<SortField<?>> orderBy = COLUMNS.cursor(binder, request).sortFields();
+
+        switch (format) {
+            case "ndjson":
+                return export.ndjson("customers",
+                        tx -> tx.select(CUSTOMER.fields()).select(ADDRESS.fields()).select(CITY.fields())
+                                .select(COUNTRY.fields()).select(CUSTOMER_BALANCE.BALANCE).from(FROM).where(conditions)
+                                .orderBy(orderBy),
+                        this::dataRow);
+            case "csv":
+                return export.csv("customers",
+                        tx -> tx.select(CSV_COLUMNS).from(FROM).where(conditions).orderBy(orderBy), CSV_COLUMNS);
+            default:
+                throw new DataTableExport.UnsupportedFormatException();
         }
-
-        List<CustomerDTRow> data = this.dsl.select().from(CUSTOMER).leftJoin(ADDRESS)
-                .on(ADDRESS.ADDRESS_ID.eq(CUSTOMER.ADDRESS_ID.cast(SQLDataType.INTEGER))).leftJoin(CITY)
-                .on(CITY.CITY_ID.eq(ADDRESS.CITY_ID.cast(SQLDataType.INTEGER))).leftJoin(COUNTRY)
-                .on(COUNTRY.COUNTRY_ID.eq(CITY.COUNTRY_ID.cast(SQLDataType.INTEGER))).where(conditions).orderBy(orderBy)
-                .limit(limit).offset(offset).fetch(r -> new CustomerDTRow(r.into(Customer.class), r.into(Address.class),
-                        r.into(City.class), r.into(Country.class)));
-
-        return new DataTableResponse(reqBody.fetchId, recordsFiltered, recordsTotal, data.toArray());
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,123 @@
+package com.letstesla.dvdrentalspringboot;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Answers several datatable requests in one call, e.g. the grids of a page
+ * loading together.
+ * <p>
+ * The requests run one after another in a read-only, repeatable read
+ * transaction, on one connection. Their statements, which
+ * <code>datatable.execution=parallel</code> would spread over pooled
+ * connections, run on the request thread. Work shared by the requests is done
+ * once: each table total is counted at most once, identical requests (but for
+ * <code>fetchId</code>) are answered once.
+ * <p>
+ * Responses of the response cache, cached table totals and the film catalog
+ * apply as for single requests. Those were computed outside of the
+ * transaction, so only the responses whose statements run in the batch are
+ * read from one snapshot of the database. The responses and totals computed
+ * from the snapshot are neither cached nor shared with concurrent requests, a
+ * change committed after the snapshot was taken may already have been
+ * notified.
+ * <p>
+ * A batch holds at most <code>datatable.batch-max-queries</code> requests.
+ */
+@RestController
+public class DataTableBatchController {
+
+    /** One request of a batch */
+    public static class Query {
+        /** <code>customers</code>, <code>films</code> or <code>rentals</code> */
+        @JsonProperty
+        public String endpoint;
+        @JsonProperty
+        public DataTableQueryParams params = new DataTableQueryParams();
+    }
+
+    // Convert a predefined exception to an HTTP Status code
+    @ResponseStatus(value = HttpStatus.BAD_REQUEST, // HTTP 400
+            reason = "'endpoint' must be customers, films or rentals")
+    public static class UnsupportedEndpointException extends RuntimeException {
+        private static final long serialVersionUID = -5139870861390514617L;
+    }
+
+    @ResponseStatus(value = HttpStatus.BAD_REQUEST, // HTTP 400
+            reason = "the batch holds more than 'datatable.batch-max-queries' requests")
+    public static class BatchSizeException extends RuntimeException {
+        private static final long serialVersionUID = 4731902652108437315L;
+    }
+
+    private final CustomerController customers;
+
+    private final FilmController films;
+
+    private final RentalController rentals;
+
+    private final QueryExecutor queryExecutor;
+
+    private final TableCounts tableCounts;
+
+    private final DataTableCache cache;
+
+    private final DataTableProperties properties;
+
+    private final TransactionTemplate transaction;
+
+    public DataTableBatchController(CustomerController customers, FilmController films, RentalController rentals,
+            QueryExecutor queryExecutor, TableCounts tableCounts, DataTableCache cache,
+            DataTableProperties properties, PlatformTransactionManager transactionManager) {
+        this.customers = customers;
+        this.films = films;
+        this.rentals = rentals;
+        this.queryExecutor = queryExecutor;
+        this.tableCounts = tableCounts;
+        this.cache = cache;
+        this.properties = properties;
+        this.transaction = new TransactionTemplate(transactionManager);
+        transaction.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+        transaction.setReadOnly(true);
+    }
+
+    /** @return the responses of <code>queries</code>, in their order */
+    @PostMapping("/api/datatable/batch")
+    public DataTableResponse[] batch(@RequestBody Query[] queries) {
+        if (queries.length > properties.getBatchMaxQueries())
+            throw new BatchSizeException();
+        for (Query query : queries) {
+            if (!"customers".equals(query.endpoint) && !"films".equals(query.endpoint)
+                    && !"rentals".equals(query.endpoint))
+                throw new UnsupportedEndpointException();
+        }
+
+        return transaction.execute(status -> queryExecutor
+                .onCallerThread(() -> cache.snapshot(() -> tableCounts.sharing(() -> answer(queries)))));
+    }
+
+    private DataTableResponse[] answer(Query[] queries) {
+        Map<String, DataTableResponse> responses = new HashMap<>();
+        DataTableResponse[] result = new DataTableResponse[queries.length];
+        for (int i = 0; i < queries.length; i++) {
+            Query query = queries[i];
+            DataTableResponse response = responses.computeIfAbsent(
+                    query.endpoint + " " + DataTableCache.normalize(query.params),
+                    key -> "customers".equals(query.endpoint) ? customers.customers(query.params)
+                            : "films".equals(query.endpoint) ? films.customers(query.params)
+                                    : rentals.rentals(query.params));
+            result[i] = response.withFetchId(query.params.fetchId);
+        }
+        return result;
+    }
+}
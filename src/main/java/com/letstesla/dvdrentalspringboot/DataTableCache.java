@@ -0,0 +1,273 @@
+package com.letstesla.dvdrentalspringboot;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.letstesla.dvdrentalspringboot.DataTableQueryParams.Filter;
+import com.letstesla.dvdrentalspringboot.DataTableQueryParams.Order;
+
+import org.jooq.Table;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+/**
+ * Caches datatable responses per endpoint and normalized
+ * {@link DataTableQueryParams}.
+ * <p>
+ * Entries are bounded by <code>datatable.cache.maximum-size</code>, expire
+ * after <code>datatable.cache.ttl</code> and are no longer served as soon as a
+ * {@link TableChangedEvent} reports a change to one of the tables the endpoint
+ * reads: the keys carry a generation of the endpoint, bumped by the change,
+ * the entries of earlier generations are left to expire or be evicted.
+ * <p>
+ * With <code>datatable.coalesce-requests</code>, concurrent misses of the same
+ * key share one computation through the {@link RequestCoalescer}, whether the
+ * cache is enabled or not. Within {@link #snapshot} misses are neither cached
+ * nor shared.
+ * <p>
+ * With <code>datatable.conditional-requests</code>, responses carry a weak
+ * <code>ETag</code> of the request and the {@link TableVersions} of the
+ * endpoint's tables. A request whose <code>If-None-Match</code> still matches
+ * is answered <code>304 Not Modified</code>, without computing the response.
+ * The versions are part of the cache and coalescer keys of these requests, a
+ * response computed before a change is never sent with the tag of the
+ * versions after it. Table totals and the film catalog, which follow the
+ * notifications of the changes trailing the commit by a moment, are only used
+ * while they have read the versions of their tables, see {@link TableCounts}
+ * and {@link FilmCatalog}.
+ */
+@Component
+public class DataTableCache {
+
+    public static class Stats {
+        /** entries of earlier generations included, until they expire or are evicted */
+        @JsonProperty
+        public long size;
+        @JsonProperty
+        public long hitCount;
+        @JsonProperty
+        public long missCount;
+        @JsonProperty
+        public double hitRate;
+        @JsonProperty
+        public long evictionCount;
+        @JsonProperty
+        public long invalidationCount;
+        /** requests answered by the computation of an identical concurrent one */
+        @JsonProperty
+        public long coalescedCount;
+    }
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final DataTableProperties properties;
+
+    private final RequestCoalescer coalescer;
+
+    private final TableVersions tableVersions;
+
+    private final Cache<String, DataTableResponse> cache;
+
+    /** Names of the tables each endpoint reads */
+    private final Map<String, Set<String>> endpointTables = new ConcurrentHashMap<>();
+
+    /**
+     * Bumped on each invalidation, part of the cache keys of the endpoint, a
+     * response computed across one is not cached
+     */
+    private final Map<String, AtomicLong> generations = new ConcurrentHashMap<>();
+
+    private final AtomicLong invalidationCount = new AtomicLong();
+
+    /** Set while {@link #snapshot} runs on the thread */
+    private final ThreadLocal<Boolean> snapshot = ThreadLocal.withInitial(() -> false);
+
+    public DataTableCache(DataTableProperties properties, RequestCoalescer coalescer, TableVersions tableVersions) {
+        this.properties = properties;
+        this.coalescer = coalescer;
+        this.tableVersions = tableVersions;
+        this.cache = Caffeine.newBuilder().maximumSize(properties.getCache().getMaximumSize())
+                .expireAfterWrite(properties.getCache().getTtl()).recordStats().build();
+    }
+
+    /**
+     * @param endpoint name of the endpoint, prefixes the cache keys
+     * @param tables   every table the response is computed from
+     * @param query    computes the response on a miss
+     * @return the response, with the <code>fetchId</code> of
+     *         <code>params</code>
+     */
+    public DataTableResponse get(String endpoint, Table<?>[] tables, DataTableQueryParams params,
+            Supplier<DataTableResponse> query) {
+        return get(endpoint, tables, normalize(params), params, query);
+    }
+
+    /** @param request the cache key within the generation of <code>endpoint</code> */
+    private DataTableResponse get(String endpoint, Table<?>[] tables, String request, DataTableQueryParams params,
+            Supplier<DataTableResponse> query) {
+        boolean enabled = properties.getCache().isEnabled();
+        if (!enabled && !properties.isCoalesceRequests())
+            return query.get();
+        if (snapshot.get()) {
+            DataTableResponse response = enabled ? cache.getIfPresent(generationKey(endpoint, request)) : null;
+            return (response != null ? response : query.get()).withFetchId(params.fetchId);
+        }
+
+        endpointTables.computeIfAbsent(endpoint,
+                e -> Arrays.stream(tables).map(Table::getName).collect(Collectors.toUnmodifiableSet()));
+        AtomicLong generation = generations.computeIfAbsent(endpoint, e -> new AtomicLong());
+
+        long before = generation.get();
+        String key = endpoint + " " + before + " " + request;
+        DataTableResponse response = enabled ? cache.getIfPresent(key) : null;
+        if (response == null) {
+            Supplier<DataTableResponse> miss = () -> {
+                DataTableResponse computed = query.get();
+                if (enabled && generation.get() == before)
+                    cache.put(key, computed);
+                return computed;
+            };
+            response = properties.isCoalesceRequests() ? coalescer.get(key, miss) : miss.get();
+        }
+        return response.withFetchId(params.fetchId);
+    }
+
+    /**
+     * {@link #get}, unless <code>ifNoneMatch</code> is the <code>ETag</code>
+     * the response would have
+     *
+     * @param ifNoneMatch the <code>If-None-Match</code> header, may be
+     *                    <code>null</code>
+     */
+    public ResponseEntity<DataTableResponse> conditional(String endpoint, Table<?>[] tables,
+            DataTableQueryParams params, String ifNoneMatch, Supplier<DataTableResponse> query) {
+        if (!properties.isConditionalRequests())
+            return ResponseEntity.ok(get(endpoint, tables, params, query));
+
+        // read before the response is computed, a change committed meanwhile changes the next ETag
+        long stamp = tableVersions.stamp(endpoint, tables);
+        String request = normalize(params);
+        String eTag = "W/\"" + Long.toHexString(stamp) + "-" + digest(endpoint + " " + request) + "\"";
+        if (ifNoneMatch != null && matches(ifNoneMatch, eTag))
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).build();
+        // responses computed after the stamp was read, cached or shared, are at least as recent
+        return ResponseEntity.ok().eTag(eTag)
+                .body(get(endpoint, tables, stamp + " " + request, params, query));
+    }
+
+    /** @return the first 128 bits of the SHA-256 of <code>request</code>, in hex */
+    private static String digest(String request) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(request.getBytes(StandardCharsets.UTF_8));
+            return String.format("%032x", new BigInteger(1, Arrays.copyOf(hash, 16)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** @return the key of <code>request</code> in the current generation of <code>endpoint</code> */
+    private String generationKey(String endpoint, String request) {
+        AtomicLong generation = generations.get(endpoint);
+        return endpoint + " " + (generation == null ? 0 : generation.get()) + " " + request;
+    }
+
+    /**
+     * Runs <code>work</code>, which reads a snapshot of the database taken
+     * before it started, e.g. in a repeatable read transaction. A change
+     * committed and notified meanwhile is not seen by the snapshot, so the
+     * responses it computes on this thread are not cached nor shared with
+     * concurrent requests.
+     */
+    public <T> T snapshot(Supplier<T> work) {
+        if (snapshot.get())
+            return work.get();
+        snapshot.set(true);
+        try {
+            return work.get();
+        } finally {
+            snapshot.remove();
+        }
+    }
+
+    /** Weak comparison of <code>eTag</code> with each tag of the header */
+    private static boolean matches(String ifNoneMatch, String eTag) {
+        String opaque = eTag.substring(2);
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.equals("*") || (tag.startsWith("W/") ? tag.substring(2) : tag).equals(opaque))
+                return true;
+        }
+        return false;
+    }
+
+    @EventListener
+    public void onTableChanged(TableChangedEvent event) {
+        endpointTables.forEach((endpoint, tables) -> {
+            if (event.getTable() == null || tables.contains(event.getTable())) {
+                // get() may not have added the generation yet
+                generations.computeIfAbsent(endpoint, e -> new AtomicLong()).incrementAndGet();
+                invalidationCount.incrementAndGet();
+            }
+        });
+    }
+
+    public Stats stats() {
+        CacheStats cacheStats = cache.stats();
+        Stats stats = new Stats();
+        stats.size = cache.estimatedSize();
+        stats.hitCount = cacheStats.hitCount();
+        stats.missCount = cacheStats.missCount();
+        stats.hitRate = cacheStats.hitRate();
+        stats.evictionCount = cacheStats.evictionCount();
+        stats.invalidationCount = invalidationCount.get();
+        stats.coalescedCount = coalescer.getCoalescedCount();
+        return stats;
+    }
+
+    /**
+     * The params as JSON without <code>fetchId</code>, filters without value
+     * dropped and the rest sorted, as they are ANDed in any order
+     */
+    static String normalize(DataTableQueryParams params) {
+        ObjectNode node = MAPPER.createObjectNode();
+
+        ArrayNode filters = node.putArray("filters");
+        Arrays.stream(params.filters).filter(filter -> filter.value != null)
+                .sorted(Comparator.comparing((Filter filter) -> String.valueOf(filter.id))
+                        .thenComparing(filter -> filter.value))
+                .forEach(filter -> filters.addObject().put("id", filter.id).put("value", filter.value));
+
+        ArrayNode orders = node.putArray("orders");
+        for (Order order : params.orders) {
+            orders.addObject().put("id", order.id).put("desc", Boolean.TRUE.equals(order.desc));
+        }
+
+        node.put("limit", params.limit).put("offset", params.offset).put("after", params.after);
+
+        try {
+            return MAPPER.writeValueAsString(node);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.letstesla.dvdrentalspringboot;
+
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+public class DataTableCacheController {
+
+    private final DataTableCache cache;
+
+    public DataTableCacheController(DataTableCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Counters since startup, for sizing <code>datatable.cache.*</code>
+     */
+    @GetMapping("/api/datatable/cache/stats")
+    public DataTableCache.Stats stats() {
+        return cache.stats();
+    }
+
+}
@@ -0,0 +1,218 @@
+package com.letstesla.dvdrentalspringboot;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import com.letstesla.dvdrentalspringboot.DataTableQueryParams.Filter;
+import com.letstesla.dvdrentalspringboot.DataTableQueryParams.Order;
+import com.letstesla.dvdrentalspringboot.QueryTemplate.Binder;
+
+import org.jooq.Condition;
+import org.jooq.DataType;
+import org.jooq.Field;
+import org.jooq.impl.SQLDataType;
+
+/**
+ * The filterable and sortable columns of a datatable endpoint.
+ * <p>
+ * Conditions and sort keys are built through a {@link Binder}, which either
+ * binds the request values right away or declares them as parameters of a
+ * {@link QueryTemplate}. A template only depends on the {@link Request#shape}
+ * of a request, i.e. which filters and orders it has, not on their values.
+ */
+public class DataTableColumns {
+
+    /** Binds the value of one filter */
+    public interface FilterValue {
+        /** @return a new bind of the filter value, converted */
+        <T> Field<T> as(DataType<T> type, Function<String, T> convert);
+
+        /** @return a new bind of an ILIKE pattern matching the filter value anywhere */
+        default Field<String> contains() {
+            return as(SQLDataType.VARCHAR, DataTableColumns::containsPattern);
+        }
+    }
+
+    /** Binds the values of other filters, for sort keys depending on them */
+    public interface Filters {
+        /** @return a bind of the value of filter <code>id</code>, or <code>null</code> without one */
+        Field<String> value(String id);
+    }
+
+    /**
+     * The filters and orders of a request in the order of its shape, plus the
+     * values to bind
+     */
+    public class Request {
+        public final DataTableQueryParams params;
+        /** the filters with a value and a known id, by id */
+        final List<Filter> filters = new ArrayList<>();
+        /** the decoded <code>after</code> cursor */
+        Object[] seek = {};
+        public final String shape;
+
+        Request(DataTableQueryParams params) {
+            this.params = params;
+            for (Filter filter : params.filters) {
+                if (filter.value != null && filterColumns.containsKey(filter.id))
+                    filters.add(filter);
+            }
+            // conditions are ANDed, the same filters in any order are one shape
+            filters.sort(Comparator.comparing(filter -> filter.id));
+
+            StringBuilder shape = new StringBuilder();
+            for (Filter filter : filters) {
+                shape.append(filter.id).append(',');
+            }
+            shape.append('|');
+            for (Order order : params.orders) {
+                shape.append(order.id).append(Boolean.TRUE.equals(order.desc) ? '-' : '+').append(',');
+            }
+            this.shape = shape.toString();
+        }
+
+        public void setSeek(Object[] seek) {
+            this.seek = seek;
+        }
+    }
+
+    private final Map<String, Function<FilterValue, Condition>> filterColumns = new HashMap<>();
+
+    private final Map<String, Function<Filters, Field<?>[]>> orderColumns = new HashMap<>();
+
+    private final Field<?> tieBreaker;
+
+    /**
+     * @param tieBreaker the last sort key, keeps pages stable and the keyset
+     *                   unique. It is sorted in the direction of the first
+     *                   order, so that an index on <code>(key, tieBreaker)</code>
+     *                   serves both directions.
+     */
+    public DataTableColumns(Field<?> tieBreaker) {
+        this.tieBreaker = tieBreaker;
+    }
+
+    public DataTableColumns filter(String id, Function<FilterValue, Condition> condition) {
+        filterColumns.put(id, condition);
+        return this;
+    }
+
+    /**
+     * @param keys the sort keys, nullable ones must be coalesced as seek
+     *             predicates never match <code>NULL</code>
+     */
+    public DataTableColumns order(String id, Field<?>... keys) {
+        orderColumns.put(id, filters -> keys);
+        return this;
+    }
+
+    /**
+     * @param keys the sort keys, none when the filters they depend on are missing
+     */
+    public DataTableColumns order(String id, Function<Filters, Field<?>[]> keys) {
+        orderColumns.put(id, keys);
+        return this;
+    }
+
+    /** @return the ids of the filters, in no particular order */
+    public Set<String> filterIds() {
+        return filterColumns.keySet();
+    }
+
+    /** @return the ids of the orders, in no particular order */
+    public Set<String> orderIds() {
+        return orderColumns.keySet();
+    }
+
+    /**
+     * @return the sort keys of order <code>id</code> when no filter is set,
+     *         those depending on filters are missing
+     */
+    public Field<?>[] keys(String id) {
+        return orderColumns.get(id).apply(filterId -> null);
+    }
+
+    public Request request(DataTableQueryParams params) {
+        return new Request(params);
+    }
+
+    public List<Condition> conditions(Binder<Request> binder, Request shape) {
+        List<Condition> conditions = new ArrayList<>(shape.filters.size());
+        for (int i = 0; i < shape.filters.size(); i++) {
+            final int index = i;
+            conditions.add(filterColumns.get(shape.filters.get(i).id).apply(new FilterValue() {
+                @Override
+                public <T> Field<T> as(DataType<T> type, Function<String, T> convert) {
+                    return binder.bind(type, request -> convert.apply(request.filters.get(index).value));
+                }
+            }));
+        }
+        return conditions;
+    }
+
+    /**
+     * @return the sort keys of order <code>id</code> for the filters of
+     *         <code>shape</code>, none for an unknown order
+     */
+    public Field<?>[] keys(Binder<Request> binder, Request shape, String id) {
+        Function<Filters, Field<?>[]> keys = orderColumns.get(id);
+        return keys == null ? new Field<?>[0] : keys.apply(filters(binder, shape));
+    }
+
+    private static Filters filters(Binder<Request> binder, Request shape) {
+        return id -> {
+            for (int i = 0; i < shape.filters.size(); i++) {
+                if (shape.filters.get(i).id.equals(id)) {
+                    final int index = i;
+                    return binder.bind(SQLDataType.VARCHAR, request -> request.filters.get(index).value);
+                }
+            }
+            return null;
+        };
+    }
+
+    public SeekCursor cursor(Binder<Request> binder, Request shape) {
+        Filters filters = filters(binder, shape);
+        SeekCursor cursor = new SeekCursor(shape.params.orders);
+        Boolean tieBreakerDesc = null;
+        for (Order order : shape.params.orders) {
+            Function<Filters, Field<?>[]> keys = orderColumns.get(order.id);
+            if (keys == null)
+                continue;
+            for (Field<?> key : keys.apply(filters)) {
+                cursor.add(key, Boolean.TRUE.equals(order.desc));
+                if (tieBreakerDesc == null)
+                    tieBreakerDesc = Boolean.TRUE.equals(order.desc);
+            }
+        }
+        cursor.add(tieBreaker, Boolean.TRUE.equals(tieBreakerDesc));
+        return cursor;
+    }
+
+    /**
+     * @return binds of {@link Request#seek}, for <code>seekAfter()</code> of a
+     *         query sorted by <code>cursor</code>
+     */
+    public Field<?>[] seekValues(Binder<Request> binder, SeekCursor cursor) {
+        List<Field<?>> keys = cursor.selectFields();
+        Field<?>[] values = new Field<?>[keys.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = seekValue(binder, keys.get(i).getDataType(), i);
+        }
+        return values;
+    }
+
+    private static <T> Field<T> seekValue(Binder<Request> binder, DataType<T> type, int index) {
+        return binder.bind(type, request -> type.convert(request.seek[index]));
+    }
+
+    /** Escapes the LIKE wildcards of <code>text</code> and wraps it in <code>%</code> */
+    public static String containsPattern(String text) {
+        return "%" + text.replace("\\", "\\\\").replace("_", "\\_").replace("%", "\\%") + "%";
+    }
+}
@@ -0,0 +1,164 @@
+package com.letstesla.dvdrentalspringboot;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Function;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import org.jooq.Cursor;
+import org.jooq.DSLContext;
+import org.jooq.EnumType;
+import org.jooq.Field;
+import org.jooq.Record;
+import org.jooq.RecordMapper;
+import org.jooq.ResultQuery;
+import org.jooq.impl.DSL;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+/**
+ * Streams the full filtered result of a datatable query as NDJSON or CSV.
+ * <p>
+ * Rows are read through a server-side cursor (PostgreSQL only honours the JDBC
+ * fetch size with auto-commit off, hence the transaction) and written to the
+ * response one at a time, so memory stays constant whatever the result size.
+ */
+@Component
+public class DataTableExport {
+
+    // Convert a predefined exception to an HTTP Status code
+    @ResponseStatus(value = HttpStatus.BAD_REQUEST, // HTTP 400
+            reason = "'format' must be ndjson or csv")
+    public static class UnsupportedFormatException extends RuntimeException {
+        private static final long serialVersionUID = 6079471522858384529L;
+    }
+
+    private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
+    private static final MediaType CSV = MediaType.parseMediaType("text/csv;charset=UTF-8");
+
+    private final DSLContext dsl;
+
+    private final ObjectMapper objectMapper;
+
+    private final DataTableProperties properties;
+
+    public DataTableExport(DSLContext dsl, ObjectMapper objectMapper, DataTableProperties properties) {
+        this.dsl = dsl;
+        this.objectMapper = objectMapper;
+        this.properties = properties;
+    }
+
+    /**
+     * One JSON document per row, each followed by a newline.
+     *
+     * @param query  builds the query on the DSLContext of the export transaction
+     * @param mapper maps a row to the object serialized for it, the same as the
+     *               datatable <code>data</code> elements
+     */
+    public ResponseEntity<StreamingResponseBody> ndjson(String name, Function<DSLContext, ResultQuery<Record>> query,
+            RecordMapper<Record, ?> mapper) {
+        // one flush per row would defeat the response buffer
+        ObjectWriter writer = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+        StreamingResponseBody body = out -> stream(name, query, cursor -> {
+            try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+                generator.setRootValueSeparator(null);
+                for (Record record : cursor) {
+                    writer.writeValue(generator, mapper.map(record));
+                    generator.writeRaw('\n');
+                }
+            }
+        });
+        return response(name + ".ndjson", NDJSON, body);
+    }
+
+    /**
+     * A header line with the column names, then one line per row. Arrays are
+     * joined with <code>,</code>, <code>NULL</code> is an empty value.
+     */
+    public ResponseEntity<StreamingResponseBody> csv(String name, Function<DSLContext, ResultQuery<Record>> query,
+            Field<?>... columns) {
+        StreamingResponseBody body = out -> stream(name, query, cursor -> {
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
+                for (int i = 0; i < columns.length; i++) {
+                    writeCsvValue(writer, i, columns[i].getName());
+                }
+                writer.write("\r\n");
+                for (Record record : cursor) {
+                    for (int i = 0; i < columns.length; i++) {
+                        writeCsvValue(writer, i, record.get(columns[i]));
+                    }
+                    writer.write("\r\n");
+                }
+            }
+        });
+        return response(name + ".csv", CSV, body);
+    }
+
+    private interface CursorWriter {
+        void write(Cursor<Record> cursor) throws IOException;
+    }
+
+    private void stream(String name, Function<DSLContext, ResultQuery<Record>> query, CursorWriter writer) {
+        dsl.transaction(configuration -> {
+            try (Cursor<Record> cursor = query
+                    .apply(QueryMetrics.tag(DSL.using(configuration), name, "export", QueryMetrics.NONE))
+                    .fetchSize(properties.getExportFetchSize()).fetchLazy()) {
+                writer.write(cursor);
+            } catch (IOException e) {
+                // e.g. the client went away, rolls back and closes the cursor
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private static void writeCsvValue(Writer writer, int column, Object value) throws IOException {
+        if (column > 0)
+            writer.write(',');
+        if (value == null)
+            return;
+
+        String text;
+        if (value instanceof Object[]) {
+            StringBuilder joined = new StringBuilder();
+            for (Object element : (Object[]) value) {
+                if (joined.length() > 0)
+                    joined.append(',');
+                joined.append(element);
+            }
+            text = joined.toString();
+        } else if (value instanceof EnumType) {
+            text = ((EnumType) value).getLiteral();
+        } else {
+            text = value.toString();
+        }
+
+        if (text.indexOf(',') < 0 && text.indexOf('"') < 0 && text.indexOf('\n') < 0 && text.indexOf('\r') < 0) {
+            writer.write(text);
+        } else {
+            writer.write('"');
+            writer.write(text.replace("\"", "\"\""));
+            writer.write('"');
+        }
+    }
+
+    private static ResponseEntity<StreamingResponseBody> response(String filename, MediaType contentType,
+            StreamingResponseBody body) {
+        return ResponseEntity.ok().contentType(contentType)
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"").body(body);
+    }
+}
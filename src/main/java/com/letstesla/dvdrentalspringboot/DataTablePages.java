@@ -0,0 +1,232 @@
+package com.letstesla.dvdrentalspringboot;
+
+import static org.jooq.impl.DSL.count;
+import static org.jooq.impl.DSL.inline;
+import static org.jooq.impl.DSL.select;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.letstesla.dvdrentalspringboot.DataTableColumns.Request;
+import com.letstesla.dvdrentalspringboot.DataTableProperties.CountMode;
+import com.letstesla.dvdrentalspringboot.QueryTemplate.Binds;
+import com.letstesla.dvdrentalspringboot.TableCounts.Count;
+
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Param;
+import org.jooq.Record;
+import org.jooq.Result;
+import org.jooq.SelectSeekStepN;
+import org.jooq.Table;
+import org.jooq.impl.SQLDataType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * The pages of a datatable endpoint: the statements of each request shape,
+ * rendered once, and the paging the endpoints share. A page is read by offset
+ * or, with <code>after</code>, by seeking; its filtered count is counted
+ * separately, along the page with a window, or estimated, see
+ * {@link TableCounts#estimate}.
+ */
+public class DataTablePages {
+
+    static final Field<Integer> RECORDS_FILTERED = count().over().as("records_filtered");
+
+    // Convert a predefined exception to an HTTP Status code
+    @ResponseStatus(value = HttpStatus.BAD_REQUEST, // HTTP 400
+            reason = "'limit' or 'offset' is invalid")
+    public static class QueryLimitException extends RuntimeException {
+        private static final long serialVersionUID = 3820023033506881886L;
+    }
+
+    /** The statements of one request shape */
+    class Templates {
+        /** for decoding <code>after</code> and encoding <code>next</code> */
+        final SeekCursor cursor;
+        final QueryTemplate<Request> rows;
+        final QueryTemplate<Request> count;
+        final QueryTemplate<Request> offsetPage;
+        final QueryTemplate<Request> windowPage;
+        final QueryTemplate<Request> seekPage;
+
+        Templates(Request shape) {
+            Binds<Request> binds = new Binds<>();
+            rows = QueryTemplate.render(dsl, binds,
+                    select(inline(1)).from(from).where(columns.conditions(binds, shape)))
+                    .tag(endpoint, "filtered-estimate", shape.shape);
+
+            binds = new Binds<>();
+            count = QueryTemplate.render(dsl, binds,
+                    select(countFiltered).from(from).where(columns.conditions(binds, shape)))
+                    .tag(endpoint, "filtered-count", shape.shape);
+
+            binds = new Binds<>();
+            offsetPage = QueryTemplate.render(dsl, binds, page(binds, shape, columns.cursor(binds, shape), false)
+                    .limit(limit(binds)).offset(binds.bind(SQLDataType.INTEGER, request -> request.params.offset)))
+                    .tag(endpoint, "page", shape.shape);
+
+            binds = new Binds<>();
+            windowPage = QueryTemplate.render(dsl, binds, page(binds, shape, columns.cursor(binds, shape), true)
+                    .limit(limit(binds)).offset(binds.bind(SQLDataType.INTEGER, request -> request.params.offset)))
+                    .tag(endpoint, "page", shape.shape);
+
+            binds = new Binds<>();
+            cursor = columns.cursor(binds, shape);
+            seekPage = QueryTemplate.render(dsl, binds, page(binds, shape, cursor, false)
+                    .seekAfter(columns.seekValues(binds, cursor)).limit(limit(binds)))
+                    .tag(endpoint, "page", shape.shape);
+        }
+
+        private SelectSeekStepN<Record> page(Binds<Request> binds, Request shape, SeekCursor cursor,
+                boolean windowCount) {
+            return select(fields).select(cursor.selectFields())
+                    .select(windowCount ? List.of(RECORDS_FILTERED) : List.of()).from(from)
+                    .where(columns.conditions(binds, shape)).orderBy(cursor.sortFields());
+        }
+
+        private Param<Integer> limit(Binds<Request> binds) {
+            return binds.bind(SQLDataType.INTEGER, request -> request.params.limit);
+        }
+    }
+
+    /** The rows of a page, with the counts and the cursor of its response */
+    public static class Page {
+        public final Result<Record> rows;
+        public final int recordsFiltered;
+        public final int recordsTotal;
+        public final boolean approximate;
+        public final String next;
+
+        Page(Result<Record> rows, int recordsFiltered, int recordsTotal, boolean approximate, String next) {
+            this.rows = rows;
+            this.recordsFiltered = recordsFiltered;
+            this.recordsTotal = recordsTotal;
+            this.approximate = approximate;
+            this.next = next;
+        }
+
+        /** @return the response to <code>reqBody</code> with the page rows as <code>data</code> */
+        public DataTableResponse response(DataTableQueryParams reqBody, Object[] data) {
+            return new DataTableResponse(reqBody.fetchId, recordsFiltered, recordsTotal, approximate, data, next);
+        }
+    }
+
+    private final DSLContext dsl;
+
+    private final DataTableProperties properties;
+
+    private final TableCounts tableCounts;
+
+    private final QueryExecutor queryExecutor;
+
+    /** tags the statements for {@link QueryMetrics} */
+    private final String endpoint;
+
+    /** the table counted for <code>recordsTotal</code> */
+    private final Table<?> table;
+
+    private final Table<?> from;
+
+    private final DataTableColumns columns;
+
+    /** counts the rows of <code>from</code> matching the filters */
+    private final Field<Integer> countFiltered;
+
+    /** the fields of a page row */
+    private final Field<?>[] fields;
+
+    /** By {@link Request#shape} */
+    private final Cache<String, Templates> templates;
+
+    Logger logger = LoggerFactory.getLogger(DataTablePages.class);
+
+    /**
+     * @param endpoint      tags the statements for {@link QueryMetrics}
+     * @param table         the table counted for <code>recordsTotal</code>
+     * @param countFiltered counts the rows of <code>from</code> matching the
+     *                      filters
+     * @param fields        the fields of a page row
+     */
+    public DataTablePages(DSLContext dsl, DataTableProperties properties, TableCounts tableCounts,
+            QueryExecutor queryExecutor, String endpoint, Table<?> table, Table<?> from, DataTableColumns columns,
+            Field<Integer> countFiltered, List<Field<?>> fields) {
+        this.dsl = dsl;
+        this.properties = properties;
+        this.tableCounts = tableCounts;
+        this.queryExecutor = queryExecutor;
+        this.endpoint = endpoint;
+        this.table = table;
+        this.from = from;
+        this.columns = columns;
+        this.countFiltered = countFiltered;
+        this.fields = fields.toArray(Field<?>[]::new);
+        this.templates = Caffeine.newBuilder().maximumSize(properties.getTemplateCacheSize()).build();
+    }
+
+    /**
+     * @return the request of <code>reqBody</code>, with the seek values of
+     *         <code>after</code> decoded
+     */
+    Request request(DataTableQueryParams reqBody) {
+        if (reqBody.limit <= 0 || reqBody.offset < 0)
+            throw new QueryLimitException();
+
+        Request request = columns.request(reqBody);
+        if (reqBody.after != null)
+            request.setSeek(templates(request).cursor.values(reqBody.after));
+        return request;
+    }
+
+    /** @return the statements of the shape of <code>request</code> */
+    Templates templates(Request request) {
+        return templates.get(request.shape, key -> new Templates(request));
+    }
+
+    public Page page(DataTableQueryParams reqBody) {
+        return page(request(reqBody));
+    }
+
+    /** @param request as returned by {@link #request(DataTableQueryParams)} */
+    Page page(Request request) {
+        DataTableQueryParams reqBody = request.params;
+        int limit = reqBody.limit;
+
+        CompletableFuture<Count> recordsTotal = queryExecutor.submit(() -> tableCounts.total(endpoint, table));
+
+        logger.debug("Params: {}", reqBody.toString());
+
+        Templates shape = templates(request);
+
+        Supplier<Integer> countFiltered = () -> shape.count.query(this.dsl, request).fetchOne(0, int.class);
+        // too many rows to count, take the planner's word for it
+        Count estimate = tableCounts.estimate(table, () -> shape.rows.query(this.dsl, request));
+
+        // the page can only count the filtered rows when it is not cut by a seek predicate
+        boolean windowCount = properties.getCountMode() == CountMode.WINDOW && reqBody.after == null
+                && estimate == null;
+        CompletableFuture<Integer> separateCount = windowCount || estimate != null ? null
+                : queryExecutor.submit(countFiltered);
+
+        QueryTemplate<Request> page = reqBody.after != null ? shape.seekPage
+                : windowCount ? shape.windowPage : shape.offsetPage;
+        Result<Record> result = page.query(this.dsl, request).fetch();
+
+        // an empty page carries no count, e.g. an offset past the last row
+        int recordsFiltered = estimate != null ? estimate.value
+                : !windowCount ? QueryExecutor.join(separateCount)
+                        : result.isNotEmpty() ? result.get(0).get(RECORDS_FILTERED) : countFiltered.get();
+        Count total = QueryExecutor.join(recordsTotal);
+        boolean approximate = estimate != null || total.approximate;
+
+        String next = result.size() == limit ? shape.cursor.next(result.get(limit - 1)) : null;
+
+        return new Page(result, recordsFiltered, total.value, approximate, next);
+    }
+}
@@ -0,0 +1,337 @@
+package com.letstesla.dvdrentalspringboot;
+
+import java.time.Duration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Tuning knobs of the datatable endpoints, bound from <code>datatable.*</code>
+ * in <code>application.properties</code>.
+ */
+@Component
+@ConfigurationProperties(prefix = "datatable")
+public class DataTableProperties {
+
+    public enum CountMode {
+        /**
+         * <code>recordsFiltered</code> and the page are separate statements
+         */
+        SEPARATE,
+        /**
+         * <code>recordsFiltered</code> comes with the page rows through
+         * <code>count(*) over ()</code>
+         */
+        WINDOW
+    }
+
+    public enum FetchMode {
+        /**
+         * films page, then one query each for the categories and the actors of
+         * the page, stitched together in Java
+         */
+        SEPARATE,
+        /**
+         * one statement, categories and actors nested into each row as
+         * <code>json_agg</code> subqueries
+         */
+        AGGREGATED
+    }
+
+    public enum Execution {
+        /** the statements of a request run one after another on the request thread */
+        SEQUENTIAL,
+        /** independent statements of a request run concurrently, see {@link QueryExecutor} */
+        PARALLEL
+    }
+
+    public enum RowSerialization {
+        /** each row copied into the generated POJOs, which Jackson serializes */
+        POJO,
+        /** each row written from its record by a {@link RecordJsonWriter}, the same JSON */
+        STREAMING
+    }
+
+    public enum FilmSource {
+        /** each films request runs its statements */
+        DATABASE,
+        /** films requests are answered from the {@link FilmCatalog} in memory */
+        CATALOG
+    }
+
+    /** <code>datatable.cache.*</code>, see {@link DataTableCache} */
+    public static class Cache {
+
+        private boolean enabled = false;
+
+        private long maximumSize = 1000;
+
+        private Duration ttl = Duration.ofMinutes(5);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public long getMaximumSize() {
+            return maximumSize;
+        }
+
+        public void setMaximumSize(long maximumSize) {
+            this.maximumSize = maximumSize;
+        }
+
+        public Duration getTtl() {
+            return ttl;
+        }
+
+        public void setTtl(Duration ttl) {
+            this.ttl = ttl;
+        }
+    }
+
+    /** <code>datatable.reactive.*</code>, see {@link ReactiveQueries} */
+    public static class Reactive {
+
+        private boolean enabled = false;
+
+        private int poolSize = 10;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getPoolSize() {
+            return poolSize;
+        }
+
+        public void setPoolSize(int poolSize) {
+            this.poolSize = poolSize;
+        }
+    }
+
+    /** <code>datatable.startup.*</code>, see {@link StartupMigrations} and {@link StartupWarmUp} */
+    public static class Startup {
+
+        private boolean skipCurrentMigrations = false;
+
+        private boolean warmUp = false;
+
+        private boolean exitAfterWarmUp = false;
+
+        public boolean isSkipCurrentMigrations() {
+            return skipCurrentMigrations;
+        }
+
+        public void setSkipCurrentMigrations(boolean skipCurrentMigrations) {
+            this.skipCurrentMigrations = skipCurrentMigrations;
+        }
+
+        public boolean isWarmUp() {
+            return warmUp;
+        }
+
+        public void setWarmUp(boolean warmUp) {
+            this.warmUp = warmUp;
+        }
+
+        public boolean isExitAfterWarmUp() {
+            return exitAfterWarmUp;
+        }
+
+        public void setExitAfterWarmUp(boolean exitAfterWarmUp) {
+            this.exitAfterWarmUp = exitAfterWarmUp;
+        }
+    }
+
+    private CountMode countMode = CountMode.SEPARATE;
+
+    private FetchMode filmFetchMode = FetchMode.SEPARATE;
+
+    private Duration totalCountTtl = Duration.ofMinutes(1);
+
+    private long approximateCountThreshold = 0;
+
+    private Execution execution = Execution.SEQUENTIAL;
+
+    private RowSerialization rowSerialization = RowSerialization.POJO;
+
+    private FilmSource filmSource = FilmSource.DATABASE;
+
+    private int parallelism = 4;
+
+    private int exportFetchSize = 1000;
+
+    private long templateCacheSize = 500;
+
+    /** identical concurrent requests share one execution, see {@link RequestCoalescer} */
+    private boolean coalesceRequests = false;
+
+    /** responses carry an ETag, If-None-Match is answered 304 while the tables are unchanged */
+    private boolean conditionalRequests = false;
+
+    /** requests of one <code>/api/datatable/batch</code> call, larger batches are rejected */
+    private int batchMaxQueries = 20;
+
+    /** changes arriving meanwhile are added to the sales summaries by one refresh */
+    private Duration salesSummaryRefreshDelay = Duration.ofSeconds(5);
+
+    /** statements running at least this long are logged, zero disables the log */
+    private Duration slowQueryThreshold = Duration.ZERO;
+
+    /** distinct shapes timed by <code>datatable.query</code>, statements of further shapes are not timed */
+    private int metricsMaxShapes = 100;
+
+    private final Cache cache = new Cache();
+
+    private final Reactive reactive = new Reactive();
+
+    private final Startup startup = new Startup();
+
+    public CountMode getCountMode() {
+        return countMode;
+    }
+
+    public void setCountMode(CountMode countMode) {
+        this.countMode = countMode;
+    }
+
+    public FetchMode getFilmFetchMode() {
+        return filmFetchMode;
+    }
+
+    public void setFilmFetchMode(FetchMode filmFetchMode) {
+        this.filmFetchMode = filmFetchMode;
+    }
+
+    public Duration getTotalCountTtl() {
+        return totalCountTtl;
+    }
+
+    public void setTotalCountTtl(Duration totalCountTtl) {
+        this.totalCountTtl = totalCountTtl;
+    }
+
+    public long getApproximateCountThreshold() {
+        return approximateCountThreshold;
+    }
+
+    public void setApproximateCountThreshold(long approximateCountThreshold) {
+        this.approximateCountThreshold = approximateCountThreshold;
+    }
+
+    public Execution getExecution() {
+        return execution;
+    }
+
+    public void setExecution(Execution execution) {
+        this.execution = execution;
+    }
+
+    public RowSerialization getRowSerialization() {
+        return rowSerialization;
+    }
+
+    public void setRowSerialization(RowSerialization rowSerialization) {
+        this.rowSerialization = rowSerialization;
+    }
+
+    public FilmSource getFilmSource() {
+        return filmSource;
+    }
+
+    public void setFilmSource(FilmSource filmSource) {
+        this.filmSource = filmSource;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public int getExportFetchSize() {
+        return exportFetchSize;
+    }
+
+    public void setExportFetchSize(int exportFetchSize) {
+        this.exportFetchSize = exportFetchSize;
+    }
+
+    public long getTemplateCacheSize() {
+        return templateCacheSize;
+    }
+
+    public void setTemplateCacheSize(long templateCacheSize) {
+        this.templateCacheSize = templateCacheSize;
+    }
+
+    public boolean isCoalesceRequests() {
+        return coalesceRequests;
+    }
+
+    public void setCoalesceRequests(boolean coalesceRequests) {
+        this.coalesceRequests = coalesceRequests;
+    }
+
+    public boolean isConditionalRequests() {
+        return conditionalRequests;
+    }
+
+    public void setConditionalRequests(boolean conditionalRequests) {
+        this.conditionalRequests = conditionalRequests;
+    }
+
+    public int getBatchMaxQueries() {
+        return batchMaxQueries;
+    }
+
+    public void setBatchMaxQueries(int batchMaxQueries) {
+        this.batchMaxQueries = batchMaxQueries;
+    }
+
+    public Duration getSalesSummaryRefreshDelay() {
+        return salesSummaryRefreshDelay;
+    }
+
+    public void setSalesSummaryRefreshDelay(Duration salesSummaryRefreshDelay) {
+        this.salesSummaryRefreshDelay = salesSummaryRefreshDelay;
+    }
+
+    public Duration getSlowQueryThreshold() {
+        return slowQueryThreshold;
+    }
+
+    public void setSlowQueryThreshold(Duration slowQueryThreshold) {
+        this.slowQueryThreshold = slowQueryThreshold;
+    }
+
+    public int getMetricsMaxShapes() {
+        return metricsMaxShapes;
+    }
+
+    public void setMetricsMaxShapes(int metricsMaxShapes) {
+        this.metricsMaxShapes = metricsMaxShapes;
+    }
+
+    public Cache getCache() {
+        return cache;
+    }
+
+    public Reactive getReactive() {
+        return reactive;
+    }
+
+    public Startup getStartup() {
+        return startup;
+    }
+}
@@ -115,6 +115,13 @@ public class DataTableQueryParams {
     public int limit = 10;
     @JsonProperty
     public int offset = 0;
+    /**
+     * Opaque keyset cursor taken from {@link DataTableResponse#next}. When set,
+     * the page starts right after the row it points to and <code>offset</code>
+     * is ignored.
+     */
+    @JsonProperty
+    public String after;
 
     @Override
     public String toString() {
@@ -1,5 +1,6 @@
 package com.letstesla.dvdrentalspringboot;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 public class DataTableResponse {
@@ -10,12 +11,47 @@ public class DataTableResponse {
         this.data = data;
     }
 
+    public DataTableResponse(int fetchId, int recordsFiltered, int recordsTotal, Object[] data, String next) {
+        this(fetchId, recordsFiltered, recordsTotal, data);
+        this.next = next;
+    }
+
+    public DataTableResponse(int fetchId, int recordsFiltered, int recordsTotal, boolean recordsApproximate,
+            Object[] data, String next) {
+        this(fetchId, recordsFiltered, recordsTotal, data, next);
+        this.recordsApproximate = recordsApproximate;
+    }
+
+    /** @return this response, answering the request of <code>fetchId</code> */
+    public DataTableResponse withFetchId(int fetchId) {
+        return new DataTableResponse(fetchId, recordsFiltered, recordsTotal, recordsApproximate, data, next);
+    }
+
+    /** @return this response with the rows <code>data</code> */
+    public DataTableResponse withData(Object[] data) {
+        return new DataTableResponse(fetchId, recordsFiltered, recordsTotal, recordsApproximate, data, next);
+    }
+
     @JsonProperty
     public int fetchId = 0;
     @JsonProperty
     public int recordsFiltered = 0;
     @JsonProperty
     public int recordsTotal = 0;
+    /**
+     * Set when <code>recordsFiltered</code> or <code>recordsTotal</code> is a
+     * planner estimate rather than an exact count. Absent otherwise.
+     */
+    @JsonProperty
+    @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+    public boolean recordsApproximate;
     @JsonProperty
     public Object[] data = {};
+    /**
+     * Keyset cursor for the following page, to be sent back as
+     * {@link DataTableQueryParams#after}. Absent on the last page.
+     */
+    @JsonProperty
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public String next;
 }
\ No newline at end of file
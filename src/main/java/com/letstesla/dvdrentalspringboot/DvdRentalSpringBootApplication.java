@@ -2,8 +2,11 @@ package com.letstesla.dvdrentalspringboot;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.r2dbc.R2dbcAutoConfiguration;
 
-@SpringBootApplication
+// ReactiveQueries keeps its R2DBC pool to itself, a ConnectionFactory bean would make the DataSource, and with it
+// jOOQ, back off
+@SpringBootApplication(exclude = R2dbcAutoConfiguration.class)
 public class DvdRentalSpringBootApplication {
 
 	public static void main(String[] args) {
@@ -0,0 +1,21 @@
+package com.letstesla.dvdrentalspringboot;
+
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.boot.autoconfigure.flyway.FlywayMigrationInitializer;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps the Flyway migrations in the startup with
+ * <code>spring.main.lazy-initialization</code>. Nothing depends on the
+ * {@link FlywayMigrationInitializer}, jOOQ included, so created lazily it
+ * would never be, and the schema never migrated.
+ */
+@Component
+public class EagerMigrations implements LazyInitializationExcludeFilter {
+
+    @Override
+    public boolean isExcluded(String beanName, BeanDefinition beanDefinition, Class<?> beanType) {
+        return FlywayMigrationInitializer.class.isAssignableFrom(beanType);
+    }
+}
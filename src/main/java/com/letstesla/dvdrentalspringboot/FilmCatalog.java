@@ -0,0 +1,715 @@
+package com.letstesla.dvdrentalspringboot;
+
+import static com.letstesla.dvdrentalspringboot.db.tables.Actor.*;
+import static com.letstesla.dvdrentalspringboot.db.tables.Category.*;
+import static com.letstesla.dvdrentalspringboot.db.tables.Film.*;
+import static com.letstesla.dvdrentalspringboot.db.tables.FilmActor.*;
+import static com.letstesla.dvdrentalspringboot.db.tables.FilmCategory.*;
+import static com.letstesla.dvdrentalspringboot.db.tables.Language.*;
+
+import static org.jooq.impl.DSL.denseRank;
+import static org.jooq.impl.DSL.lower;
+import static org.jooq.impl.DSL.select;
+import static org.jooq.impl.DSL.val;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.letstesla.dvdrentalspringboot.DataTableColumns.Request;
+import com.letstesla.dvdrentalspringboot.DataTableQueryParams.Filter;
+import com.letstesla.dvdrentalspringboot.DataTableQueryParams.Order;
+import com.letstesla.dvdrentalspringboot.QueryTemplate.Binds;
+import com.letstesla.dvdrentalspringboot.db.tables.pojos.Actor;
+import com.letstesla.dvdrentalspringboot.db.tables.pojos.Category;
+import com.letstesla.dvdrentalspringboot.db.tables.records.ActorRecord;
+import com.letstesla.dvdrentalspringboot.db.tables.records.CategoryRecord;
+import com.letstesla.dvdrentalspringboot.db.tables.records.FilmRecord;
+import com.letstesla.dvdrentalspringboot.db.tables.records.LanguageRecord;
+
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Record;
+import org.jooq.Record2;
+import org.jooq.Result;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * The films, languages, categories and actors of the films datatable, held in
+ * memory to filter, sort, count and page them without a statement per
+ * request, when <code>datatable.film-source=catalog</code>.
+ * <p>
+ * Films are numbered by ascending <code>film_id</code> and every per-film
+ * structure is an array of that index: the page records (film and language
+ * columns, as selected by {@link FilmController}), the lower-cased text of the
+ * substring filters, the categories and actors of each film. The category and
+ * actor filters go through inverted indexes, the films of each category and
+ * actor as a {@link BitSet}. Each single-key order of
+ * {@link FilmController#COLUMNS} is ranked by the database, with the very sort
+ * key expression the SQL pages use, so that the catalog sorts by its
+ * collation; the films presorted by each rank are a permutation array.
+ * <p>
+ * Filters the catalog cannot evaluate, the full-text <code>q</code> filter, and
+ * sort keys depending on filters, relevance, come from one statement selecting
+ * the ids and keys of the matching films. A request whose <code>after</code>
+ * cursor points to a film missing or changed since is not answered, the
+ * caller runs the SQL page.
+ * <p>
+ * The catalog is loaded by the first request, a failed load leaves it to the
+ * SQL page and the load to the next request. It is refreshed after each
+ * {@link TableChangedEvent} of its tables, on a thread of its own: films
+ * changed or added since the last refresh, by the <code>xmin</code> of their
+ * rows, and the ids of the deleted ones. Languages, categories, actors and the
+ * link tables are small and reloaded whole. The arrays are rebuilt and swapped in
+ * at once, requests never see a partial refresh. From the event, which comes
+ * before the response cache is invalidated, until the refresh is done the
+ * catalog answers no request, the caller runs the SQL page. With
+ * <code>datatable.conditional-requests</code> it neither answers while the
+ * {@link TableVersions} of its tables differ from those it read, the
+ * <code>ETag</code> of a response covers the changes whose event is still to
+ * come.
+ */
+@Component
+public class FilmCatalog implements DisposableBean {
+
+    /** The tables the catalog is loaded from */
+    private static final String[] TABLES = { FILM.getName(), LANGUAGE.getName(), CATEGORY.getName(),
+            ACTOR.getName(), FILM_CATEGORY.getName(), FILM_ACTOR.getName() };
+
+    /**
+     * The transaction which wrote the row, every update writes a new one: a
+     * film is re-read when it differs, however long ago the transaction
+     * started, unlike <code>last_update</code>
+     */
+    private static final Field<String> XMIN = DSL.field("xmin::text", String.class);
+
+    /** The columns of the page records, film then language */
+    private static final Field<?>[] FIELDS = FilmController.FROM.fields();
+
+    /** Creates detached records, never executes */
+    private static final DSLContext RECORDS = DSL.using(SQLDialect.POSTGRES);
+
+    /** The filters evaluated in memory, the others by {@link #filterStatements} */
+    private static final Set<String> FILTERS = Set.of("title", "length", "rating", "rentalRate",
+            "categories.category", "actors.fullName", "language.name");
+
+    /** A page of films, sorted and counted */
+    static class Page {
+        /** film and language columns */
+        final List<Record> rows = new ArrayList<>();
+        final List<List<Category>> categories = new ArrayList<>();
+        final List<List<Actor>> actors = new ArrayList<>();
+        final int recordsFiltered;
+        final int recordsTotal;
+        /** the sort key values of the last row of a full page, for <code>next</code> */
+        Object[] last;
+
+        Page(int recordsFiltered, int recordsTotal) {
+            this.recordsFiltered = recordsFiltered;
+            this.recordsTotal = recordsTotal;
+        }
+    }
+
+    /** The rank of each film by the key of one order */
+    private static class Ranking {
+        /** the key value, as selected by a SQL page */
+        final Object[] values;
+        final int[] ranks;
+        /** film indexes by ascending rank, then <code>film_id</code> */
+        final int[] ascending;
+
+        Ranking(Object[] values, int[] ranks) {
+            this.values = values;
+            this.ranks = ranks;
+            this.ascending = IntStream.range(0, ranks.length).boxed()
+                    .sorted(Comparator.comparingInt(film -> ranks[film])).mapToInt(Integer::intValue).toArray();
+        }
+    }
+
+    /** The tables as last read, guarded by the catalog */
+    private static class Tables {
+        final TreeMap<Integer, FilmRecord> films = new TreeMap<>();
+        /** The {@link #XMIN} of each film read */
+        Map<Integer, String> filmXmins = Map.of();
+        Result<LanguageRecord> languages;
+        /** by lower-cased name, as the categories of a film are listed */
+        Result<CategoryRecord> categories;
+        /** by lower-cased full name, as the actors of a film are listed */
+        Result<ActorRecord> actors;
+        Result<Record2<Short, Short>> filmCategories;
+        Result<Record2<Short, Short>> filmActors;
+        /** film id, then the key and rank of each ranked order */
+        Result<Record> ranks;
+        /** The stamp of each table when it was last read */
+        final Map<String, Long> versions = new HashMap<>();
+    }
+
+    /** The arrays of one state of the tables, never modified */
+    private static class Snapshot {
+        final Record[] films;
+        /** film index by film id, -1 for none */
+        final int[] indexOfFilm;
+        final String[] titles;
+        final String[] lengths;
+        final String[] ratings;
+        final String[] rentalRates;
+        final String[] languageNames;
+        final List<List<Category>> categories = new ArrayList<>();
+        final List<List<Actor>> actors = new ArrayList<>();
+        final String[] categoryNames;
+        final BitSet[] filmsOfCategory;
+        final String[] actorFirstNames;
+        final String[] actorLastNames;
+        final BitSet[] filmsOfActor;
+        final Map<String, Ranking> rankings = new HashMap<>();
+        /** The stamp of the tables read, see {@link TableVersions#stamp} */
+        final long stamp;
+
+        Snapshot(Tables tables, List<String> rankedOrders) {
+            stamp = tables.versions.values().stream().mapToLong(Long::longValue).sum();
+            int count = tables.films.size();
+            films = new Record[count];
+            titles = new String[count];
+            lengths = new String[count];
+            ratings = new String[count];
+            rentalRates = new String[count];
+            languageNames = new String[count];
+            int maxId = tables.films.isEmpty() ? 0 : tables.films.lastKey();
+            indexOfFilm = new int[maxId + 1];
+            Arrays.fill(indexOfFilm, -1);
+
+            Map<Integer, LanguageRecord> languages = tables.languages.intoMap(LANGUAGE.LANGUAGE_ID);
+            int film = 0;
+            for (FilmRecord row : tables.films.values()) {
+                LanguageRecord language = languages.get(row.getLanguageId().intValue());
+                Record record = RECORDS.newRecord(FIELDS);
+                Object[] values = Arrays.copyOf(row.intoArray(), FIELDS.length);
+                System.arraycopy(language.intoArray(), 0, values, FILM.fields().length, LANGUAGE.fields().length);
+                record.fromArray(values);
+                record.changed(false);
+                films[film] = record;
+                indexOfFilm[row.getFilmId()] = film;
+                // the text ILIKE matches, enums and numbers cast to varchar, bpchar with its padding
+                titles[film] = lowerCase(row.getTitle());
+                lengths[film] = row.getLength() != null ? row.getLength().toString() : null;
+                ratings[film] = row.getRating() != null ? lowerCase(row.getRating().getLiteral()) : null;
+                rentalRates[film] = row.getRentalRate().toPlainString();
+                languageNames[film] = lowerCase(language.getName());
+                categories.add(new ArrayList<>());
+                actors.add(new ArrayList<>());
+                film++;
+            }
+
+            categoryNames = new String[tables.categories.size()];
+            filmsOfCategory = new BitSet[categoryNames.length];
+            Map<Integer, Integer> categoryIndexes = new HashMap<>();
+            for (int i = 0; i < categoryNames.length; i++) {
+                categoryNames[i] = lowerCase(tables.categories.get(i).getName());
+                filmsOfCategory[i] = new BitSet(count);
+                categoryIndexes.put(tables.categories.get(i).getCategoryId(), i);
+            }
+            for (Record2<Short, Short> link : tables.filmCategories) {
+                link(filmsOfCategory, categoryIndexes.get(link.value2().intValue()), link.value1());
+            }
+            for (int i = 0; i < categoryNames.length; i++) {
+                Category category = tables.categories.get(i).into(Category.class);
+                filmsOfCategory[i].stream().forEach(f -> categories.get(f).add(category));
+            }
+
+            actorFirstNames = new String[tables.actors.size()];
+            actorLastNames = new String[actorFirstNames.length];
+            filmsOfActor = new BitSet[actorFirstNames.length];
+            Map<Integer, Integer> actorIndexes = new HashMap<>();
+            for (int i = 0; i < actorFirstNames.length; i++) {
+                actorFirstNames[i] = lowerCase(tables.actors.get(i).getFirstName());
+                actorLastNames[i] = lowerCase(tables.actors.get(i).getLastName());
+                filmsOfActor[i] = new BitSet(count);
+                actorIndexes.put(tables.actors.get(i).getActorId(), i);
+            }
+            for (Record2<Short, Short> link : tables.filmActors) {
+                link(filmsOfActor, actorIndexes.get(link.value2().intValue()), link.value1());
+            }
+            for (int i = 0; i < actorFirstNames.length; i++) {
+                Actor actor = tables.actors.get(i).into(Actor.class);
+                filmsOfActor[i].stream().forEach(f -> actors.get(f).add(actor));
+            }
+
+            for (int k = 0; k < rankedOrders.size(); k++) {
+                Object[] values = new Object[count];
+                int[] ranks = new int[count];
+                for (Record row : tables.ranks) {
+                    int index = index(row.get(0, Integer.class));
+                    if (index < 0)
+                        continue;
+                    values[index] = row.get(1 + 2 * k);
+                    ranks[index] = row.get(2 + 2 * k, Integer.class);
+                }
+                rankings.put(rankedOrders.get(k), new Ranking(values, ranks));
+            }
+        }
+
+        /** @return the index of the film, -1 for none */
+        int index(int filmId) {
+            return filmId >= 0 && filmId < indexOfFilm.length ? indexOfFilm[filmId] : -1;
+        }
+
+        /**
+         * Links a film to a category or an actor, unless either is missing: the
+         * link table changed along with the other tables, whose own refresh
+         * follows
+         */
+        private void link(BitSet[] filmsOf, Integer entity, int filmId) {
+            int film = index(filmId);
+            if (entity != null && film >= 0)
+                filmsOf[entity].set(film);
+        }
+
+        /** @return the films whose value contains <code>value</code>, ignoring case */
+        static BitSet containing(String[] texts, String value) {
+            BitSet matches = new BitSet(texts.length);
+            for (int i = 0; i < texts.length; i++) {
+                if (texts[i] != null && texts[i].contains(value))
+                    matches.set(i);
+            }
+            return matches;
+        }
+
+        /** @return the films of the entities whose name contains <code>value</code> */
+        static BitSet filmsOf(String[] names, BitSet[] films, String value, BitSet matches) {
+            for (int i = 0; i < names.length; i++) {
+                if (names[i].contains(value))
+                    matches.or(films[i]);
+            }
+            return matches;
+        }
+
+        BitSet matches(String id, String value) {
+            switch (id) {
+            case "title":
+                return containing(titles, value);
+            case "length":
+                return containing(lengths, value);
+            case "rating":
+                return containing(ratings, value);
+            case "rentalRate":
+                return containing(rentalRates, value);
+            case "language.name":
+                return containing(languageNames, value);
+            case "categories.category":
+                return filmsOf(categoryNames, filmsOfCategory, value, new BitSet(films.length));
+            case "actors.fullName":
+                return filmsOf(actorLastNames, filmsOfActor, value,
+                        filmsOf(actorFirstNames, filmsOfActor, value, new BitSet(films.length)));
+            default:
+                throw new IllegalArgumentException(id);
+            }
+        }
+    }
+
+    /**
+     * The sort keys of one request over the films of a snapshot, a film index
+     * of {@link #AFTER} stands for the <code>after</code> cursor
+     */
+    private static class Sort implements Comparator<Integer> {
+        static final int AFTER = -1;
+
+        final Snapshot snapshot;
+        final List<Ranking> rankings = new ArrayList<>();
+        /** per key, the ranking or the column of the filter statement values */
+        final List<Integer> columns = new ArrayList<>();
+        final List<Boolean> desc = new ArrayList<>();
+        Boolean tieBreakerDesc;
+        /** keys selected by the filter statement, by film index */
+        Object[][] selected;
+        /** the sort key values of the <code>after</code> cursor */
+        Object[] after;
+        int afterFilm;
+
+        Sort(Snapshot snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        void add(Ranking ranking, int column, boolean desc) {
+            rankings.add(ranking);
+            columns.add(column);
+            this.desc.add(desc);
+            if (tieBreakerDesc == null)
+                tieBreakerDesc = desc;
+        }
+
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        @Override
+        public int compare(Integer a, Integer b) {
+            for (int k = 0; k < rankings.size(); k++) {
+                Ranking ranking = rankings.get(k);
+                int result;
+                if (ranking != null)
+                    result = Integer.compare(ranking.ranks[a == AFTER ? afterFilm : a], ranking.ranks[b]);
+                else
+                    result = ((Comparable) (a == AFTER ? after[k] : selected[a][columns.get(k)]))
+                            .compareTo(selected[b][columns.get(k)]);
+                if (result != 0)
+                    return desc.get(k) ? -result : result;
+            }
+            // film indexes ascend with film ids
+            int result = Integer.compare(a == AFTER ? afterFilm : a, b);
+            return Boolean.TRUE.equals(tieBreakerDesc) ? -result : result;
+        }
+
+        /** @return the sort key values of <code>film</code>, tie-breaker included */
+        Object[] values(int film) {
+            Object[] values = new Object[rankings.size() + 1];
+            for (int k = 0; k < rankings.size(); k++) {
+                Ranking ranking = rankings.get(k);
+                values[k] = ranking != null ? ranking.values[film] : selected[film][columns.get(k)];
+            }
+            values[rankings.size()] = snapshot.films[film].get(FILM.FILM_ID);
+            return values;
+        }
+    }
+
+    private static String lowerCase(String text) {
+        return text.toLowerCase(Locale.ROOT);
+    }
+
+    private final DSLContext dsl;
+
+    /** Read-only, repeatable read, never joins the transaction of a request */
+    private final TransactionTemplate transaction;
+
+    private final TableVersions tableVersions;
+
+    private final DataTableProperties properties;
+
+    /** The orders ranked by the database, whose key does not depend on filters */
+    private final List<String> rankedOrders = new ArrayList<>();
+
+    /** By the shape of the filters and orders they are given */
+    private final Cache<String, QueryTemplate<Request>> filterStatements;
+
+    private final Tables tables = new Tables();
+
+    private volatile Snapshot snapshot;
+
+    /** The tables changed since the last refresh */
+    private final Set<String> changedTables = ConcurrentHashMap.newKeySet();
+
+    /** Counts the events of changes to the tables */
+    private final AtomicLong changes = new AtomicLong();
+
+    /** The value of {@link #changes} the last refresh covered */
+    private volatile long refreshedChanges;
+
+    private final BackgroundRefresh refresher = new BackgroundRefresh("film-catalog-refresh", Duration.ZERO,
+            this::refreshChanged);
+
+    Logger logger = LoggerFactory.getLogger(FilmCatalog.class);
+
+    public FilmCatalog(DSLContext dsl, PlatformTransactionManager transactionManager, TableVersions tableVersions,
+            DataTableProperties properties) {
+        this.dsl = dsl;
+        this.tableVersions = tableVersions;
+        this.properties = properties;
+        this.transaction = new TransactionTemplate(transactionManager);
+        transaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        transaction.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+        transaction.setReadOnly(true);
+        this.filterStatements = Caffeine.newBuilder().maximumSize(properties.getTemplateCacheSize()).build();
+        for (String id : new TreeSet<>(FilmController.COLUMNS.orderIds())) {
+            if (FilmController.COLUMNS.keys(id).length == 1)
+                rankedOrders.add(id);
+        }
+    }
+
+    /**
+     * @return the page of <code>request</code>, or <code>null</code> when the
+     *         catalog is being refreshed, failed to load, is behind the
+     *         versions of its tables or cannot tell where its
+     *         <code>after</code> cursor points to
+     */
+    Page page(Request request) {
+        if (!isCurrent())
+            return null;
+        Snapshot snapshot = snapshot();
+        if (snapshot == null)
+            return null;
+        if (properties.isConditionalRequests() && tableVersions.stamp("films", TABLES) != snapshot.stamp)
+            return null;
+        DataTableQueryParams params = request.params;
+
+        BitSet matches = new BitSet(snapshot.films.length);
+        matches.set(0, snapshot.films.length);
+        List<Filter> statementFilters = new ArrayList<>();
+        for (Filter filter : request.filters) {
+            if (FILTERS.contains(filter.id))
+                matches.and(snapshot.matches(filter.id, lowerCase(filter.value)));
+            else
+                statementFilters.add(filter);
+        }
+
+        // the orders keyed by the filter statement are given its filters only
+        DataTableQueryParams statementParams = new DataTableQueryParams();
+        statementParams.filters = statementFilters.toArray(Filter[]::new);
+        statementParams.orders = params.orders;
+        Request statementRequest = FilmController.COLUMNS.request(statementParams);
+
+        Sort sort = new Sort(snapshot);
+        int selectedKeys = 0;
+        for (Order order : params.orders) {
+            Ranking ranking = snapshot.rankings.get(order.id);
+            if (ranking != null) {
+                sort.add(ranking, -1, Boolean.TRUE.equals(order.desc));
+                continue;
+            }
+            int keys = FilmController.COLUMNS.keys(QueryTemplate.inline(statementRequest), statementRequest,
+                    order.id).length;
+            if (keys != FilmController.COLUMNS.keys(QueryTemplate.inline(request), request, order.id).length)
+                return null;
+            for (int i = 0; i < keys; i++) {
+                sort.add(null, selectedKeys++, Boolean.TRUE.equals(order.desc));
+            }
+        }
+
+        if (!statementFilters.isEmpty() || selectedKeys > 0) {
+            sort.selected = new Object[snapshot.films.length][];
+            BitSet selected = new BitSet(snapshot.films.length);
+            for (Record row : filterStatement(statementRequest).query(dsl, statementRequest).fetch()) {
+                int film = snapshot.index(row.get(0, Integer.class));
+                if (film < 0)
+                    continue;
+                sort.selected[film] = Arrays.copyOfRange(row.intoArray(), 1, row.size());
+                selected.set(film);
+            }
+            matches.and(selected);
+        }
+
+        int[] sorted = sorted(sort, matches);
+        int start = params.offset;
+        if (params.after != null) {
+            Object[] after = request.seek;
+            int afterFilm = snapshot.index(((Number) after[after.length - 1]).intValue());
+            if (afterFilm < 0)
+                return null;
+            sort.after = after;
+            sort.afterFilm = afterFilm;
+            for (int k = 0; k < sort.rankings.size(); k++) {
+                Ranking ranking = sort.rankings.get(k);
+                if (ranking != null && !sameKey(ranking.values[afterFilm], after[k]))
+                    return null;
+            }
+            start = 0;
+            while (start < sorted.length && sort.compare(Sort.AFTER, sorted[start]) >= 0) {
+                start++;
+            }
+        }
+
+        Page page = new Page(sorted.length, snapshot.films.length);
+        int end = (int) Math.min(sorted.length, (long) start + params.limit);
+        for (int i = start; i < end; i++) {
+            int film = sorted[i];
+            page.rows.add(snapshot.films[film]);
+            page.categories.add(snapshot.categories.get(film));
+            page.actors.add(snapshot.actors.get(film));
+        }
+        if (end - start == params.limit)
+            page.last = sort.values(sorted[end - 1]);
+        return page;
+    }
+
+    private static boolean sameKey(Object a, Object b) {
+        return a instanceof BigDecimal && b instanceof BigDecimal ? ((BigDecimal) a).compareTo((BigDecimal) b) == 0
+                : a.equals(b);
+    }
+
+    /** @return the film indexes of <code>matches</code> in the order of <code>sort</code> */
+    private static int[] sorted(Sort sort, BitSet matches) {
+        if (sort.rankings.isEmpty())
+            return matches.stream().toArray();
+        if (sort.rankings.size() == 1 && sort.rankings.get(0) != null) {
+            // presorted, backwards for a descending order with a descending tie-breaker
+            int[] sorted = new int[matches.cardinality()];
+            int[] ascending = sort.rankings.get(0).ascending;
+            boolean desc = sort.desc.get(0);
+            int n = 0;
+            for (int i = 0; i < ascending.length; i++) {
+                int film = ascending[desc ? ascending.length - 1 - i : i];
+                if (matches.get(film))
+                    sorted[n++] = film;
+            }
+            return sorted;
+        }
+        return matches.stream().boxed().sorted(sort).mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * @return the ids of the films matching the filters of <code>shape</code>,
+     *         with the sort keys of its orders which the catalog does not rank
+     */
+    private QueryTemplate<Request> filterStatement(Request shape) {
+        return filterStatements.get(shape.shape, key -> {
+            Binds<Request> binds = new Binds<>();
+            List<Field<?>> fields = new ArrayList<>(List.of(FILM.FILM_ID));
+            for (Order order : shape.params.orders) {
+                if (!rankedOrders.contains(order.id))
+                    fields.addAll(List.of(FilmController.COLUMNS.keys(binds, shape, order.id)));
+            }
+            return QueryTemplate.render(dsl, binds, select(fields).from(FilmController.FROM)
+                    .where(FilmController.COLUMNS.conditions(binds, shape))).tag("films", "catalog", shape.shape);
+        });
+    }
+
+    /** @return the snapshot, loaded by the first request, <code>null</code> when that fails */
+    private Snapshot snapshot() {
+        Snapshot snapshot = this.snapshot;
+        if (snapshot != null)
+            return snapshot;
+        synchronized (this) {
+            if (this.snapshot == null) {
+                try {
+                    refresh(Set.of(TABLES));
+                } catch (DataAccessException e) {
+                    logger.warn("Film catalog load failed, retrying on the next request", e);
+                }
+            }
+            return this.snapshot;
+        }
+    }
+
+    /** @return <code>false</code> from a change to the tables until it is refreshed */
+    boolean isCurrent() {
+        return refreshedChanges == changes.get();
+    }
+
+    // ahead of the response cache, which is not to be refilled from the catalog before it is refreshed
+    @EventListener
+    @org.springframework.core.annotation.Order(Ordered.HIGHEST_PRECEDENCE)
+    public void onTableChanged(TableChangedEvent event) {
+        boolean affected = false;
+        for (String table : TABLES) {
+            if (event.affects(table)) {
+                changedTables.add(table);
+                affected = true;
+            }
+        }
+        if (!affected)
+            return;
+        changes.incrementAndGet();
+        refresher.request();
+    }
+
+    /** Refreshes the tables changed since the last refresh, on the thread of {@link #refresher} */
+    private void refreshChanged() {
+        long seen = changes.get();
+        Set<String> changed = new HashSet<>();
+        for (String table : TABLES) {
+            if (changedTables.remove(table))
+                changed.add(table);
+        }
+
+        synchronized (this) {
+            // loaded by the first request, in full
+            if (snapshot != null && !changed.isEmpty()) {
+                try {
+                    refresh(changed);
+                } catch (DataAccessException e) {
+                    logger.warn("Film catalog refresh failed, reloading on the next request", e);
+                    snapshot = null;
+                }
+            }
+        }
+        refreshedChanges = seen;
+    }
+
+    @Override
+    public void destroy() {
+        refresher.shutdown();
+    }
+
+    /** Re-reads the tables of <code>changed</code>, all of them unless loaded */
+    private synchronized void refresh(Set<String> changed) {
+        boolean reload = snapshot == null;
+        long start = System.nanoTime();
+        // one snapshot of the database, films and their ranks agree
+        transaction.executeWithoutResult(status -> {
+            for (String table : TABLES) {
+                if (reload || changed.contains(table))
+                    tables.versions.put(table, tableVersions.stamp("films", table));
+            }
+
+            if (reload || changed.contains(FILM.getName())) {
+                Map<Integer, String> xmins = dsl.select(FILM.FILM_ID, XMIN).from(FILM).fetchMap(FILM.FILM_ID, XMIN);
+                Result<FilmRecord> films;
+                if (reload) {
+                    tables.films.clear();
+                    films = dsl.selectFrom(FILM).fetch();
+                } else {
+                    tables.films.keySet().retainAll(xmins.keySet());
+                    Map<Integer, String> read = tables.filmXmins;
+                    films = dsl.selectFrom(FILM).where(FILM.FILM_ID.in(xmins.keySet().stream()
+                            .filter(id -> !xmins.get(id).equals(read.get(id))).toArray(Integer[]::new))).fetch();
+                }
+                for (FilmRecord film : films) {
+                    tables.films.put(film.getFilmId(), film);
+                }
+                tables.filmXmins = xmins;
+            }
+            if (reload || changed.contains(LANGUAGE.getName()))
+                tables.languages = dsl.selectFrom(LANGUAGE).fetch();
+            if (reload || changed.contains(FILM.getName()) || changed.contains(LANGUAGE.getName()))
+                tables.ranks = dsl.select(rankFields()).from(FilmController.FROM).fetch();
+            if (reload || changed.contains(CATEGORY.getName()))
+                tables.categories = dsl.selectFrom(CATEGORY).orderBy(lower(CATEGORY.NAME), CATEGORY.CATEGORY_ID)
+                        .fetch();
+            if (reload || changed.contains(ACTOR.getName()))
+                tables.actors = dsl.selectFrom(ACTOR).orderBy(
+                        lower(ACTOR.FIRST_NAME).concat(val(" ").concat(lower(ACTOR.LAST_NAME))), ACTOR.ACTOR_ID)
+                        .fetch();
+            if (reload || changed.contains(FILM_CATEGORY.getName()))
+                tables.filmCategories = dsl.select(FILM_CATEGORY.FILM_ID, FILM_CATEGORY.CATEGORY_ID)
+                        .from(FILM_CATEGORY).fetch();
+            if (reload || changed.contains(FILM_ACTOR.getName()))
+                tables.filmActors = dsl.select(FILM_ACTOR.FILM_ID, FILM_ACTOR.ACTOR_ID).from(FILM_ACTOR).fetch();
+        });
+        snapshot = new Snapshot(tables, rankedOrders);
+        logger.info("Film catalog {} in {} ms: {} films", reload ? "loaded" : "refreshed " + changed,
+                (System.nanoTime() - start) / 1_000_000, snapshot.films.length);
+    }
+
+    /** <code>film_id</code>, then the key and the dense rank of each ranked order */
+    private List<Field<?>> rankFields() {
+        List<Field<?>> fields = new ArrayList<>(List.of(FILM.FILM_ID));
+        for (String id : rankedOrders) {
+            Field<?> key = FilmController.COLUMNS.keys(id)[0];
+            fields.add(key);
+            fields.add(denseRank().over().orderBy(key.asc()));
+        }
+        return fields;
+    }
+}
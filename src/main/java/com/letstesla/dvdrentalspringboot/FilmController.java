@@ -6,20 +6,44 @@ import static com.letstesla.dvdrentalspringboot.db.tables.Category.*;
 import static com.letstesla.dvdrentalspringboot.db.tables.FilmActor.*;
 import static com.letstesla.dvdrentalspringboot.db.tables.Actor.*;
 import static com.letstesla.dvdrentalspringboot.db.tables.Language.*;
+import static com.letstesla.dvdrentalspringboot.db.tables.Inventory.*;
+import static com.letstesla.dvdrentalspringboot.db.tables.Rental.*;
 
+import static org.jooq.impl.DSL.any;
+import static org.jooq.impl.DSL.coalesce;
+import static org.jooq.impl.DSL.condition;
+import static org.jooq.impl.DSL.count;
 import static org.jooq.impl.DSL.countDistinct;
+import static org.jooq.impl.DSL.field;
+import static org.jooq.impl.DSL.inline;
 import static org.jooq.impl.DSL.or;
 import static org.jooq.impl.DSL.lower;
+import static org.jooq.impl.DSL.notExists;
+import static org.jooq.impl.DSL.select;
+import static org.jooq.impl.DSL.selectOne;
 import static org.jooq.impl.DSL.val;
 
-import java.util.ArrayList;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.letstesla.dvdrentalspringboot.DataTableColumns.Request;
+import com.letstesla.dvdrentalspringboot.DataTableProperties.FetchMode;
+import com.letstesla.dvdrentalspringboot.DataTableProperties.FilmSource;
+import com.letstesla.dvdrentalspringboot.DataTableProperties.RowSerialization;
 import com.letstesla.dvdrentalspringboot.DataTableQueryParams.Filter;
-import com.letstesla.dvdrentalspringboot.DataTableQueryParams.Order;
+import com.letstesla.dvdrentalspringboot.QueryTemplate.Binder;
+import com.letstesla.dvdrentalspringboot.QueryTemplate.Binds;
+import com.letstesla.dvdrentalspringboot.db.enums.MpaaRating;
 import com.letstesla.dvdrentalspringboot.db.tables.pojos.Film;
 import com.letstesla.dvdrentalspringboot.db.tables.pojos.Language;
 import com.letstesla.dvdrentalspringboot.db.tables.pojos.Category;
@@ -28,32 +52,256 @@ import com.letstesla.dvdrentalspringboot.db.tables.pojos.Actor;
 import org.jooq.Condition;
 import org.jooq.Configuration;
 import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Record;
 import org.jooq.SortField;
+import org.jooq.Table;
 import org.jooq.impl.SQLDataType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
-import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 @RestController
 public class FilmController {
 
+    static final Table<?> FROM = FILM
+            // join language, film.language_id is NOT NULL and compared without cast to use idx_fk_language_id
+            .join(LANGUAGE).on(LANGUAGE.LANGUAGE_ID.eq(FILM.LANGUAGE_ID.coerce(SQLDataType.INTEGER)));
+
+    /**
+     * The film's categories as a JSON array of {@link Category}, in the order of
+     * the separate categories query
+     */
+    private static final Field<String> CATEGORIES = field(select(field(
+            "coalesce(json_agg(json_build_object('categoryId', {0}, 'name', {1}, 'lastUpdate', {2})"
+                    + " order by lower({1})), '[]')",
+            String.class, CATEGORY.CATEGORY_ID, CATEGORY.NAME, CATEGORY.LAST_UPDATE)).from(FILM_CATEGORY)
+                    .join(CATEGORY).on(CATEGORY.CATEGORY_ID.eq(FILM_CATEGORY.CATEGORY_ID.coerce(SQLDataType.INTEGER)))
+                    .where(FILM_CATEGORY.FILM_ID.coerce(SQLDataType.INTEGER).eq(FILM.FILM_ID))).as("categories");
+
+    /**
+     * The film's actors as a JSON array of {@link Actor}, in the order of the
+     * separate actors query
+     */
+    private static final Field<String> ACTORS = field(select(field(
+            "coalesce(json_agg(json_build_object('actorId', {0}, 'firstName', {1}, 'lastName', {2}, 'lastUpdate', {3})"
+                    + " order by lower({1}) || ' ' || lower({2})), '[]')",
+            String.class, ACTOR.ACTOR_ID, ACTOR.FIRST_NAME, ACTOR.LAST_NAME, ACTOR.LAST_UPDATE)).from(FILM_ACTOR)
+                    .join(ACTOR).on(ACTOR.ACTOR_ID.eq(FILM_ACTOR.ACTOR_ID.coerce(SQLDataType.INTEGER)))
+                    .where(FILM_ACTOR.FILM_ID.coerce(SQLDataType.INTEGER).eq(FILM.FILM_ID))).as("actors");
+
+    /**
+     * The copy is not out on a rental, as <code>inventory_in_stock</code> tells,
+     * through <code>idx_fk_inventory_id</code>
+     */
+    private static final Condition IN_STOCK = notExists(selectOne().from(RENTAL)
+            .where(RENTAL.INVENTORY_ID.eq(INVENTORY.INVENTORY_ID)).and(RENTAL.RETURN_DATE.isNull()));
+
+    private static final Field<Integer> COPIES = count().as("copies");
+
+    private static final Field<Integer> COPIES_IN_STOCK = count().filterWhere(IN_STOCK).as("in_stock");
+
+    /**
+     * The film's copies per store as a JSON array of {@link Stock}, in the order
+     * of the separate stock query
+     */
+    private static final Field<String> STOCK;
+
+    static {
+        Table<?> stores = select(INVENTORY.STORE_ID, COPIES, COPIES_IN_STOCK).from(INVENTORY)
+                .where(INVENTORY.FILM_ID.coerce(SQLDataType.INTEGER).eq(FILM.FILM_ID)).groupBy(INVENTORY.STORE_ID)
+                .asTable("stores");
+        STOCK = field(select(field(
+                "coalesce(json_agg(json_build_object('storeId', {0}, 'copies', {1}, 'inStock', {2})"
+                        + " order by {0}), '[]')",
+                String.class, stores.field(INVENTORY.STORE_ID), stores.field(COPIES), stores.field(COPIES_IN_STOCK)))
+                        .from(stores)).as("stock");
+    }
+
+    /**
+     * Names of the film's categories, comma separated, in the order of
+     * {@link #CATEGORIES}
+     */
+    private static final Field<String> CATEGORY_NAMES = field(
+            select(field("string_agg({0}, ', ' order by lower({0}))", String.class, CATEGORY.NAME)).from(FILM_CATEGORY)
+                    .join(CATEGORY).on(CATEGORY.CATEGORY_ID.eq(FILM_CATEGORY.CATEGORY_ID.coerce(SQLDataType.INTEGER)))
+                    .where(FILM_CATEGORY.FILM_ID.coerce(SQLDataType.INTEGER).eq(FILM.FILM_ID))).as("categories");
+
+    /**
+     * Full names of the film's actors, comma separated, in the order of
+     * {@link #ACTORS}
+     */
+    private static final Field<String> ACTOR_NAMES = field(select(field(
+            "string_agg({0} || ' ' || {1}, ', ' order by lower({0}) || ' ' || lower({1}))", String.class,
+            ACTOR.FIRST_NAME, ACTOR.LAST_NAME)).from(FILM_ACTOR).join(ACTOR)
+                    .on(ACTOR.ACTOR_ID.eq(FILM_ACTOR.ACTOR_ID.coerce(SQLDataType.INTEGER)))
+                    .where(FILM_ACTOR.FILM_ID.coerce(SQLDataType.INTEGER).eq(FILM.FILM_ID))).as("actors");
+
+    /** Film columns but <code>fulltext</code>, then language, categories and actors */
+    private static final Field<?>[] CSV_COLUMNS = { FILM.FILM_ID, FILM.TITLE, FILM.DESCRIPTION, FILM.RELEASE_YEAR,
+            FILM.RENTAL_DURATION, FILM.RENTAL_RATE, FILM.LENGTH, FILM.REPLACEMENT_COST, FILM.RATING,
+            FILM.SPECIAL_FEATURES, FILM.LAST_UPDATE, LANGUAGE.NAME.as("language"), CATEGORY_NAMES, ACTOR_NAMES };
+
+    /**
+     * Substring filters compile to <code>ILIKE '%value%'</code>, served by the
+     * trigram indexes of <code>V0002__trigram_indexes.sql</code>. The
+     * <code>q</code> filter matches <code>film.fulltext</code> through
+     * <code>film_fulltext_idx</code>, the <code>q</code> order ranks by it.
+     * Sort keys match the expression indexes of <code>V0004__sort_indexes.sql</code>
+     * exactly, but relevance, which cannot be indexed.
+     */
+    static final DataTableColumns COLUMNS = new DataTableColumns(FILM.FILM_ID)
+            .filter("title", value -> FILM.TITLE.likeIgnoreCase(value.contains()))
+            .filter("length", value -> FILM.LENGTH.cast(SQLDataType.VARCHAR).likeIgnoreCase(value.contains()))
+            .filter("rating", value -> FILM.RATING.cast(SQLDataType.VARCHAR).likeIgnoreCase(value.contains()))
+            .filter("rentalRate",
+                    value -> FILM.RENTAL_RATE.cast(SQLDataType.VARCHAR).likeIgnoreCase(value.contains()))
+            // semi-join without casts, so matching categories drive idx_fk_film_category_category_id
+            .filter("categories.category", value -> FILM.FILM_ID.in(select(
+                    FILM_CATEGORY.FILM_ID.coerce(SQLDataType.INTEGER))
+                            .from(CATEGORY.join(FILM_CATEGORY).on(
+                                    CATEGORY.CATEGORY_ID.eq(FILM_CATEGORY.CATEGORY_ID.coerce(SQLDataType.INTEGER))))
+                            .where(CATEGORY.NAME.likeIgnoreCase(value.contains()))))
+            // semi-join without casts, so matching actors drive film_actor_pkey
+            .filter("actors.fullName", value -> FILM.FILM_ID.in(select(
+                    FILM_ACTOR.FILM_ID.coerce(SQLDataType.INTEGER))
+                            .from(ACTOR.join(FILM_ACTOR)
+                                    .on(ACTOR.ACTOR_ID.eq(FILM_ACTOR.ACTOR_ID.coerce(SQLDataType.INTEGER))))
+                            .where(or(ACTOR.FIRST_NAME.likeIgnoreCase(value.contains()),
+                                    ACTOR.LAST_NAME.likeIgnoreCase(value.contains())))))
+            .filter("language.name", value -> LANGUAGE.NAME.likeIgnoreCase(value.contains()))
+            // store id, semi-join driven by idx_store_id_film_id; no store matches anything but digits
+            .filter("inStockAt", value -> FILM.FILM_ID.in(select(INVENTORY.FILM_ID.coerce(SQLDataType.INTEGER))
+                    .from(INVENTORY).where(INVENTORY.STORE_ID.eq(value.as(SQLDataType.SMALLINT,
+                            text -> text.matches("\\d{1,4}") ? Short.valueOf(text) : null)))
+                    .and(IN_STOCK)))
+            .filter("q", value -> condition("{0} @@ {1}", FILM.FULLTEXT,
+                    tsQuery(value.as(SQLDataType.VARCHAR, text -> text))))
+            .order("title", lower(FILM.TITLE))
+            .order("length", coalesce(FILM.LENGTH, inline((short) 0)))
+            .order("rating", coalesce(FILM.RATING, inline(MpaaRating.G)))
+            .order("rentalRate", FILM.RENTAL_RATE)
+            .order("language.name", lower(LANGUAGE.NAME))
+            // relevance, only meaningful along with the q filter
+            .order("q", filters -> {
+                Field<String> q = filters.value("q");
+                return q == null ? new Field<?>[0]
+                        : new Field<?>[] { field("ts_rank({0}, {1})", SQLDataType.REAL, FILM.FULLTEXT, tsQuery(q)) };
+            });
+
+    /**
+     * Every table the cached datatable response is computed from. The stock
+     * changes with every rental and return, it is read for each response after
+     * the cache and <code>ETag</code> lookup, see {@link #withStock}.
+     */
+    private static final Table<?>[] TABLES = { FILM, LANGUAGE, FILM_CATEGORY, CATEGORY, FILM_ACTOR, ACTOR };
+
+    /** {@link #TABLES} and those of the stock, which the <code>inStockAt</code> filter reads */
+    private static final Table<?>[] IN_STOCK_TABLES = { FILM, LANGUAGE, FILM_CATEGORY, CATEGORY, FILM_ACTOR, ACTOR,
+            INVENTORY, RENTAL };
+
     private final DSLContext dsl;
 
+    private final ObjectMapper objectMapper;
+
+    private final DataTableProperties properties;
+
+    private final QueryExecutor queryExecutor;
+
+    private final DataTableExport export;
+
+    private final DataTableCache cache;
+
+    private final FilmCatalog catalog;
+
+    /** The pages of the separate fetch mode, categories and actors are looked up */
+    private final DataTablePages separatePages;
+
+    /** The pages of the aggregated fetch mode, categories and actors are selected along */
+    private final DataTablePages aggregatedPages;
+
+    /** Categories of the films whose ids are bound as array */
+    final QueryTemplate<Short[]> categoriesOfFilms;
+
+    /** Actors of the films whose ids are bound as array */
+    final QueryTemplate<Short[]> actorsOfFilms;
+
+    /** Copies per store of the films whose ids are bound as array */
+    final QueryTemplate<Short[]> stockOfFilms;
+
     Logger logger = LoggerFactory.getLogger(FilmController.class);
 
-    public FilmController(DSLContext dsl, Configuration jooqConfiguration) {
+    public FilmController(DSLContext dsl, Configuration jooqConfiguration, ObjectMapper objectMapper,
+            DataTableProperties properties, TableCounts tableCounts, QueryExecutor queryExecutor,
+            DataTableExport export, DataTableCache cache, FilmCatalog catalog) {
         this.dsl = dsl;
+        this.objectMapper = objectMapper;
+        this.properties = properties;
+        this.queryExecutor = queryExecutor;
+        this.export = export;
+        this.cache = cache;
+        this.catalog = catalog;
+        this.separatePages = new DataTablePages(dsl, properties, tableCounts, queryExecutor, "films", FILM, FROM,
+                COLUMNS, countDistinct(FILM.FILM_ID), select(FILM.fields()).select(LANGUAGE.fields()).getSelect());
+        this.aggregatedPages = new DataTablePages(dsl, properties, tableCounts, queryExecutor, "films", FILM, FROM,
+                COLUMNS, countDistinct(FILM.FILM_ID),
+                select(FILM.fields()).select(LANGUAGE.fields()).select(CATEGORIES, ACTORS).getSelect());
+
+        // = any(?) rather than in (?, ?, ...), one statement for any number of films
+        Binds<Short[]> binds = new Binds<>();
+        this.categoriesOfFilms = QueryTemplate.render(dsl, binds, select(CATEGORY.fields())
+                .select(FILM_CATEGORY.FILM_ID).from(CATEGORY).join(FILM_CATEGORY)
+                .on(CATEGORY.CATEGORY_ID.eq(FILM_CATEGORY.CATEGORY_ID.coerce(SQLDataType.INTEGER)))
+                .where(FILM_CATEGORY.FILM_ID.eq(any(binds.bind(SQLDataType.SMALLINT.getArrayDataType(), ids -> ids))))
+                .orderBy(lower(CATEGORY.NAME).asc())).tag("films", "categories", QueryMetrics.NONE);
+
+        binds = new Binds<>();
+        this.actorsOfFilms = QueryTemplate.render(dsl, binds, select(ACTOR.fields()).select(FILM_ACTOR.FILM_ID)
+                .from(ACTOR).join(FILM_ACTOR).on(ACTOR.ACTOR_ID.eq(FILM_ACTOR.ACTOR_ID.coerce(SQLDataType.INTEGER)))
+                .where(FILM_ACTOR.FILM_ID.eq(any(binds.bind(SQLDataType.SMALLINT.getArrayDataType(), ids -> ids))))
+                .orderBy(lower(ACTOR.FIRST_NAME).concat(val(" ").concat(lower(ACTOR.LAST_NAME))).asc()))
+                .tag("films", "actors", QueryMetrics.NONE);
+
+        binds = new Binds<>();
+        this.stockOfFilms = QueryTemplate.render(dsl, binds, select(INVENTORY.FILM_ID, INVENTORY.STORE_ID, COPIES,
+                COPIES_IN_STOCK).from(INVENTORY)
+                .where(INVENTORY.FILM_ID.eq(any(binds.bind(SQLDataType.SMALLINT.getArrayDataType(), ids -> ids))))
+                .groupBy(INVENTORY.FILM_ID, INVENTORY.STORE_ID).orderBy(INVENTORY.STORE_ID))
+                .tag("films", "stock", QueryMetrics.NONE);
+    }
+
+    /** The copies of a film at one store */
+    public static class Stock {
+        @JsonProperty
+        public Short storeId;
+        @JsonProperty
+        public int copies;
+        /** not out on a rental */
+        @JsonProperty
+        public int inStock;
+
+        public Stock() {
+        }
+
+        Stock(Record r) {
+            this.storeId = r.get(INVENTORY.STORE_ID);
+            this.copies = r.get(COPIES);
+            this.inStock = r.get(COPIES_IN_STOCK);
+        }
     }
 
     /**
      * Extends class {@link Film} with <code>language</code>,
-     * <code>categories</code>, <code>actors</code> fields
+     * <code>categories</code>, <code>actors</code>, <code>stock</code> fields
      */
-    private class FilmDTRow extends Film {
+    static class FilmDTRow extends Film {
 
         private static final long serialVersionUID = -2497377716472619660L;
 
@@ -66,6 +314,9 @@ public class FilmController {
         @JsonProperty
         private Actor[] actors = {};
 
+        @JsonProperty
+        private Stock[] stock = {};
+
         public FilmDTRow(Film film, Language language) {
             super(film);
             this.language = language;
@@ -79,131 +330,286 @@ public class FilmController {
             this.actors = actors.toArray(Actor[]::new);
         }
 
+        public void setCategories(Category[] categories) {
+            this.categories = categories;
+        }
+
+        public void setActors(Actor[] actors) {
+            this.actors = actors;
+        }
+
+        public void setStock(List<Stock> stock) {
+            this.stock = stock.toArray(Stock[]::new);
+        }
+
+        /** @return a copy of this row with <code>stock</code> */
+        FilmDTRow withStock(List<Stock> stock) {
+            FilmDTRow row = new FilmDTRow(this, language);
+            row.setCategories(categories);
+            row.setActors(actors);
+            row.setStock(stock);
+            return row;
+        }
+
     }
 
-    // Convert a predefined exception to an HTTP Status code
-    @ResponseStatus(value = HttpStatus.BAD_REQUEST, // HTTP 400
-            reason = "'limit' or 'offset' is invalid")
-    public class QueryLimitException extends RuntimeException {
-        private static final long serialVersionUID = 3820023033506881886L;
+    /**
+     * A row selected with the film and language fields, without categories,
+     * actors and stock. Each POJO is read through its table, both have a
+     * <code>last_update</code>.
+     */
+    static FilmDTRow row(Record r) {
+        return new FilmDTRow(r.into(FILM).into(Film.class), r.into(LANGUAGE).into(Language.class));
     }
 
-    private final String populateLikeString(String text) {
-        return "%" + text.replace("\\", "\\\\").replace("_", "\\_").replace("%", "\\%") + "%";
+    /** The JSON of {@link FilmDTRow}, from a row selected with the film and language fields */
+    static final RecordJsonWriter JSON = RecordJsonWriter.object(FILM.fields()).with("language",
+            RecordJsonWriter.object(LANGUAGE.fields()));
+
+    /** A page row written by {@link #JSON}, followed by its categories, actors and stock */
+    static class FilmJsonRow extends RecordJsonWriter.Row {
+
+        private static final SerializableString CATEGORIES = new SerializedString("categories");
+
+        private static final SerializableString ACTORS = new SerializedString("actors");
+
+        private static final SerializableString STOCK = new SerializedString("stock");
+
+        private final Record record;
+
+        private final List<Category> categories;
+
+        private final List<Actor> actors;
+
+        private final List<Stock> stock;
+
+        FilmJsonRow(Record record, List<Category> categories, List<Actor> actors, List<Stock> stock) {
+            super(JSON, record);
+            this.record = record;
+            this.categories = categories;
+            this.actors = actors;
+            this.stock = stock;
+        }
+
+        @Override
+        protected void writeFields(JsonGenerator generator, SerializerProvider provider) throws IOException {
+            super.writeFields(generator, provider);
+            generator.writeFieldName(CATEGORIES);
+            provider.defaultSerializeValue(categories, generator);
+            generator.writeFieldName(ACTORS);
+            provider.defaultSerializeValue(actors, generator);
+            generator.writeFieldName(STOCK);
+            provider.defaultSerializeValue(stock, generator);
+        }
+
+        /** @return a copy of this row with <code>stock</code> */
+        FilmJsonRow withStock(List<Stock> stock) {
+            return new FilmJsonRow(record, categories, actors, stock);
+        }
+    }
+
+    /** @return the element of {@link DataTableResponse#data} for a page row */
+    Object dataRow(Record r, List<Category> categories, List<Actor> actors, List<Stock> stock) {
+        if (properties.getRowSerialization() == RowSerialization.STREAMING)
+            return new FilmJsonRow(r, categories, actors, stock);
+
+        FilmDTRow row = row(r);
+        row.setCategories(categories);
+        row.setActors(actors);
+        row.setStock(stock);
+        return row;
+    }
+
+    /**
+     * Full-text query over title and description, matching the configuration
+     * <code>film_fulltext_trigger</code> builds <code>film.fulltext</code> with.
+     */
+    private static Field<Object> tsQuery(Field<String> text) {
+        return field("plainto_tsquery('pg_catalog.english', {0})", Object.class, text);
     }
 
+    List<Condition> conditions(Filter[] filters) {
+        DataTableQueryParams params = new DataTableQueryParams();
+        params.filters = filters;
+        Request request = COLUMNS.request(params);
+        return COLUMNS.conditions(QueryTemplate.inline(request), request);
+    }
+
+    private <T> T readJson(String json, Class<T> type) {
+        try {
+            return objectMapper.readValue(json, type);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * The <code>ETag</code> does not cover the stock, a
+     * <code>304 Not Modified</code> leaves the client with the stock it was
+     * last sent.
+     */
     @PostMapping("/api/datatable/films")
-    public DataTableResponse customers(@RequestBody DataTableQueryParams reqBody) {
+    public ResponseEntity<DataTableResponse> customers(@RequestBody DataTableQueryParams reqBody,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        boolean inStock = filtersInStock(reqBody);
+        ResponseEntity<DataTableResponse> response = cache.conditional(inStock ? "films-in-stock" : "films",
+                inStock ? IN_STOCK_TABLES : TABLES, reqBody, ifNoneMatch, () -> page(reqBody));
+        if (!response.hasBody())
+            return response;
+        return ResponseEntity.status(response.getStatusCode()).headers(response.getHeaders())
+                .body(withStock(response.getBody()));
+    }
 
-        int limit = reqBody.limit;
-        int offset = reqBody.offset;
-        if (limit <= 0 || offset < 0)
-            throw new QueryLimitException();
+    /** The response of <code>/api/datatable/films</code>, unconditionally */
+    public DataTableResponse customers(DataTableQueryParams reqBody) {
+        boolean inStock = filtersInStock(reqBody);
+        return withStock(cache.get(inStock ? "films-in-stock" : "films", inStock ? IN_STOCK_TABLES : TABLES, reqBody,
+                () -> page(reqBody)));
+    }
 
-        int recordsTotal = this.dsl.fetchCount(FILM);
+    /**
+     * @return whether the films of <code>reqBody</code> depend on the stock,
+     *         its responses are cached apart from the others, a rental evicts
+     *         them alone
+     */
+    private static boolean filtersInStock(DataTableQueryParams reqBody) {
+        return Arrays.stream(reqBody.filters).anyMatch(filter -> "inStockAt".equals(filter.id) && filter.value != null);
+    }
 
-        logger.debug("Params: {}", reqBody.toString());
+    /** @return the pages of the fetch mode */
+    DataTablePages pages() {
+        return properties.getFilmFetchMode() == FetchMode.AGGREGATED ? aggregatedPages : separatePages;
+    }
 
-        List<Condition> conditions = new ArrayList<Condition>();
-        for (Filter filter : reqBody.filters) {
-            if (filter.value == null) {
-                continue;
-            }
+    private DataTableResponse page(DataTableQueryParams reqBody) {
+        DataTablePages pages = pages();
+        Request request = pages.request(reqBody);
 
-            switch (filter.id) {
-                case "title":
-                    conditions.add(FILM.TITLE.likeIgnoreCase(populateLikeString(filter.value)));
-                    break;
-                case "length":
-                    conditions.add(
-                            FILM.LENGTH.cast(SQLDataType.VARCHAR).likeIgnoreCase(populateLikeString(filter.value)));
-                    break;
-                case "rating":
-                    conditions.add(
-                            FILM.RATING.cast(SQLDataType.VARCHAR).likeIgnoreCase(populateLikeString(filter.value)));
-                    break;
-                case "rentalRate":
-                    conditions.add(FILM.RENTAL_RATE.cast(SQLDataType.VARCHAR)
-                            .likeIgnoreCase(populateLikeString(filter.value)));
-                    break;
-                case "categories.category":
-                    conditions.add(FILM.FILM_ID.in(this.dsl.select(FILM_CATEGORY.FILM_ID)
-                            .from(CATEGORY.join(FILM_CATEGORY)
-                                    .on(CATEGORY.CATEGORY_ID.eq(FILM_CATEGORY.CATEGORY_ID.cast(SQLDataType.INTEGER))))
-                            .where(CATEGORY.NAME.likeIgnoreCase(populateLikeString(filter.value))).asField()));
-                    break;
-                case "actors.fullName":
-                    final String searchValue = populateLikeString(filter.value);
-                    conditions.add(FILM.FILM_ID.in(this.dsl.select(FILM_ACTOR.FILM_ID)
-                            .from(ACTOR.join(FILM_ACTOR)
-                                    .on(ACTOR.ACTOR_ID.eq(FILM_ACTOR.ACTOR_ID.cast(SQLDataType.INTEGER))))
-                            .where(or(ACTOR.FIRST_NAME.likeIgnoreCase(searchValue),
-                                    ACTOR.LAST_NAME.likeIgnoreCase(searchValue)))
-                            .asField()));
-                    break;
-                case "language.name":
-                    conditions.add(LANGUAGE.NAME.likeIgnoreCase(populateLikeString(filter.value)));
-                    break;
-            }
+        if (properties.getFilmSource() == FilmSource.CATALOG) {
+            FilmCatalog.Page page = catalog.page(request);
+            if (page != null)
+                return catalogResponse(reqBody, page, pages.templates(request).cursor);
+        }
+
+        DataTablePages.Page page = pages.page(request);
+
+        if (properties.getFilmFetchMode() == FetchMode.AGGREGATED)
+            return page.response(reqBody, page.rows.map(this::aggregatedRow).toArray());
+
+        Short[] filmIds = filmIds(page.rows);
 
+        // the lookups only depend on the film ids
+        CompletableFuture<Map<Short, List<Category>>> categories = queryExecutor.submit(() -> categoriesOfFilms
+                .query(this.dsl, filmIds).fetchGroups(FILM_CATEGORY.FILM_ID, r -> r.into(Category.class)));
+
+        Map<Short, List<Actor>> mapIdToActors = actorsOfFilms.query(this.dsl, filmIds)
+                .fetchGroups(FILM_ACTOR.FILM_ID, r -> r.into(Actor.class));
+
+        return page.response(reqBody, rows(page.rows, QueryExecutor.join(categories), mapIdToActors));
+    }
+
+    private DataTableResponse catalogResponse(DataTableQueryParams reqBody, FilmCatalog.Page page,
+            SeekCursor cursor) {
+        Object[] data = new Object[page.rows.size()];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = dataRow(page.rows.get(i), page.categories.get(i), page.actors.get(i), List.of());
         }
+        String next = page.last != null ? cursor.next(page.last) : null;
+        return new DataTableResponse(reqBody.fetchId, page.recordsFiltered, page.recordsTotal, false, data, next);
+    }
+
+    /** A page row of the aggregated fetch mode, with its categories and actors */
+    Object aggregatedRow(Record r) {
+        return dataRow(r, List.of(readJson(r.get(CATEGORIES), Category[].class)),
+                List.of(readJson(r.get(ACTORS), Actor[].class)), List.of());
+    }
+
+    /** An exported row, with its categories, actors and stock */
+    private Object exportRow(Record r) {
+        return dataRow(r, List.of(readJson(r.get(CATEGORIES), Category[].class)),
+                List.of(readJson(r.get(ACTORS), Actor[].class)), List.of(readJson(r.get(STOCK), Stock[].class)));
+    }
+
+    /** @return the copies per store of the films <code>filmIds</code>, by film id */
+    Map<Short, List<Stock>> stockOfFilms(Short[] filmIds) {
+        return stockOfFilms.query(this.dsl, filmIds).fetchGroups(INVENTORY.FILM_ID, Stock::new);
+    }
 
-        int recordsFiltered = this.dsl.select(countDistinct(FILM.FILM_ID)).from(FILM)
-                // join language
-                .leftJoin(LANGUAGE).on(LANGUAGE.LANGUAGE_ID.eq(FILM.LANGUAGE_ID.cast(SQLDataType.INTEGER)))
-                // the rest...
-                .where(conditions).fetchOneInto(int.class);
-
-        List<SortField<?>> orderBy = new ArrayList<SortField<?>>();
-        for (Order order : reqBody.orders) {
-            switch (order.id) {
-                case "title":
-                    orderBy.add(order.desc ? lower(FILM.TITLE).desc() : lower(FILM.TITLE).asc());
-                    break;
-                case "length":
-                    orderBy.add(order.desc ? FILM.LENGTH.desc() : FILM.LENGTH.asc());
-                    break;
-                case "rating":
-                    orderBy.add(order.desc ? FILM.RATING.desc() : FILM.RATING.asc());
-                    break;
-                case "rentalRate":
-                    orderBy.add(order.desc ? FILM.RENTAL_RATE.desc() : FILM.RENTAL_RATE.asc());
-                    break;
-                case "language.name":
-                    orderBy.add(order.desc ? lower(LANGUAGE.NAME).desc() : lower(LANGUAGE.NAME).asc());
-                    break;
+    /**
+     * @return <code>response</code> with the current stock of its films, the
+     *         rows are copied, the cached ones are shared
+     */
+    DataTableResponse withStock(DataTableResponse response) {
+        return response.data.length == 0 ? response : withStock(response, stockOfFilms(filmIds(response)));
+    }
+
+    /** @param stock the copies per store of the films of <code>response</code>, by film id */
+    static DataTableResponse withStock(DataTableResponse response, Map<Short, List<Stock>> stock) {
+        return response.withData(Arrays.stream(response.data).map(row -> {
+            if (row instanceof FilmJsonRow) {
+                FilmJsonRow jsonRow = (FilmJsonRow) row;
+                return jsonRow.withStock(stock.getOrDefault(jsonRow.record.get(FILM.FILM_ID).shortValue(),
+                        List.of()));
             }
-        }
+            FilmDTRow dtRow = (FilmDTRow) row;
+            return dtRow.withStock(stock.getOrDefault(dtRow.getFilmId().shortValue(), List.of()));
+        }).toArray());
+    }
+
+    /** @return the film ids of the rows of <code>response</code>, in page order */
+    static Short[] filmIds(DataTableResponse response) {
+        return Arrays.stream(response.data).map(row -> row instanceof FilmJsonRow
+                ? ((FilmJsonRow) row).record.get(FILM.FILM_ID).shortValue()
+                : ((FilmDTRow) row).getFilmId().shortValue()).toArray(Short[]::new);
+    }
 
-        Map<Integer, FilmDTRow> mapIdToFilmDTRow = this.dsl.select().from(FILM)
-                // join language
-                .leftJoin(LANGUAGE).on(LANGUAGE.LANGUAGE_ID.eq(FILM.LANGUAGE_ID.cast(SQLDataType.INTEGER)))
-                // the rest...
-                .where(conditions).orderBy(orderBy).limit(limit).offset(offset)
-                .fetchMap(FILM.FILM_ID, r -> new FilmDTRow(r.into(Film.class), r.into(Language.class)));
+    /** @return the film ids of the page rows, in page order */
+    static Short[] filmIds(List<Record> page) {
+        return page.stream().map(r -> r.get(FILM.FILM_ID).shortValue()).toArray(Short[]::new);
+    }
 
-        Integer[] filmIds = mapIdToFilmDTRow.keySet().toArray(Integer[]::new);
+    /**
+     * @return the page rows in page order, with the categories and actors of
+     *         the separate lookups, without stock
+     */
+    Object[] rows(List<Record> page, Map<Short, List<Category>> categories, Map<Short, List<Actor>> actors) {
+        return page.stream().map(r -> {
+            Short filmId = r.get(FILM.FILM_ID).shortValue();
+            return dataRow(r, categories.getOrDefault(filmId, List.of()), actors.getOrDefault(filmId, List.of()),
+                    List.of());
+        }).toArray();
+    }
 
-        Map<Short, List<Category>> mapIdToCategories = this.dsl.select(CATEGORY.fields()).select(FILM_CATEGORY.FILM_ID)
-                .from(CATEGORY).join(FILM_CATEGORY)
-                .on(CATEGORY.CATEGORY_ID.eq(FILM_CATEGORY.CATEGORY_ID.cast(SQLDataType.INTEGER)))
-                .where(FILM_CATEGORY.FILM_ID.in(Arrays.asList(filmIds))).orderBy(lower(CATEGORY.NAME).asc())
-                .fetchGroups(FILM_CATEGORY.FILM_ID, r -> r.into(Category.class));
+    /**
+     * The whole filtered and ordered film list, <code>limit</code>,
+     * <code>offset</code> and <code>after</code> are ignored.
+     *
+     * @param format <code>ndjson</code> (rows as in
+     *               {@link DataTableResponse#data}) or <code>csv</code>
+     */
+    @PostMapping("/api/export/films")
+    public ResponseEntity<StreamingResponseBody> exportFilms(@RequestBody DataTableQueryParams reqBody,
+            @RequestParam(defaultValue = "ndjson") String format) {
 
-        Map<Short, List<Actor>> mapIdToActors = this.dsl.select(ACTOR.fields()).select(FILM_ACTOR.FILM_ID).from(ACTOR)
-                .join(FILM_ACTOR).on(ACTOR.ACTOR_ID.eq(FILM_ACTOR.ACTOR_ID.cast(SQLDataType.INTEGER)))
-                .where(FILM_ACTOR.FILM_ID.in(Arrays.asList(filmIds)))
-                .orderBy(lower(ACTOR.FIRST_NAME).concat(val(" ").concat(lower(ACTOR.LAST_NAME))).asc())
-                .fetchGroups(FILM_ACTOR.FILM_ID, r -> r.into(Actor.class));
+        logger.debug("Params: {}", reqBody.toString());
 
-        List<FilmDTRow> data = new ArrayList<>();
-        for (Integer filmId : filmIds) {
-            FilmDTRow row = mapIdToFilmDTRow.get(filmId);
-            row.setCategories(mapIdToCategories.get(filmId.shortValue()));
-            row.setActors(mapIdToActors.get(filmId.shortValue()));
-            data.add(row);
+        Request request = COLUMNS.request(reqBody);
+        Binder<Request> binder = QueryTemplate.inline(request);
+        List<Condition> conditions = COLUMNS.conditions(binder, request);
+        List<SortField<?>> orderBy = COLUMNS.cursor(binder, request).sortFields();
+
+        switch (format) {
+            case "ndjson":
+                // categories, actors and stock nested in the row, a cursor cannot be stitched with lookups
+                return export.ndjson("films", tx -> tx.select(FILM.fields()).select(LANGUAGE.fields())
+                        .select(CATEGORIES, ACTORS, STOCK).from(FROM).where(conditions).orderBy(orderBy),
+                        this::exportRow);
+            case "csv":
+                return export.csv("films", tx -> tx.select(CSV_COLUMNS).from(FROM).where(conditions).orderBy(orderBy),
+                        CSV_COLUMNS);
+            default:
+                throw new DataTableExport.UnsupportedFormatException();
         }
-        return new DataTableResponse(reqBody.fetchId, recordsFiltered, recordsTotal, data.toArray());
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,98 @@
+package com.letstesla.dvdrentalspringboot;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import com.letstesla.dvdrentalspringboot.DataTableProperties.Execution;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+
+/**
+ * Runs the independent statements of one datatable request (counts, page,
+ * category and actor lookups) side by side, each on its own pooled connection.
+ * <p>
+ * At most <code>datatable.parallelism</code> statements run on the executor at
+ * any time, across all requests. When no permit is free the statement runs on
+ * the calling thread instead, so a burst of requests degrades to sequential
+ * execution rather than queueing for, or exhausting, the connection pool. Keep
+ * the parallelism below <code>spring.datasource.hikari.maximum-pool-size</code>.
+ * Within {@link #onCallerThread} every statement runs on the calling thread,
+ * e.g. on the connection of its transaction.
+ */
+@Component
+public class QueryExecutor implements DisposableBean {
+
+    private final DataTableProperties properties;
+
+    private final Semaphore permits;
+
+    private final ExecutorService executor;
+
+    /** Set while {@link #onCallerThread} runs on the thread */
+    private final ThreadLocal<Boolean> callerThread = ThreadLocal.withInitial(() -> false);
+
+    public QueryExecutor(DataTableProperties properties) {
+        this.properties = properties;
+        this.permits = new Semaphore(properties.getParallelism());
+
+        AtomicInteger threads = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "datatable-query-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        // never more tasks than permits, the queue stays short
+        this.executor = Executors.newFixedThreadPool(properties.getParallelism(), threadFactory);
+    }
+
+    public <T> CompletableFuture<T> submit(Supplier<T> query) {
+        if (properties.getExecution() == Execution.PARALLEL && !callerThread.get() && permits.tryAcquire()) {
+            try {
+                return CompletableFuture.supplyAsync(query, executor).whenComplete((result, e) -> permits.release());
+            } catch (RejectedExecutionException e) {
+                permits.release();
+            }
+        }
+        return CompletableFuture.completedFuture(query.get());
+    }
+
+    /** Runs <code>work</code>, the statements it submits run on this thread */
+    public <T> T onCallerThread(Supplier<T> work) {
+        if (callerThread.get())
+            return work.get();
+        callerThread.set(true);
+        try {
+            return work.get();
+        } finally {
+            callerThread.remove();
+        }
+    }
+
+    /**
+     * Waits for a submitted statement, rethrowing its exception as is so that
+     * e.g. {@link org.springframework.web.bind.annotation.ResponseStatus} mappings
+     * still apply.
+     */
+    public static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw e;
+        }
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,175 @@
+package com.letstesla.dvdrentalspringboot;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import org.jooq.Configuration;
+import org.jooq.DSLContext;
+import org.jooq.ExecuteContext;
+import org.jooq.ExecuteListener;
+import org.jooq.ExecuteListenerProvider;
+import org.jooq.impl.DSL;
+import org.jooq.impl.DefaultExecuteListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.actuate.autoconfigure.metrics.OnlyOnceLoggingDenyMeterFilter;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.config.MeterFilter;
+
+/**
+ * Times the render, prepare, execute and fetch phases of every jOOQ
+ * statement as the <code>datatable.query</code> timer, and logs statements
+ * slower than <code>datatable.slow-query-threshold</code> with their bind
+ * values.
+ * <p>
+ * Statements are tagged with the <code>endpoint</code>, the <code>role</code>
+ * of the statement in the response (<code>total-count</code>,
+ * <code>filtered-count</code>, <code>page</code>, ...) and the filter/order
+ * <code>shape</code> of the request, when run through a {@link DSLContext}
+ * from {@link #tag(DSLContext, String, String, String)}. Spring Boot registers
+ * the listener on the jOOQ <code>Configuration</code> it provides.
+ * <p>
+ * Each shape keeps a histogram per role and phase, only the first
+ * <code>datatable.metrics-max-shapes</code> shapes are timed. The slow query
+ * log names the shape of every statement.
+ */
+@Component
+public class QueryMetrics extends DefaultExecuteListener implements ExecuteListenerProvider {
+
+    private static final long serialVersionUID = 6160442286914221405L;
+
+    /** Tag value of statements run outside of a tagged context */
+    public static final String NONE = "none";
+
+    private static final String ENDPOINT = "datatable.endpoint";
+    private static final String ROLE = "datatable.role";
+    private static final String SHAPE = "datatable.shape";
+
+    private enum Phase {
+        RENDER, PREPARE, EXECUTE, FETCH;
+
+        final String tag = name().toLowerCase();
+        /** the start of this phase in {@link ExecuteContext#data()} */
+        final String start = "datatable.start." + tag;
+    }
+
+    private static final String START = "datatable.start";
+
+    private static final Logger logger = LoggerFactory.getLogger(QueryMetrics.class);
+
+    private final transient MeterRegistry registry;
+
+    private final transient DataTableProperties properties;
+
+    public QueryMetrics(MeterRegistry registry, DataTableProperties properties) {
+        this.registry = registry;
+        this.properties = properties;
+        registry.config().meterFilter(MeterFilter.maximumAllowableTags("datatable.query", "shape",
+                properties.getMetricsMaxShapes(), new OnlyOnceLoggingDenyMeterFilter(() -> String.format(
+                        "Reached the maximum of %d shapes timed by datatable.query, see datatable.metrics-max-shapes",
+                        properties.getMetricsMaxShapes()))));
+    }
+
+    /**
+     * @return <code>dsl</code> whose statements are tagged with the given values
+     */
+    public static DSLContext tag(DSLContext dsl, String endpoint, String role, String shape) {
+        Configuration configuration = dsl.configuration().derive();
+        configuration.data(ENDPOINT, endpoint);
+        configuration.data(ROLE, role);
+        configuration.data(SHAPE, shape);
+        return DSL.using(configuration);
+    }
+
+    @Override
+    public ExecuteListener provide() {
+        return this;
+    }
+
+    private static void begin(ExecuteContext ctx, Phase phase) {
+        ctx.data(phase.start, System.nanoTime());
+    }
+
+    private void end(ExecuteContext ctx, Phase phase) {
+        Object start = ctx.data(phase.start);
+        if (start == null)
+            return;
+        Timer.builder("datatable.query").description("jOOQ statements of the datatable endpoints")
+                .tag("endpoint", tag(ctx, ENDPOINT)).tag("role", tag(ctx, ROLE)).tag("shape", tag(ctx, SHAPE))
+                .tag("phase", phase.tag).register(registry)
+                .record(System.nanoTime() - (Long) start, TimeUnit.NANOSECONDS);
+    }
+
+    private static String tag(ExecuteContext ctx, String key) {
+        Object value = ctx.configuration().data(key);
+        return value != null ? value.toString() : NONE;
+    }
+
+    @Override
+    public void start(ExecuteContext ctx) {
+        ctx.data(START, System.nanoTime());
+    }
+
+    @Override
+    public void renderStart(ExecuteContext ctx) {
+        begin(ctx, Phase.RENDER);
+    }
+
+    @Override
+    public void renderEnd(ExecuteContext ctx) {
+        end(ctx, Phase.RENDER);
+    }
+
+    @Override
+    public void prepareStart(ExecuteContext ctx) {
+        begin(ctx, Phase.PREPARE);
+    }
+
+    @Override
+    public void prepareEnd(ExecuteContext ctx) {
+        end(ctx, Phase.PREPARE);
+    }
+
+    @Override
+    public void executeStart(ExecuteContext ctx) {
+        begin(ctx, Phase.EXECUTE);
+    }
+
+    @Override
+    public void executeEnd(ExecuteContext ctx) {
+        end(ctx, Phase.EXECUTE);
+    }
+
+    @Override
+    public void fetchStart(ExecuteContext ctx) {
+        begin(ctx, Phase.FETCH);
+    }
+
+    @Override
+    public void fetchEnd(ExecuteContext ctx) {
+        end(ctx, Phase.FETCH);
+    }
+
+    /**
+     * Streamed exports end when the client has read the last row, their
+     * elapsed time includes the client's reading.
+     */
+    @Override
+    public void end(ExecuteContext ctx) {
+        Duration threshold = properties.getSlowQueryThreshold();
+        Object start = ctx.data(START);
+        if (threshold.isZero() || start == null || !logger.isWarnEnabled())
+            return;
+
+        long elapsed = System.nanoTime() - (Long) start;
+        if (elapsed < threshold.toNanos())
+            return;
+
+        String sql = ctx.query() != null ? DSL.using(ctx.configuration()).renderInlined(ctx.query()) : ctx.sql();
+        logger.warn("Slow query, {} ms, endpoint={} role={} shape={}: {}", TimeUnit.NANOSECONDS.toMillis(elapsed),
+                tag(ctx, ENDPOINT), tag(ctx, ROLE), tag(ctx, SHAPE), sql);
+    }
+}
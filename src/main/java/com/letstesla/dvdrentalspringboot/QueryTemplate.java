@@ -0,0 +1,160 @@
+package com.letstesla.dvdrentalspringboot;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.jooq.DSLContext;
+import org.jooq.DataType;
+import org.jooq.Field;
+import org.jooq.Param;
+import org.jooq.Record;
+import org.jooq.ResultQuery;
+import org.jooq.Select;
+import org.jooq.impl.DSL;
+
+/**
+ * A query rendered to SQL once and executed many times with different bind
+ * values.
+ * <p>
+ * While the query is built, each bind value is declared through a
+ * {@link Binder} together with the function that reads it from the values
+ * object <code>V</code> of an execution. Everything else is inlined, so every
+ * execution sends the same SQL text and the driver reuses its server-side
+ * prepared statement.
+ */
+public class QueryTemplate<V> {
+
+    /** Supplies bind values while a query is built */
+    public interface Binder<V> {
+        <T> Param<T> bind(DataType<T> type, Function<? super V, ? extends T> value);
+    }
+
+    /** Declares each bind value as a named parameter of the template */
+    public static class Binds<V> implements Binder<V> {
+
+        private final Map<String, Function<? super V, ?>> values = new HashMap<>();
+
+        private final Map<String, DataType<?>> types = new HashMap<>();
+
+        @Override
+        public <T> Param<T> bind(DataType<T> type, Function<? super V, ? extends T> value) {
+            String name = "b" + values.size();
+            values.put(name, value);
+            types.put(name, type);
+            return DSL.param(name, type);
+        }
+    }
+
+    /**
+     * @return a binder that binds the values of <code>values</code> right away,
+     *         for queries built and executed once
+     */
+    public static <V> Binder<V> inline(V values) {
+        return new Binder<V>() {
+            @Override
+            public <T> Param<T> bind(DataType<T> type, Function<? super V, ? extends T> value) {
+                return DSL.val(value.apply(values), type);
+            }
+        };
+    }
+
+    // a named parameter, but not the second half of a "::" cast
+    private static final Pattern PARAM = Pattern.compile("(?<!:):(b\\d+)");
+
+    private final String sql;
+
+    /** {@link #sql} with <code>$1</code>, <code>$2</code>, ... placeholders, for R2DBC */
+    private final String numberedSql;
+
+    /** Reads the bind value of each placeholder of {@link #sql} */
+    private final Function<? super V, ?>[] binds;
+
+    /** The data type of each placeholder of {@link #sql} */
+    private final DataType<?>[] types;
+
+    private final Field<?>[] fields;
+
+    /** {@link QueryMetrics} tags, <code>null</code> when untagged */
+    private final String[] tags;
+
+    private QueryTemplate(String sql, String numberedSql, Function<? super V, ?>[] binds, DataType<?>[] types,
+            Field<?>[] fields, String[] tags) {
+        this.sql = sql;
+        this.numberedSql = numberedSql;
+        this.binds = binds;
+        this.types = types;
+        this.fields = fields;
+        this.tags = tags;
+    }
+
+    /**
+     * @param binds the binder <code>select</code> was built with
+     */
+    public static <V> QueryTemplate<V> render(DSLContext dsl, Binds<V> binds, Select<?> select) {
+        // a parameter occurs once per use, e.g. a seek value up to once per sort key
+        Matcher matcher = PARAM.matcher(dsl.renderNamedOrInlinedParams(select));
+        StringBuffer sql = new StringBuffer();
+        StringBuffer numberedSql = new StringBuffer();
+        List<Function<? super V, ?>> placeholders = new ArrayList<>();
+        List<DataType<?>> types = new ArrayList<>();
+        while (matcher.find()) {
+            int end = sql.length();
+            matcher.appendReplacement(sql, "?");
+            numberedSql.append(sql, end, sql.length() - 1).append('$').append(placeholders.size() + 1);
+            placeholders.add(binds.values.get(matcher.group(1)));
+            types.add(binds.types.get(matcher.group(1)));
+        }
+        int end = sql.length();
+        matcher.appendTail(sql);
+        numberedSql.append(sql, end, sql.length());
+
+        @SuppressWarnings("unchecked")
+        Function<? super V, ?>[] bindValues = placeholders.toArray(Function[]::new);
+        return new QueryTemplate<>(sql.toString(), numberedSql.toString(), bindValues,
+                types.toArray(DataType<?>[]::new), select.getSelect().toArray(Field[]::new), null);
+    }
+
+    /**
+     * @return this template with its executions tagged for {@link QueryMetrics}
+     */
+    public QueryTemplate<V> tag(String endpoint, String role, String shape) {
+        return new QueryTemplate<>(sql, numberedSql, binds, types, fields, new String[] { endpoint, role, shape });
+    }
+
+    public ResultQuery<Record> query(DSLContext dsl, V values) {
+        DSLContext target = tags == null ? dsl : QueryMetrics.tag(dsl, tags[0], tags[1], tags[2]);
+        return target.resultQuery(sql, bindValues(values)).coerce(fields);
+    }
+
+    /** @return the value of each placeholder, in order */
+    public Object[] bindValues(V values) {
+        Object[] bindValues = new Object[binds.length];
+        for (int i = 0; i < binds.length; i++) {
+            bindValues[i] = binds[i].apply(values);
+        }
+        return bindValues;
+    }
+
+    /** @return the data type of each placeholder, in order, e.g. to bind a <code>null</code> */
+    public DataType<?>[] getBindTypes() {
+        return types;
+    }
+
+    public String getSQL() {
+        return sql;
+    }
+
+    public String getNumberedSQL() {
+        return numberedSql;
+    }
+
+    /** @return the selected fields, the row type of the template */
+    public Field<?>[] getFields() {
+        return fields;
+    }
+}
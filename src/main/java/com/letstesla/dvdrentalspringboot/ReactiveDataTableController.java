@@ -0,0 +1,173 @@
+package com.letstesla.dvdrentalspringboot;
+
+import static com.letstesla.dvdrentalspringboot.db.tables.Customer.*;
+import static com.letstesla.dvdrentalspringboot.db.tables.Film.*;
+import static com.letstesla.dvdrentalspringboot.db.tables.FilmCategory.*;
+import static com.letstesla.dvdrentalspringboot.db.tables.FilmActor.*;
+import static com.letstesla.dvdrentalspringboot.db.tables.Inventory.*;
+
+import static org.jooq.impl.DSL.selectCount;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import com.letstesla.dvdrentalspringboot.DataTableColumns.Request;
+import com.letstesla.dvdrentalspringboot.DataTableProperties.CountMode;
+import com.letstesla.dvdrentalspringboot.DataTableProperties.FetchMode;
+import com.letstesla.dvdrentalspringboot.FilmController.Stock;
+import com.letstesla.dvdrentalspringboot.QueryTemplate.Binds;
+import com.letstesla.dvdrentalspringboot.TableCounts.Count;
+import com.letstesla.dvdrentalspringboot.db.tables.pojos.Actor;
+import com.letstesla.dvdrentalspringboot.db.tables.pojos.Category;
+
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Record;
+import org.jooq.Table;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RestController;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Non-blocking variants of <code>/api/datatable/customers</code> and
+ * <code>/api/datatable/films</code>, enabled by
+ * <code>datatable.reactive.enabled</code>.
+ * <p>
+ * Same request and response, and the same SQL: the {@link DataTablePages} of
+ * {@link CustomerController} and {@link FilmController}, executed through
+ * {@link ReactiveQueries}. The total count, the filtered count and the page,
+ * then the categories and the actors of the films, are composed concurrently,
+ * the stock is read last as the JDBC endpoint does. The handlers return a
+ * {@link Mono}, the servlet thread is released while the statements run.
+ * Neither the response cache nor the count estimates of
+ * <code>datatable.approximate-count-threshold</code> apply.
+ */
+@RestController
+@ConditionalOnProperty(prefix = "datatable.reactive", name = "enabled", havingValue = "true")
+public class ReactiveDataTableController {
+
+    /** The page rows, with the filtered and the total count */
+    private static class Page {
+        final List<Record> rows;
+        final int recordsFiltered;
+        final Count total;
+
+        Page(List<Record> rows, int recordsFiltered, Count total) {
+            this.rows = rows;
+            this.recordsFiltered = recordsFiltered;
+            this.total = total;
+        }
+    }
+
+    private final CustomerController customers;
+
+    private final FilmController films;
+
+    private final ReactiveQueries queries;
+
+    private final TableCounts tableCounts;
+
+    private final DataTableProperties properties;
+
+    private final QueryTemplate<Object> customerCount;
+
+    private final QueryTemplate<Object> filmCount;
+
+    public ReactiveDataTableController(DSLContext dsl, CustomerController customers, FilmController films,
+            ReactiveQueries queries, TableCounts tableCounts, DataTableProperties properties) {
+        this.customers = customers;
+        this.films = films;
+        this.queries = queries;
+        this.tableCounts = tableCounts;
+        this.properties = properties;
+        this.customerCount = QueryTemplate.render(dsl, new Binds<>(), selectCount().from(CUSTOMER));
+        this.filmCount = QueryTemplate.render(dsl, new Binds<>(), selectCount().from(FILM));
+    }
+
+    @PostMapping("/api/reactive/datatable/customers")
+    public Mono<DataTableResponse> customers(@RequestBody DataTableQueryParams reqBody) {
+        Request request = customers.pages.request(reqBody);
+        DataTablePages.Templates shape = customers.pages.templates(request);
+        boolean windowCount = windowCount(reqBody);
+        QueryTemplate<Request> page = reqBody.after != null ? shape.seekPage
+                : windowCount ? shape.windowPage : shape.offsetPage;
+
+        return page(request, total(CUSTOMER, customerCount), page, shape.count,
+                windowCount ? DataTablePages.RECORDS_FILTERED : null).map(result -> response(reqBody, result,
+                        result.rows.stream().map(customers::dataRow).toArray(), shape.cursor));
+    }
+
+    @PostMapping("/api/reactive/datatable/films")
+    public Mono<DataTableResponse> films(@RequestBody DataTableQueryParams reqBody) {
+        DataTablePages pages = films.pages();
+        Request request = pages.request(reqBody);
+        DataTablePages.Templates shape = pages.templates(request);
+        boolean windowCount = windowCount(reqBody);
+        QueryTemplate<Request> page = reqBody.after != null ? shape.seekPage
+                : windowCount ? shape.windowPage : shape.offsetPage;
+
+        return page(request, total(FILM, filmCount), page, shape.count,
+                windowCount ? DataTablePages.RECORDS_FILTERED : null).flatMap(result -> {
+                    if (properties.getFilmFetchMode() == FetchMode.AGGREGATED)
+                        return Mono.just(response(reqBody, result,
+                                result.rows.stream().map(films::aggregatedRow).toArray(), shape.cursor));
+
+                    // the lookups only depend on the film ids
+                    Short[] filmIds = FilmController.filmIds(result.rows);
+                    Mono<Map<Short, List<Category>>> categories = queries.fetch(films.categoriesOfFilms, filmIds)
+                            .collect(Collectors.groupingBy(r -> r.get(FILM_CATEGORY.FILM_ID),
+                                    Collectors.mapping(r -> r.into(Category.class), Collectors.toList())));
+                    Mono<Map<Short, List<Actor>>> actors = queries.fetch(films.actorsOfFilms, filmIds)
+                            .collect(Collectors.groupingBy(r -> r.get(FILM_ACTOR.FILM_ID),
+                                    Collectors.mapping(r -> r.into(Actor.class), Collectors.toList())));
+                    return Mono.zip(categories, actors).map(lookups -> response(reqBody, result,
+                            films.rows(result.rows, lookups.getT1(), lookups.getT2()), shape.cursor));
+                }).flatMap(response -> queries.fetch(films.stockOfFilms, FilmController.filmIds(response))
+                        .collect(Collectors.groupingBy(r -> r.get(INVENTORY.FILM_ID),
+                                Collectors.mapping(Stock::new, Collectors.toList())))
+                        .map(stock -> FilmController.withStock(response, stock)));
+    }
+
+    /** The page can only count the filtered rows when it is not cut by a seek predicate */
+    private boolean windowCount(DataTableQueryParams reqBody) {
+        return properties.getCountMode() == CountMode.WINDOW && reqBody.after == null;
+    }
+
+    /** The cached total of <code>table</code>, or a count that refreshes it */
+    private Mono<Count> total(Table<?> table, QueryTemplate<Object> count) {
+        Count cached = tableCounts.cached(table);
+        if (cached != null)
+            return Mono.just(cached);
+        long generation = tableCounts.generation(table);
+        return queries.fetch(count, null).single()
+                .map(r -> tableCounts.cache(table, generation, new Count(r.get(0, int.class), false)));
+    }
+
+    /**
+     * @param recordsFiltered the filtered count selected by <code>page</code>,
+     *                        <code>null</code> to run <code>count</code> along
+     */
+    private Mono<Page> page(Request request, Mono<Count> total, QueryTemplate<Request> page,
+            QueryTemplate<Request> count, Field<Integer> recordsFiltered) {
+        Mono<List<Record>> rows = queries.fetch(page, request).collectList();
+        Mono<Integer> filtered = queries.fetch(count, request).single().map(r -> r.get(0, int.class));
+        if (recordsFiltered == null)
+            return Mono.zip(rows, filtered, total).map(t -> new Page(t.getT1(), t.getT2(), t.getT3()));
+
+        // an empty page carries no count, e.g. an offset past the last row
+        return Mono.zip(rows, total).flatMap(t -> (t.getT1().isEmpty() ? filtered
+                : Mono.just(t.getT1().get(0).get(recordsFiltered))).map(n -> new Page(t.getT1(), n, t.getT2())));
+    }
+
+    private static DataTableResponse response(DataTableQueryParams reqBody, Page page, Object[] data,
+            SeekCursor cursor) {
+        int limit = reqBody.limit;
+        String next = page.rows.size() == limit ? cursor.next(page.rows.get(limit - 1)) : null;
+        return new DataTableResponse(reqBody.fetchId, page.recordsFiltered, page.total.value, page.total.approximate,
+                data, next);
+    }
+}
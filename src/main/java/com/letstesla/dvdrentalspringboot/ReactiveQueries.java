@@ -0,0 +1,191 @@
+package com.letstesla.dvdrentalspringboot;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.Map;
+
+import org.jooq.DSLContext;
+import org.jooq.DataType;
+import org.jooq.EnumType;
+import org.jooq.Field;
+import org.jooq.Record;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+import org.postgresql.util.PGobject;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import io.netty.buffer.ByteBuf;
+import io.r2dbc.pool.ConnectionPool;
+import io.r2dbc.pool.ConnectionPoolConfiguration;
+import io.r2dbc.postgresql.PostgresqlConnectionConfiguration;
+import io.r2dbc.postgresql.PostgresqlConnectionFactory;
+import io.r2dbc.postgresql.client.Parameter;
+import io.r2dbc.postgresql.codec.Codec;
+import io.r2dbc.postgresql.codec.Json;
+import io.r2dbc.postgresql.extension.CodecRegistrar;
+import io.r2dbc.postgresql.message.Format;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.Row;
+import io.r2dbc.spi.Statement;
+import reactor.core.publisher.Flux;
+
+/**
+ * Executes {@link QueryTemplate}s over R2DBC, for the non-blocking endpoints of
+ * {@link ReactiveDataTableController}.
+ * <p>
+ * jOOQ renders the SQL and maps the rows, r2dbc-postgresql runs it on a pool of
+ * <code>datatable.reactive.pool-size</code> connections of its own, to the
+ * database of <code>spring.datasource.*</code>. Rows come back as jOOQ records
+ * of the template's fields, converted the way jOOQ converts JDBC values, so
+ * the row mappers of the controllers apply unchanged.
+ */
+@Component
+@ConditionalOnProperty(prefix = "datatable.reactive", name = "enabled", havingValue = "true")
+public class ReactiveQueries implements DisposableBean {
+
+    /**
+     * Decodes the text of the types r2dbc-postgresql has no codec for, enums
+     * and <code>tsvector</code>, into a {@link PGobject} like the JDBC driver
+     */
+    private static class PGobjectCodec implements Codec<PGobject> {
+
+        /** Type names by oid */
+        private final Map<Integer, String> types;
+
+        PGobjectCodec(Map<Integer, String> types) {
+            this.types = types;
+        }
+
+        @Override
+        public boolean canDecode(int dataType, Format format, Class<?> type) {
+            return format == Format.FORMAT_TEXT && types.containsKey(dataType) && type.isAssignableFrom(PGobject.class);
+        }
+
+        @Override
+        public PGobject decode(ByteBuf buffer, int dataType, Format format, Class<? extends PGobject> type) {
+            if (buffer == null)
+                return null;
+            PGobject object = new PGobject();
+            object.setType(types.get(dataType));
+            try {
+                object.setValue(buffer.toString(StandardCharsets.UTF_8));
+            } catch (SQLException e) {
+                throw new IllegalStateException(e);
+            }
+            return object;
+        }
+
+        @Override
+        public boolean canEncode(Object value) {
+            return false;
+        }
+
+        @Override
+        public boolean canEncodeNull(Class<?> type) {
+            return false;
+        }
+
+        /** Never called, the driver only encodes with codecs whose canEncode accepts the value */
+        @Override
+        public Parameter encode(Object value) {
+            throw new IllegalStateException("PGobjectCodec only decodes, " + value.getClass() + " cannot be bound");
+        }
+
+        /** Never called, the driver only encodes with codecs whose canEncodeNull accepts the type */
+        @Override
+        public Parameter encodeNull() {
+            throw new IllegalStateException("PGobjectCodec only decodes, null cannot be bound");
+        }
+
+        @Override
+        public Class<?> type() {
+            return PGobject.class;
+        }
+    }
+
+    private static final CodecRegistrar PGOBJECT_CODEC = (connection, allocator, registry) -> connection
+            .createStatement("select oid::int4, typname::text from pg_type where typtype = 'e' or typname = 'tsvector'")
+            .execute().flatMap(result -> result.map((row, metadata) -> row))
+            .collectMap(row -> row.get(0, Integer.class), row -> row.get(1, String.class))
+            .doOnNext(types -> registry.addFirst(new PGobjectCodec(types))).then();
+
+    /** Creates detached records, never executes */
+    private static final DSLContext RECORDS = DSL.using(SQLDialect.POSTGRES);
+
+    private final ConnectionPool pool;
+
+    public ReactiveQueries(DataSourceProperties dataSourceProperties, DataTableProperties properties) {
+        // jdbc:postgresql://host:port/database?...
+        URI url = URI.create(dataSourceProperties.determineUrl().substring("jdbc:".length()));
+        String password = dataSourceProperties.determinePassword();
+        PostgresqlConnectionConfiguration configuration = PostgresqlConnectionConfiguration.builder()
+                .host(url.getHost() != null ? url.getHost() : "localhost")
+                .port(url.getPort() != -1 ? url.getPort() : 5432).database(url.getPath().substring(1))
+                .username(dataSourceProperties.determineUsername())
+                .password(StringUtils.hasText(password) ? password : null).codecRegistrar(PGOBJECT_CODEC).build();
+
+        int poolSize = properties.getReactive().getPoolSize();
+        this.pool = new ConnectionPool(ConnectionPoolConfiguration
+                .builder(new PostgresqlConnectionFactory(configuration)).initialSize(Math.min(poolSize, 2))
+                .maxSize(poolSize).name("datatable-reactive").build());
+    }
+
+    /**
+     * @return the rows of <code>template</code> with the bind values of
+     *         <code>values</code>, as records of {@link QueryTemplate#getFields()}
+     */
+    public <V> Flux<Record> fetch(QueryTemplate<V> template, V values) {
+        Field<?>[] fields = template.getFields();
+        Object[] bindValues = template.bindValues(values);
+        DataType<?>[] bindTypes = template.getBindTypes();
+        return Flux.usingWhen(pool.create(), connection -> {
+            Statement statement = connection.createStatement(template.getNumberedSQL());
+            for (int i = 0; i < bindValues.length; i++) {
+                Object value = bindValues[i] instanceof EnumType ? ((EnumType) bindValues[i]).getLiteral()
+                        : bindValues[i];
+                if (value == null)
+                    statement.bindNull(i, nullType(bindTypes[i]));
+                else
+                    statement.bind(i, value);
+            }
+            return Flux.from(statement.execute()).flatMap(result -> result.map((row, metadata) -> record(fields, row)));
+        }, Connection::close);
+    }
+
+    /**
+     * @return the class a <code>null</code> of <code>type</code> is bound as,
+     *         which types the parameter, e.g. <code>smallint</code> for a
+     *         {@link Short}; enums are bound by their literal
+     */
+    private static Class<?> nullType(DataType<?> type) {
+        return EnumType.class.isAssignableFrom(type.getType()) ? String.class : type.getType();
+    }
+
+    private static Record record(Field<?>[] fields, Row row) {
+        Record record = RECORDS.newRecord(fields);
+        for (int i = 0; i < fields.length; i++) {
+            set(record, fields[i], row.get(i));
+        }
+        record.changed(false);
+        return record;
+    }
+
+    private static <T> void set(Record record, Field<T> field, Object value) {
+        // the text of enums and json, a tsvector stays a PGobject as with JDBC
+        if (value instanceof Json)
+            value = ((Json) value).asString();
+        else if (value instanceof PGobject && field.getType() != Object.class)
+            value = ((PGobject) value).getValue();
+        record.set(field, field.getDataType().convert(value));
+    }
+
+    @Override
+    public void destroy() {
+        pool.dispose();
+    }
+}
@@ -0,0 +1,199 @@
+package com.letstesla.dvdrentalspringboot;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.core.type.WritableTypeId;
+import com.fasterxml.jackson.databind.JsonSerializable;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+
+import org.jooq.Field;
+import org.jooq.Record;
+import org.jooq.tools.StringUtils;
+
+/**
+ * Writes the values of a jOOQ {@link Record} straight to a
+ * {@link JsonGenerator} as a JSON object, nested objects included, without
+ * copying them into POJOs first.
+ * <p>
+ * The output is the JSON Jackson writes for the generated POJOs of the same
+ * columns: one property per column in column order, named like the POJO
+ * member. Values are read by position, a writer describes the leading columns
+ * of the records it is given, e.g.
+ * <code>select(CUSTOMER.fields()).select(ADDRESS.fields())...</code> for
+ * <code>object(CUSTOMER.fields()).with("address", object(ADDRESS.fields()))</code>.
+ * Names and value kinds are resolved once, when the writer is built.
+ */
+public class RecordJsonWriter {
+
+    private enum Kind {
+        STRING, INT, SHORT, BOOLEAN, DECIMAL,
+        /** anything else, through the serializer Jackson has for its class */
+        OBJECT
+    }
+
+    private static class Property {
+        final SerializableString name;
+        /** of the value in the record, unused for nested objects */
+        final int index;
+        final Kind kind;
+        final RecordJsonWriter nested;
+
+        Property(SerializableString name, int index, Kind kind, RecordJsonWriter nested) {
+            this.name = name;
+            this.index = index;
+            this.kind = kind;
+            this.nested = nested;
+        }
+    }
+
+    /** A record written by a {@link RecordJsonWriter} when serialized by Jackson */
+    public static class Row implements JsonSerializable {
+
+        private final RecordJsonWriter writer;
+
+        private final Record record;
+
+        Row(RecordJsonWriter writer, Record record) {
+            this.writer = writer;
+            this.record = record;
+        }
+
+        /** Writes the properties of the row, without the braces */
+        protected void writeFields(JsonGenerator generator, SerializerProvider provider) throws IOException {
+            writer.writeFields(generator, provider, record);
+        }
+
+        @Override
+        public void serialize(JsonGenerator generator, SerializerProvider provider) throws IOException {
+            generator.writeStartObject(this);
+            writeFields(generator, provider);
+            generator.writeEndObject();
+        }
+
+        @Override
+        public void serializeWithType(JsonGenerator generator, SerializerProvider provider, TypeSerializer typeSer)
+                throws IOException {
+            WritableTypeId typeId = typeSer.writeTypePrefix(generator, typeSer.typeId(this, JsonToken.START_OBJECT));
+            writeFields(generator, provider);
+            typeSer.writeTypeSuffix(generator, typeId);
+        }
+    }
+
+    private final Property[] properties;
+
+    /** Number of record values the writer reads */
+    private final int width;
+
+    private RecordJsonWriter(Property[] properties, int width) {
+        this.properties = properties;
+        this.width = width;
+    }
+
+    /**
+     * @return a writer of one property per field, from the leading values of
+     *         the record
+     */
+    public static RecordJsonWriter object(Field<?>... fields) {
+        Property[] properties = new Property[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            properties[i] = new Property(new SerializedString(StringUtils.toCamelCaseLC(fields[i].getName())), i,
+                    kind(fields[i].getType()), null);
+        }
+        return new RecordJsonWriter(properties, fields.length);
+    }
+
+    /**
+     * @return this writer followed by the property <code>name</code>, an object
+     *         written by <code>nested</code> from the values after the ones
+     *         this writer reads
+     */
+    public RecordJsonWriter with(String name, RecordJsonWriter nested) {
+        List<Property> properties = new ArrayList<>(List.of(this.properties));
+        properties.add(new Property(new SerializedString(name), width, null, nested.shift(width)));
+        return new RecordJsonWriter(properties.toArray(Property[]::new), width + nested.width);
+    }
+
+    /**
+     * @return this writer followed by the properties of <code>next</code>,
+     *         written from the values after the ones this writer reads
+     */
+    public RecordJsonWriter then(RecordJsonWriter next) {
+        List<Property> properties = new ArrayList<>(List.of(this.properties));
+        properties.addAll(List.of(next.shift(width).properties));
+        return new RecordJsonWriter(properties.toArray(Property[]::new), width + next.width);
+    }
+
+    /** @return <code>record</code>, written by this writer when serialized */
+    public Row row(Record record) {
+        return new Row(this, record);
+    }
+
+    private RecordJsonWriter shift(int offset) {
+        Property[] shifted = new Property[properties.length];
+        for (int i = 0; i < properties.length; i++) {
+            Property property = properties[i];
+            shifted[i] = new Property(property.name, property.index + offset, property.kind,
+                    property.nested != null ? property.nested.shift(offset) : null);
+        }
+        return new RecordJsonWriter(shifted, width);
+    }
+
+    private static Kind kind(Class<?> type) {
+        if (type == String.class)
+            return Kind.STRING;
+        if (type == Integer.class)
+            return Kind.INT;
+        if (type == Short.class)
+            return Kind.SHORT;
+        if (type == Boolean.class)
+            return Kind.BOOLEAN;
+        if (type == BigDecimal.class)
+            return Kind.DECIMAL;
+        return Kind.OBJECT;
+    }
+
+    private void writeFields(JsonGenerator generator, SerializerProvider provider, Record record) throws IOException {
+        for (Property property : properties) {
+            generator.writeFieldName(property.name);
+            if (property.nested != null) {
+                generator.writeStartObject();
+                property.nested.writeFields(generator, provider, record);
+                generator.writeEndObject();
+                continue;
+            }
+
+            Object value = record.get(property.index);
+            if (value == null) {
+                generator.writeNull();
+                continue;
+            }
+            switch (property.kind) {
+            case STRING:
+                generator.writeString((String) value);
+                break;
+            case INT:
+                generator.writeNumber((Integer) value);
+                break;
+            case SHORT:
+                generator.writeNumber((Short) value);
+                break;
+            case BOOLEAN:
+                generator.writeBoolean((Boolean) value);
+                break;
+            case DECIMAL:
+                generator.writeNumber((BigDecimal) value);
+                break;
+            default:
+                provider.defaultSerializeValue(value, generator);
+            }
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.letstesla.dvdrentalspringboot;
+
+import static com.letstesla.dvdrentalspringboot.db.tables.Rental.*;
+import static com.letstesla.dvdrentalspringboot.db.tables.Customer.*;
+import static com.letstesla.dvdrentalspringboot.db.tables.Inventory.*;
+import static com.letstesla.dvdrentalspringboot.db.tables.Film.*;
+import static com.letstesla.dvdrentalspringboot.db.tables.Payment.*;
+
+import static org.jooq.impl.DSL.coalesce;
+import static org.jooq.impl.DSL.count;
+import static org.jooq.impl.DSL.field;
+import static org.jooq.impl.DSL.inline;
+import static org.jooq.impl.DSL.or;
+import static org.jooq.impl.DSL.select;
+import static org.jooq.impl.DSL.sum;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.letstesla.dvdrentalspringboot.DataTableColumns.Request;
+import com.letstesla.dvdrentalspringboot.DataTableProperties.RowSerialization;
+import com.letstesla.dvdrentalspringboot.DataTableQueryParams.Filter;
+import com.letstesla.dvdrentalspringboot.db.tables.pojos.Customer;
+import com.letstesla.dvdrentalspringboot.db.tables.pojos.Film;
+import com.letstesla.dvdrentalspringboot.db.tables.pojos.Inventory;
+import com.letstesla.dvdrentalspringboot.db.tables.pojos.Rental;
+
+import org.jooq.Condition;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Record;
+import org.jooq.Table;
+import org.jooq.impl.SQLDataType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * The rental history: each rental with its customer, the copy and film
+ * rented, and the amount paid for it.
+ * <p>
+ * <code>rental</code> and <code>payment</code> grow with every rental, pages
+ * are meant to be read with <code>after</code>, which seeks on
+ * <code>(rental_date, rental_id)</code> through the indexes of
+ * <code>V0009__rental_history.sql</code>.
+ */
+@RestController
+public class RentalController {
+
+    /**
+     * Inner joins, the foreign keys are <code>NOT NULL</code>. The smallint
+     * foreign keys are compared to the integer primary keys as they are, see
+     * {@link CustomerController#FROM}.
+     */
+    static final Table<?> FROM = RENTAL.join(CUSTOMER)
+            .on(CUSTOMER.CUSTOMER_ID.eq(RENTAL.CUSTOMER_ID.coerce(SQLDataType.INTEGER))).join(INVENTORY)
+            .on(INVENTORY.INVENTORY_ID.eq(RENTAL.INVENTORY_ID)).join(FILM)
+            .on(FILM.FILM_ID.eq(INVENTORY.FILM_ID.coerce(SQLDataType.INTEGER)));
+
+    /** The payments of the rental through <code>idx_fk_rental_id</code>, 0 if unpaid */
+    static final Field<BigDecimal> PAID = field(
+            select(coalesce(sum(PAYMENT.AMOUNT), inline(BigDecimal.ZERO))).from(PAYMENT)
+                    .where(PAYMENT.RENTAL_ID.eq(RENTAL.RENTAL_ID))).as("paid");
+
+    /**
+     * The <code>rentalDate</code> filter takes a date range <code>from..to</code>
+     * of <code>yyyy</code>, <code>yyyy-MM</code> or <code>yyyy-MM-dd</code>
+     * periods, both included, either end may be left open; a single period
+     * without <code>..</code> is a range of its own. The id filters match
+     * digits only. The customer and film filters only narrow the rentals of few
+     * customers or copies, served by <code>idx_rental_customer_id_sort</code>
+     * and <code>idx_fk_inventory_id</code>. <code>rentalDate</code> is the only
+     * order, <code>idx_rental_rental_date_sort</code> serves it.
+     */
+    static final DataTableColumns COLUMNS = new DataTableColumns(RENTAL.RENTAL_ID)
+            .filter("rentalDate", value -> RENTAL.RENTAL_DATE
+                    .ge(value.as(SQLDataType.VARCHAR, text -> rentalDateBound(text, false))
+                            .cast(SQLDataType.LOCALDATETIME))
+                    .and(RENTAL.RENTAL_DATE.lt(value.as(SQLDataType.VARCHAR, text -> rentalDateBound(text, true))
+                            .cast(SQLDataType.LOCALDATETIME))))
+            .filter("customer.customerId",
+                    value -> RENTAL.CUSTOMER_ID.eq(value.as(SQLDataType.SMALLINT, RentalController::id)))
+            .filter("customer.fullName",
+                    value -> or(CUSTOMER.FIRST_NAME.likeIgnoreCase(value.contains()),
+                            CUSTOMER.LAST_NAME.likeIgnoreCase(value.contains())))
+            .filter("inventory.film.filmId",
+                    value -> INVENTORY.FILM_ID.eq(value.as(SQLDataType.SMALLINT, RentalController::id)))
+            .filter("inventory.film.title", value -> FILM.TITLE.likeIgnoreCase(value.contains()))
+            .order("rentalDate", RENTAL.RENTAL_DATE);
+
+    /** @return the id <code>text</code> spells, <code>null</code> for anything but digits */
+    private static Short id(String text) {
+        return text.matches("\\d{1,4}") ? Short.valueOf(text) : null;
+    }
+
+    /**
+     * @param end <code>false</code> for the first instant of the range,
+     *            <code>true</code> for the first one after it
+     * @return the bound of the <code>rentalDate</code> range <code>text</code>,
+     *         as a timestamp literal, <code>null</code> if it is not a range
+     */
+    static String rentalDateBound(String text, boolean end) {
+        String[] periods = text.split("\\.\\.", -1);
+        if (periods.length > 2)
+            return null;
+        String period = periods[end ? periods.length - 1 : 0].trim();
+        if (period.isEmpty())
+            return periods.length == 1 ? null : end ? "infinity" : "-infinity";
+        try {
+            if (period.matches("\\d{4}"))
+                return LocalDate.of(Integer.parseInt(period), 1, 1).plusYears(end ? 1 : 0).toString();
+            if (period.matches("\\d{4}-\\d{2}"))
+                return YearMonth.parse(period).plusMonths(end ? 1 : 0).atDay(1).toString();
+            if (period.matches("\\d{4}-\\d{2}-\\d{2}"))
+                return LocalDate.parse(period).plusDays(end ? 1 : 0).toString();
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+        return null;
+    }
+
+    /** Every table the datatable response is computed from */
+    private static final Table<?>[] TABLES = { RENTAL, CUSTOMER, INVENTORY, FILM, PAYMENT };
+
+    private final DataTableProperties properties;
+
+    private final DataTableCache cache;
+
+    final DataTablePages pages;
+
+    Logger logger = LoggerFactory.getLogger(RentalController.class);
+
+    public RentalController(DSLContext dsl, DataTableProperties properties, TableCounts tableCounts,
+            QueryExecutor queryExecutor, DataTableCache cache) {
+        this.properties = properties;
+        this.cache = cache;
+        // the joins are many to one, each row is a rental
+        this.pages = new DataTablePages(dsl, properties, tableCounts, queryExecutor, "rentals", RENTAL, FROM,
+                COLUMNS, count(), select(RENTAL.fields()).select(CUSTOMER.fields()).select(INVENTORY.fields())
+                        .select(FILM.fields()).select(PAID).getSelect());
+    }
+
+    /**
+     * Extends class {@link Rental} with <code>customer</code>,
+     * <code>inventory</code>, <code>paid</code> fields
+     */
+    static class RentalDTRow extends Rental {
+
+        private static final long serialVersionUID = 4613306581826342215L;
+
+        private class InventoryDTRow extends Inventory {
+
+            private static final long serialVersionUID = -3015813290478916380L;
+
+            @JsonProperty
+            private Film film;
+
+            public InventoryDTRow(Inventory inventory, Film film) {
+                super(inventory);
+                this.film = film;
+            }
+        }
+
+        @JsonProperty
+        private Customer customer;
+
+        @JsonProperty
+        private InventoryDTRow inventory;
+
+        /** see {@link RentalController#PAID} */
+        @JsonProperty
+        private BigDecimal paid;
+
+        public RentalDTRow(Rental rental, Customer customer, Inventory inventory, Film film, BigDecimal paid) {
+            super(rental);
+            this.customer = customer;
+            this.inventory = new InventoryDTRow(inventory, film);
+            this.paid = paid;
+        }
+    }
+
+    /**
+     * A row selected with the rental, customer, inventory, film and paid
+     * fields. Each POJO is read through its table, columns like
+     * <code>last_update</code> occur once per table.
+     */
+    static RentalDTRow row(Record r) {
+        return new RentalDTRow(r.into(RENTAL).into(Rental.class), r.into(CUSTOMER).into(Customer.class),
+                r.into(INVENTORY).into(Inventory.class), r.into(FILM).into(Film.class), r.get(PAID));
+    }
+
+    /**
+     * The JSON of {@link RentalDTRow}, from a row selected with the rental,
+     * customer, inventory, film and paid fields
+     */
+    static final RecordJsonWriter JSON = RecordJsonWriter.object(RENTAL.fields())
+            .with("customer", RecordJsonWriter.object(CUSTOMER.fields()))
+            .with("inventory", RecordJsonWriter.object(INVENTORY.fields()).with("film",
+                    RecordJsonWriter.object(FILM.fields())))
+            .then(RecordJsonWriter.object(PAID));
+
+    /** @return the element of {@link DataTableResponse#data} for a page row */
+    Object dataRow(Record r) {
+        return properties.getRowSerialization() == RowSerialization.STREAMING ? JSON.row(r) : row(r);
+    }
+
+    List<Condition> conditions(Filter[] filters) {
+        DataTableQueryParams params = new DataTableQueryParams();
+        params.filters = filters;
+        Request request = COLUMNS.request(params);
+        return COLUMNS.conditions(QueryTemplate.inline(request), request);
+    }
+
+    @PostMapping("/api/datatable/rentals")
+    public ResponseEntity<DataTableResponse> rentals(@RequestBody DataTableQueryParams reqBody,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        return cache.conditional("rentals", TABLES, reqBody, ifNoneMatch, () -> page(reqBody));
+    }
+
+    /** The response of <code>/api/datatable/rentals</code>, unconditionally */
+    public DataTableResponse rentals(DataTableQueryParams reqBody) {
+        return cache.get("rentals", TABLES, reqBody, () -> page(reqBody));
+    }
+
+    private DataTableResponse page(DataTableQueryParams reqBody) {
+        DataTablePages.Page page = pages.page(reqBody);
+        return page.response(reqBody, page.rows.map(this::dataRow).toArray());
+    }
+
+}
@@ -0,0 +1,68 @@
+package com.letstesla.dvdrentalspringboot;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * Single-flight execution: concurrent calls with the same key share one
+ * computation, the first caller computes on its own thread while the others
+ * wait for its result.
+ * <p>
+ * The computations in flight are futures of a {@link ConcurrentHashMap},
+ * claimed by <code>putIfAbsent</code> and removed once complete. Calls with
+ * different keys never contend on a lock, calls with the same key only on the
+ * bin of the map. A call arriving after completion computes anew, results are
+ * not kept, see {@link DataTableCache} for that.
+ */
+@Component
+public class RequestCoalescer {
+
+    private final ConcurrentMap<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder coalescedCount = new LongAdder();
+
+    /**
+     * @return the result of <code>computation</code>, or of the one running
+     *         for <code>key</code> already. Exceptions are thrown to every
+     *         caller sharing the computation.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(String key, Supplier<T> computation) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> running = inFlight.putIfAbsent(key, future);
+        if (running != null) {
+            coalescedCount.increment();
+            try {
+                return (T) running.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException)
+                    throw (RuntimeException) e.getCause();
+                if (e.getCause() instanceof Error)
+                    throw (Error) e.getCause();
+                throw e;
+            }
+        }
+
+        try {
+            T result = computation.get();
+            future.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    /** @return the number of calls which shared a computation in flight */
+    public long getCoalescedCount() {
+        return coalescedCount.sum();
+    }
+}
@@ -0,0 +1,87 @@
+package com.letstesla.dvdrentalspringboot;
+
+import static com.letstesla.dvdrentalspringboot.db.tables.SalesSummaryChange.*;
+import static com.letstesla.dvdrentalspringboot.db.tables.SalesSummaryState.*;
+
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.function.Function;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.letstesla.dvdrentalspringboot.db.tables.pojos.SalesByFilmCategory;
+import com.letstesla.dvdrentalspringboot.db.tables.pojos.SalesByStore;
+import com.letstesla.dvdrentalspringboot.db.tables.records.SalesSummaryStateRecord;
+
+import org.jooq.DSLContext;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * The rows of the <code>sales_by_film_category</code> and
+ * <code>sales_by_store</code> views, read from the {@link SalesSummaries}
+ * rather than the views, which aggregate every payment on each read.
+ */
+@RestController
+public class SalesReportController {
+
+    /** The rows of a view, as of the summaries' last refresh */
+    public static class SalesReport<T> {
+        @JsonProperty
+        public List<T> rows;
+        /** the newest payment counted */
+        @JsonProperty
+        public Integer lastPaymentId;
+        @JsonProperty
+        public LocalDateTime lastPaymentDate;
+        @JsonProperty
+        public OffsetDateTime refreshed;
+        /** payments or rentals changed in a way only a full recomputation applies, due with the next refresh */
+        @JsonProperty
+        public boolean stale;
+
+        SalesReport(List<T> rows, SalesSummaryStateRecord state, boolean stale) {
+            this.rows = rows;
+            this.lastPaymentId = state.getLastPaymentId();
+            this.lastPaymentDate = state.getLastPaymentDate();
+            this.refreshed = state.getRefreshed();
+            this.stale = stale;
+        }
+    }
+
+    private final DSLContext dsl;
+
+    private final SalesSummaries summaries;
+
+    private final TransactionTemplate transaction;
+
+    public SalesReportController(DSLContext dsl, SalesSummaries summaries,
+            PlatformTransactionManager transactionManager) {
+        this.dsl = dsl;
+        this.summaries = summaries;
+        // the rows and the state of one refresh
+        this.transaction = new TransactionTemplate(transactionManager);
+        transaction.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+        transaction.setReadOnly(true);
+    }
+
+    @GetMapping("/api/reports/sales-by-film-category")
+    public SalesReport<SalesByFilmCategory> salesByFilmCategory() {
+        return report(dsl -> SalesSummaries.salesByFilmCategory(dsl).fetchInto(SalesByFilmCategory.class));
+    }
+
+    @GetMapping("/api/reports/sales-by-store")
+    public SalesReport<SalesByStore> salesByStore() {
+        return report(dsl -> SalesSummaries.salesByStore(dsl).fetchInto(SalesByStore.class));
+    }
+
+    private <T> SalesReport<T> report(Function<DSLContext, List<T>> rows) {
+        summaries.catchUp();
+        DSLContext dsl = QueryMetrics.tag(this.dsl, "reports", "summary", QueryMetrics.NONE);
+        return transaction.execute(status -> new SalesReport<>(rows.apply(dsl), dsl.fetchOne(SALES_SUMMARY_STATE),
+                dsl.fetchExists(SALES_SUMMARY_CHANGE, SALES_SUMMARY_CHANGE.RECOMPUTE.isTrue())));
+    }
+}
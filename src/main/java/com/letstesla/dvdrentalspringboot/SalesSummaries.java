@@ -0,0 +1,139 @@
+package com.letstesla.dvdrentalspringboot;
+
+import static com.letstesla.dvdrentalspringboot.db.tables.Address.*;
+import static com.letstesla.dvdrentalspringboot.db.tables.Category.*;
+import static com.letstesla.dvdrentalspringboot.db.tables.City.*;
+import static com.letstesla.dvdrentalspringboot.db.tables.Country.*;
+import static com.letstesla.dvdrentalspringboot.db.tables.FilmCategory.*;
+import static com.letstesla.dvdrentalspringboot.db.tables.Inventory.*;
+import static com.letstesla.dvdrentalspringboot.db.tables.Payment.*;
+import static com.letstesla.dvdrentalspringboot.db.tables.Rental.*;
+import static com.letstesla.dvdrentalspringboot.db.tables.SalesByCategorySummary.*;
+import static com.letstesla.dvdrentalspringboot.db.tables.SalesByStoreSummary.*;
+import static com.letstesla.dvdrentalspringboot.db.tables.Staff.*;
+import static com.letstesla.dvdrentalspringboot.db.tables.Store.*;
+
+import static org.jooq.impl.DSL.inline;
+import static org.jooq.impl.DSL.sum;
+
+import java.math.BigDecimal;
+
+import com.letstesla.dvdrentalspringboot.db.Routines;
+
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Record2;
+import org.jooq.Record3;
+import org.jooq.ResultQuery;
+import org.jooq.impl.SQLDataType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Component;
+
+/**
+ * The sales per film category and per store, pre-aggregated by
+ * <code>V0008__sales_summaries.sql</code>, in place of the
+ * <code>sales_by_film_category</code> and <code>sales_by_store</code> views.
+ * <p>
+ * The summaries are refreshed on a thread of their own,
+ * <code>datatable.sales-summary-refresh-delay</code> after a
+ * {@link TableChangedEvent} of a table they are computed from, adding the
+ * payment changes queued meanwhile, or recomputed in full after changes a
+ * payment row cannot describe. A refresh which fails is retried by the next
+ * report read.
+ */
+@Component
+public class SalesSummaries implements DisposableBean {
+
+    /** The tables whose changes the summaries follow */
+    private static final String[] TABLES = { PAYMENT.getName(), RENTAL.getName(), INVENTORY.getName(),
+            FILM_CATEGORY.getName() };
+
+    private final DSLContext dsl;
+
+    /** The last refresh failed, the summaries may lack payments */
+    private volatile boolean behind;
+
+    private final BackgroundRefresh refresher;
+
+    Logger logger = LoggerFactory.getLogger(SalesSummaries.class);
+
+    public SalesSummaries(DSLContext dsl, DataTableProperties properties) {
+        this.dsl = dsl;
+        this.refresher = new BackgroundRefresh("sales-summaries-refresh", properties.getSalesSummaryRefreshDelay(),
+                this::tryRefresh);
+    }
+
+    /** The rows of <code>sales_by_film_category</code>, in its order */
+    static ResultQuery<Record2<String, BigDecimal>> salesByFilmCategory(DSLContext dsl) {
+        Field<BigDecimal> totalSales = sum(SALES_BY_CATEGORY_SUMMARY.TOTAL_SALES).as("total_sales");
+        return dsl.select(CATEGORY.NAME.as("category"), totalSales).from(SALES_BY_CATEGORY_SUMMARY).join(CATEGORY)
+                .on(CATEGORY.CATEGORY_ID.eq(SALES_BY_CATEGORY_SUMMARY.CATEGORY_ID)).groupBy(CATEGORY.NAME)
+                .orderBy(totalSales.desc());
+    }
+
+    /** The rows of <code>sales_by_store</code>, in its order */
+    static ResultQuery<Record3<String, String, BigDecimal>> salesByStore(DSLContext dsl) {
+        return dsl.select(CITY.CITY_.concat(inline(",")).concat(COUNTRY.COUNTRY_).as("store"),
+                STAFF.FIRST_NAME.concat(inline(" ")).concat(STAFF.LAST_NAME).as("manager"),
+                sum(SALES_BY_STORE_SUMMARY.TOTAL_SALES).as("total_sales")).from(SALES_BY_STORE_SUMMARY).join(STORE)
+                .on(STORE.STORE_ID.eq(SALES_BY_STORE_SUMMARY.STORE_ID)).join(ADDRESS)
+                .on(ADDRESS.ADDRESS_ID.eq(STORE.ADDRESS_ID.coerce(SQLDataType.INTEGER))).join(CITY)
+                .on(CITY.CITY_ID.eq(ADDRESS.CITY_ID.coerce(SQLDataType.INTEGER))).join(COUNTRY)
+                .on(COUNTRY.COUNTRY_ID.eq(CITY.COUNTRY_ID.coerce(SQLDataType.INTEGER))).join(STAFF)
+                .on(STAFF.STAFF_ID.eq(STORE.MANAGER_STAFF_ID.coerce(SQLDataType.INTEGER)))
+                .groupBy(COUNTRY.COUNTRY_, CITY.CITY_, STORE.STORE_ID, STAFF.FIRST_NAME, STAFF.LAST_NAME)
+                .orderBy(COUNTRY.COUNTRY_, CITY.CITY_);
+    }
+
+    /**
+     * Brings the summaries up to date, in a transaction of its own unless
+     * called in one.
+     *
+     * @return the number of payment changes added, <code>-1</code> for a full
+     *         recomputation
+     */
+    public int refresh() {
+        long start = System.nanoTime();
+        int changes = QueryMetrics.tag(dsl, "reports", "refresh", QueryMetrics.NONE)
+                .select(Routines.refreshSalesSummaries()).fetchOne(0, int.class);
+        behind = false;
+        if (changes != 0)
+            logger.info("Sales summaries refreshed in {} ms, {}", (System.nanoTime() - start) / 1_000_000,
+                    changes < 0 ? "recomputed" : changes + " payment changes added");
+        return changes;
+    }
+
+    /** Refreshes the summaries if the last refresh failed */
+    void catchUp() {
+        if (behind)
+            tryRefresh();
+    }
+
+    @EventListener
+    public void onTableChanged(TableChangedEvent event) {
+        for (String table : TABLES) {
+            if (event.affects(table)) {
+                refresher.request();
+                return;
+            }
+        }
+    }
+
+    private void tryRefresh() {
+        try {
+            refresh();
+        } catch (DataAccessException e) {
+            behind = true;
+            logger.warn("Sales summaries refresh failed, retrying with the next change or report", e);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        refresher.shutdown();
+    }
+}
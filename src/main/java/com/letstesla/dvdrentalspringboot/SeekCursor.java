@@ -0,0 +1,143 @@
+package com.letstesla.dvdrentalspringboot;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.letstesla.dvdrentalspringboot.DataTableQueryParams.Order;
+
+import org.jooq.EnumType;
+import org.jooq.Field;
+import org.jooq.Record;
+import org.jooq.SortField;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Keyset (seek) pagination over the sort keys of a datatable query.
+ * <p>
+ * Collects the sort expressions of a query (the requested <code>orders</code>
+ * followed by the primary key as tie-breaker) and converts between the values
+ * of the last row of a page and the opaque <code>after</code> token handed to
+ * the client. Nullable sort keys must be coalesced by the caller, seek
+ * predicates never match <code>NULL</code>.
+ */
+public class SeekCursor {
+
+    // Convert a predefined exception to an HTTP Status code
+    @ResponseStatus(value = HttpStatus.BAD_REQUEST, // HTTP 400
+            reason = "'after' is invalid")
+    public static class InvalidCursorException extends RuntimeException {
+        private static final long serialVersionUID = -2412734377359616208L;
+    }
+
+    private static class Token {
+        @JsonProperty
+        public String shape;
+        @JsonProperty
+        public String[] values = {};
+    }
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final List<Field<?>> fields = new ArrayList<>();
+
+    private final List<SortField<?>> sortFields = new ArrayList<>();
+
+    private final StringBuilder shape = new StringBuilder();
+
+    public SeekCursor(Order[] orders) {
+        for (Order order : orders) {
+            shape.append(order.id).append(Boolean.TRUE.equals(order.desc) ? '-' : '+').append(',');
+        }
+    }
+
+    public void add(Field<?> field, boolean desc) {
+        fields.add(field);
+        sortFields.add(desc ? field.desc() : field.asc());
+    }
+
+    public List<SortField<?>> sortFields() {
+        return sortFields;
+    }
+
+    /**
+     * @return the sort expressions aliased so that {@link #next(Record)} can read
+     *         them back from the last row of the page
+     */
+    public List<Field<?>> selectFields() {
+        List<Field<?>> result = new ArrayList<>(fields.size());
+        for (int i = 0; i < fields.size(); i++) {
+            result.add(fields.get(i).as("seek_" + i));
+        }
+        return result;
+    }
+
+    /**
+     * Decodes an <code>after</code> token into the values to pass to
+     * <code>seekAfter()</code>.
+     *
+     * @throws InvalidCursorException if the token is malformed or was issued for a
+     *                                different set of orders
+     */
+    public Object[] values(String after) {
+        Token token;
+        try {
+            token = MAPPER.readValue(Base64.getUrlDecoder().decode(after), Token.class);
+        } catch (Exception e) {
+            throw new InvalidCursorException();
+        }
+
+        if (!shape.toString().equals(token.shape) || token.values.length != fields.size())
+            throw new InvalidCursorException();
+
+        Object[] values = new Object[fields.size()];
+        for (int i = 0; i < values.length; i++) {
+            try {
+                values[i] = fields.get(i).getDataType().convert(token.values[i]);
+            } catch (Exception e) {
+                throw new InvalidCursorException();
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Encodes the <code>after</code> token pointing behind the given row, which
+     * must have been selected with {@link #selectFields()}.
+     */
+    public String next(Record last) {
+        Object[] values = new Object[fields.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = last.get("seek_" + i);
+        }
+        return next(values);
+    }
+
+    /**
+     * Encodes the <code>after</code> token pointing behind the row with the
+     * given sort key values.
+     */
+    public String next(Object[] values) {
+        Token token = new Token();
+        token.shape = shape.toString();
+        token.values = new String[fields.size()];
+        for (int i = 0; i < fields.size(); i++) {
+            Object value = values[i];
+            if (value instanceof EnumType)
+                token.values[i] = ((EnumType) value).getLiteral();
+            else if (value != null)
+                token.values[i] = value.toString();
+        }
+
+        try {
+            return Base64.getUrlEncoder().withoutPadding()
+                    .encodeToString(MAPPER.writeValueAsString(token).getBytes(StandardCharsets.UTF_8));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
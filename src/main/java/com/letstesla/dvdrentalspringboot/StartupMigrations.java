@@ -0,0 +1,114 @@
+package com.letstesla.dvdrentalspringboot;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.flywaydb.core.Flyway;
+import org.flywaydb.core.api.Location;
+import org.flywaydb.core.api.MigrationVersion;
+import org.flywaydb.core.api.configuration.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.flyway.FlywayMigrationStrategy;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.core.io.support.ResourcePatternResolver;
+import org.springframework.stereotype.Component;
+
+/**
+ * Leaves Flyway out of the startup when the schema is at the newest migration
+ * already, with <code>datatable.startup.skip-current-migrations</code>.
+ * <p>
+ * <code>flyway.migrate()</code> validates the applied migrations first, which
+ * reads and checksums every script, <code>V0001__initial.sql</code> with the
+ * whole sample data included. The check here only lists the script names and
+ * reads the schema history: when its newest successful version is the newest
+ * script version, and no migration failed, there is nothing to apply. Edited
+ * scripts go unnoticed then, a start without the option (or
+ * <code>./mvnw flyway:validate -P flyway</code>) still validates them.
+ * Repeatable migrations are always left to Flyway.
+ */
+@Component
+@ConditionalOnProperty(prefix = "datatable.startup", name = "skip-current-migrations", havingValue = "true")
+public class StartupMigrations implements FlywayMigrationStrategy {
+
+    Logger logger = LoggerFactory.getLogger(StartupMigrations.class);
+
+    @Override
+    public void migrate(Flyway flyway) {
+        Configuration configuration = flyway.getConfiguration();
+        MigrationVersion newest = newestScript(configuration);
+        if (newest != null && newest.equals(newestApplied(configuration))) {
+            logger.info("Schema at version {}, migrations skipped", newest);
+            return;
+        }
+        flyway.migrate();
+    }
+
+    /**
+     * @return the newest version among the versioned SQL scripts,
+     *         <code>null</code> when there are repeatable ones, or none
+     */
+    private MigrationVersion newestScript(Configuration configuration) {
+        ResourcePatternResolver resolver = new PathMatchingResourcePatternResolver(configuration.getClassLoader());
+        String prefix = configuration.getSqlMigrationPrefix();
+        String separator = configuration.getSqlMigrationSeparator();
+        MigrationVersion newest = null;
+        try {
+            for (Location location : configuration.getLocations()) {
+                String root = (location.isClassPath() ? "classpath*:" : "file:") + location.getPath() + "/**/";
+                for (String suffix : configuration.getSqlMigrationSuffixes()) {
+                    if (resolver.getResources(root + configuration.getRepeatableSqlMigrationPrefix() + "*" + separator
+                            + "*" + suffix).length > 0)
+                        return null;
+                    for (Resource resource : resolver.getResources(root + prefix + "*" + separator + "*" + suffix)) {
+                        String name = resource.getFilename();
+                        MigrationVersion version = MigrationVersion
+                                .fromVersion(name.substring(prefix.length(), name.indexOf(separator)));
+                        if (newest == null || version.compareTo(newest) > 0)
+                            newest = version;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Listing the migrations failed, running Flyway", e);
+            return null;
+        }
+        return newest;
+    }
+
+    /**
+     * @return the newest version applied, <code>null</code> without schema
+     *         history, after a failed migration or when the history cannot be
+     *         read
+     */
+    private MigrationVersion newestApplied(Configuration configuration) {
+        String table = "\"" + configuration.getTable() + "\"";
+        if (configuration.getSchemas().length > 0)
+            table = "\"" + configuration.getSchemas()[0] + "\"." + table;
+
+        MigrationVersion newest = null;
+        try (Connection connection = configuration.getDataSource().getConnection();
+                Statement statement = connection.createStatement();
+                ResultSet rs = statement.executeQuery("select version, success from " + table
+                        + " where version is not null")) {
+            while (rs.next()) {
+                if (!rs.getBoolean(2))
+                    return null;
+                MigrationVersion version = MigrationVersion.fromVersion(rs.getString(1));
+                if (newest == null || version.compareTo(newest) > 0)
+                    newest = version;
+            }
+        } catch (SQLException e) {
+            // undefined_table, no schema history yet
+            if (!"42P01".equals(e.getSQLState()))
+                logger.warn("Reading the schema history failed, running Flyway", e);
+            return null;
+        }
+        return newest;
+    }
+}
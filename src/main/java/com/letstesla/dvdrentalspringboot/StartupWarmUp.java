@@ -0,0 +1,73 @@
+package com.letstesla.dvdrentalspringboot;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.stereotype.Component;
+
+/**
+ * Sends each datatable endpoint a request over HTTP before the application is
+ * ready, with <code>datatable.startup.warm-up</code>. Runners complete before
+ * the readiness state turns to <code>ACCEPTING_TRAFFIC</code>, by then the
+ * lazily initialized beans, the pooled connections, the rendered statements
+ * and the serializers of Jackson and jOOQ are in place for the first real
+ * request. The requests delay readiness by their time, the
+ * <code>fast-startup</code> profile leaves the warm-up out.
+ * <p>
+ * With <code>datatable.startup.exit-after-warm-up</code> the application exits
+ * right after, the training run recording the AppCDS archive of
+ * <code>-P appcds</code>.
+ */
+@Component
+@ConditionalOnProperty(prefix = "datatable.startup", name = "warm-up", havingValue = "true")
+public class StartupWarmUp implements ApplicationRunner {
+
+    /** A first page per endpoint, sorted as the datatables are at first */
+    private static final Map<String, String> REQUESTS = Map.of(
+            "/api/datatable/customers", "{\"limit\":10,\"orders\":[{\"id\":\"lastName\"}]}",
+            "/api/datatable/films", "{\"limit\":10,\"orders\":[{\"id\":\"title\"}]}",
+            "/api/datatable/rentals", "{\"limit\":10,\"orders\":[{\"id\":\"rentalDate\",\"desc\":true}]}");
+
+    private final ConfigurableApplicationContext context;
+
+    private final DataTableProperties properties;
+
+    Logger logger = LoggerFactory.getLogger(StartupWarmUp.class);
+
+    public StartupWarmUp(ConfigurableApplicationContext context, DataTableProperties properties) {
+        this.context = context;
+        this.properties = properties;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+        HttpClient client = HttpClient.newHttpClient();
+        for (Map.Entry<String, String> request : REQUESTS.entrySet()) {
+            HttpResponse<Void> response = client.send(
+                    HttpRequest.newBuilder(URI.create("http://localhost:" + port + request.getKey()))
+                            .header("Content-Type", "application/json")
+                            .POST(HttpRequest.BodyPublishers.ofString(request.getValue())).build(),
+                    HttpResponse.BodyHandlers.discarding());
+            if (response.statusCode() != 200)
+                logger.warn("Warm-up request to {} answered {}", request.getKey(), response.statusCode());
+        }
+        logger.info("Warmed up in {} ms", (System.nanoTime() - start) / 1_000_000);
+
+        if (properties.getStartup().isExitAfterWarmUp())
+            System.exit(SpringApplication.exit(context));
+    }
+}
@@ -0,0 +1,113 @@
+package com.letstesla.dvdrentalspringboot;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+/**
+ * Listens on the <code>table_change</code> channel fed by the triggers of
+ * <code>V0003__table_change_notify.sql</code> and republishes each notification
+ * as a {@link TableChangedEvent}.
+ * <p>
+ * The listener holds its own connection outside the pool, LISTEN ties up a
+ * session for as long as it runs. Notifications sent while it is disconnected
+ * are lost, so every (re)connect publishes an event for all tables.
+ * <p>
+ * The listeners run on the thread of this listener, each one delays the
+ * invalidations of the following ones and should be quick; slow work, like the
+ * refresh of the {@link FilmCatalog}, is handed to a thread of its own. An
+ * exception from a listener is logged, the following notifications are still
+ * published.
+ */
+@Component
+public class TableChangeListener implements SmartLifecycle {
+
+    private static final String CHANNEL = "table_change";
+
+    private static final int POLL_MILLIS = 1000;
+
+    private static final long RETRY_MILLIS = 5000;
+
+    private final DataSourceProperties dataSourceProperties;
+
+    private final ApplicationEventPublisher publisher;
+
+    private volatile boolean running;
+
+    private Thread thread;
+
+    Logger logger = LoggerFactory.getLogger(TableChangeListener.class);
+
+    public TableChangeListener(DataSourceProperties dataSourceProperties, ApplicationEventPublisher publisher) {
+        this.dataSourceProperties = dataSourceProperties;
+        this.publisher = publisher;
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        thread = new Thread(this::listen, "table-change-listener");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        thread.interrupt();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void listen() {
+        while (running) {
+            try (Connection connection = DriverManager.getConnection(dataSourceProperties.determineUrl(),
+                    dataSourceProperties.determineUsername(), dataSourceProperties.determinePassword());
+                    Statement statement = connection.createStatement()) {
+                statement.execute("LISTEN " + CHANNEL);
+                publish(null);
+
+                PGConnection pgConnection = connection.unwrap(PGConnection.class);
+                while (running) {
+                    PGNotification[] notifications = pgConnection.getNotifications(POLL_MILLIS);
+                    if (notifications == null)
+                        continue;
+                    for (PGNotification notification : notifications) {
+                        logger.debug("Table changed: {}", notification.getParameter());
+                        publish(notification.getParameter());
+                    }
+                }
+            } catch (SQLException e) {
+                if (!running)
+                    return;
+                logger.warn("Listening on {} failed, retrying in {} ms", CHANNEL, RETRY_MILLIS, e);
+                try {
+                    Thread.sleep(RETRY_MILLIS);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void publish(String table) {
+        try {
+            publisher.publishEvent(new TableChangedEvent(table));
+        } catch (RuntimeException e) {
+            logger.warn("Handling the change of {} failed", table == null ? "all tables" : table, e);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.letstesla.dvdrentalspringboot;
+
+/**
+ * Published by {@link TableChangeListener} after a transaction modifying a
+ * table has committed.
+ */
+public class TableChangedEvent {
+
+    private final String table;
+
+    public TableChangedEvent(String table) {
+        this.table = table;
+    }
+
+    /**
+     * @return the unqualified table name, or <code>null</code> when any table may
+     *         have changed, e.g. after the listener reconnected
+     */
+    public String getTable() {
+        return table;
+    }
+
+    public boolean affects(String table) {
+        return this.table == null || this.table.equals(table);
+    }
+}
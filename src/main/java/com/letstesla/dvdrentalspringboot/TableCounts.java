@@ -0,0 +1,216 @@
+package com.letstesla.dvdrentalspringboot;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.jooq.DSLContext;
+import org.jooq.Query;
+import org.jooq.Table;
+import org.jooq.impl.DSL;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Row counts for <code>recordsTotal</code> and <code>recordsFiltered</code>.
+ * <p>
+ * Whole table counts are kept until a {@link TableChangedEvent} reports a
+ * change to the table, or for at most <code>datatable.total-count-ttl</code>.
+ * With <code>datatable.approximate-count-threshold</code> set, counts the
+ * planner estimates at or above the threshold are not run at all, the
+ * estimate is reported instead. The rows of a table last counted below the
+ * threshold are counted without asking the planner.
+ * <p>
+ * With <code>datatable.conditional-requests</code>, a cached total is only
+ * used while the {@link TableVersions} of its table are those it was counted
+ * at: the <code>ETag</code> of a response covers the changes committed before
+ * it, including those whose {@link TableChangedEvent} is still to come.
+ */
+@Component
+public class TableCounts {
+
+    public static class Count {
+        public final int value;
+        /** <code>true</code> for a planner estimate */
+        public final boolean approximate;
+
+        Count(int value, boolean approximate) {
+            this.value = value;
+            this.approximate = approximate;
+        }
+    }
+
+    private static class Entry {
+        final Count count;
+        /** the stamp of the table read before it was counted, or {@link #UNVERSIONED} */
+        final long version;
+        final long expiresAt;
+
+        Entry(Count count, long version, long expiresAt) {
+            this.count = count;
+            this.version = version;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /** The version of a total counted without reading it, or of any total */
+    private static final long UNVERSIONED = -1;
+
+    private final DSLContext dsl;
+
+    private final DataTableProperties properties;
+
+    private final TableVersions tableVersions;
+
+    private final Map<Table<?>, Entry> counts = new ConcurrentHashMap<>();
+
+    /** The last total of each table, kept across changes */
+    private final Map<Table<?>, Integer> sizes = new ConcurrentHashMap<>();
+
+    /**
+     * Bumped on each change of a table, by name, a total counted across one is
+     * not cached
+     */
+    private final Map<String, AtomicLong> generations = new ConcurrentHashMap<>();
+
+    /** The totals counted within {@link #sharing} on the thread */
+    private final ThreadLocal<Map<Table<?>, Count>> shared = new ThreadLocal<>();
+
+    public TableCounts(DSLContext dsl, DataTableProperties properties, TableVersions tableVersions) {
+        this.dsl = dsl;
+        this.properties = properties;
+        this.tableVersions = tableVersions;
+    }
+
+    /**
+     * @param endpoint tags the statement for {@link QueryMetrics}, when the count
+     *                 is not cached
+     */
+    public Count total(String endpoint, Table<?> table) {
+        Map<Table<?>, Count> shared = this.shared.get();
+        Count count = shared != null ? shared.get(table) : null;
+        if (count == null) {
+            long version = properties.isConditionalRequests() ? tableVersions.stamp(endpoint, table.getName())
+                    : UNVERSIONED;
+            count = cached(table, version);
+            if (count == null) {
+                long generation = generation(table);
+                DSLContext dsl = QueryMetrics.tag(this.dsl, endpoint, "total-count", QueryMetrics.NONE);
+                count = shared != null ? count(dsl, table) : cache(table, generation, version, count(dsl, table));
+            }
+        }
+        if (shared != null)
+            shared.put(table, count);
+        return count;
+    }
+
+    /**
+     * Runs <code>work</code>, each table total it asks for on this thread is
+     * counted at most once, even when <code>datatable.total-count-ttl</code>
+     * would not keep it. The totals it counts are not cached, <code>work</code>
+     * may read a snapshot older than the changes processed meanwhile, see
+     * {@link DataTableCache#snapshot}.
+     */
+    public <T> T sharing(Supplier<T> work) {
+        if (shared.get() != null)
+            return work.get();
+        shared.set(new HashMap<>());
+        try {
+            return work.get();
+        } finally {
+            shared.remove();
+        }
+    }
+
+    /**
+     * @return the cached total of <code>table</code>, <code>null</code> when it
+     *         has to be counted
+     */
+    public Count cached(Table<?> table) {
+        return cached(table, UNVERSIONED);
+    }
+
+    /** @param version the stamp of <code>table</code> the total is to be counted at */
+    private Count cached(Table<?> table, long version) {
+        Entry entry = counts.get(table);
+        return entry == null || System.nanoTime() - entry.expiresAt > 0
+                || (version != UNVERSIONED && entry.version != version) ? null : entry.count;
+    }
+
+    /**
+     * @return the generation of <code>table</code>, to be passed to
+     *         {@link #cache} with a total counted after
+     */
+    public long generation(Table<?> table) {
+        return generations.computeIfAbsent(table.getName(), name -> new AtomicLong()).get();
+    }
+
+    /**
+     * Caches <code>count</code>, counted elsewhere, as the total of
+     * <code>table</code>, unless the table changed since
+     * <code>generation</code>.
+     *
+     * @return <code>count</code>
+     */
+    public Count cache(Table<?> table, long generation, Count count) {
+        return cache(table, generation, UNVERSIONED, count);
+    }
+
+    /** @param version the stamp of <code>table</code> read before counting it */
+    private Count cache(Table<?> table, long generation, long version, Count count) {
+        sizes.put(table, count.value);
+        Entry entry = new Entry(count, version, System.nanoTime() + properties.getTotalCountTtl().toNanos());
+        counts.put(table, entry);
+        // a change processed meanwhile may have missed the entry
+        if (generations.get(table.getName()).get() != generation)
+            counts.remove(table, entry);
+        return count;
+    }
+
+    private Count count(DSLContext dsl, Table<?> table) {
+        long threshold = properties.getApproximateCountThreshold();
+        if (threshold > 0) {
+            // -1 until the table is first vacuumed or analyzed
+            double reltuples = dsl.select().from("pg_catalog.pg_class")
+                    .where("oid = ?::regclass", table.getQualifiedName().toString())
+                    .fetchOne("reltuples", double.class);
+            if (reltuples >= threshold)
+                return new Count((int) Math.round(reltuples), true);
+        }
+        return new Count(dsl.fetchCount(table), false);
+    }
+
+    /**
+     * @param table the table each of <code>rows</code> is a row of, joined to
+     *              one row of the other tables at most
+     * @param rows  the rows to count, explained in the configuration it is
+     *              attached to
+     * @return the planner's row estimate for <code>rows</code> if it reaches
+     *         <code>datatable.approximate-count-threshold</code>, otherwise
+     *         <code>null</code> and the rows should be counted
+     */
+    public Count estimate(Table<?> table, Supplier<? extends Query> rows) {
+        long threshold = properties.getApproximateCountThreshold();
+        if (threshold <= 0)
+            return null;
+        // fewer rows than the table, no need to ask
+        Integer size = sizes.get(table);
+        if (size != null && size < threshold)
+            return null;
+
+        Query query = rows.get();
+        double estimate = DSL.using(query.configuration()).explain(query).rows();
+        return estimate >= threshold ? new Count((int) Math.round(estimate), true) : null;
+    }
+
+    @EventListener
+    public void onTableChanged(TableChangedEvent event) {
+        generations.forEach((table, generation) -> {
+            if (event.affects(table))
+                generation.incrementAndGet();
+        });
+        counts.keySet().removeIf(table -> event.affects(table.getName()));
+    }
+}
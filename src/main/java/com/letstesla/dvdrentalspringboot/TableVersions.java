@@ -0,0 +1,83 @@
+package com.letstesla.dvdrentalspringboot;
+
+import static com.letstesla.dvdrentalspringboot.db.tables.TableVersion.*;
+import static com.letstesla.dvdrentalspringboot.db.tables.TableVersionChange.*;
+
+import static org.jooq.impl.DSL.coalesce;
+import static org.jooq.impl.DSL.field;
+import static org.jooq.impl.DSL.select;
+import static org.jooq.impl.DSL.selectCount;
+import static org.jooq.impl.DSL.sum;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.Arrays;
+
+import com.letstesla.dvdrentalspringboot.db.Routines;
+
+import org.jooq.DSLContext;
+import org.jooq.Table;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * The change counters of <code>table_version</code>, bumped by every statement
+ * modifying one of the tables, see <code>V0005__table_versions.sql</code>.
+ * <p>
+ * The statements append their bumps to <code>table_version_change</code>
+ * rather than update <code>table_version</code>, which would serialize
+ * concurrent writers of a table, see
+ * <code>V0006__customer_balance.sql</code>. The appended rows are folded into
+ * <code>table_version</code> on a thread of their own, at most once per
+ * {@link #FOLD_DELAY}, after a {@link TableChangedEvent}, and by the writers
+ * themselves every thousandth change.
+ */
+@Component
+public class TableVersions implements DisposableBean {
+
+    /** Bumps appended meanwhile are folded together */
+    static final Duration FOLD_DELAY = Duration.ofSeconds(1);
+
+    private final DSLContext dsl;
+
+    private final BackgroundRefresh folder = new BackgroundRefresh("table-version-fold", FOLD_DELAY, this::fold);
+
+    public TableVersions(DSLContext dsl) {
+        this.dsl = dsl;
+    }
+
+    /**
+     * @param endpoint tags the statement for {@link QueryMetrics}
+     * @return a stamp of the versions of <code>tables</code>, which grows with
+     *         each committed change to any of them
+     */
+    public long stamp(String endpoint, Table<?>[] tables) {
+        return stamp(endpoint, Arrays.stream(tables).map(Table::getName).toArray(String[]::new));
+    }
+
+    /** @return the stamp of the tables named <code>names</code> */
+    long stamp(String endpoint, String... names) {
+        DSLContext dsl = QueryMetrics.tag(this.dsl, endpoint, "version", QueryMetrics.NONE);
+        // one statement, a fold moves bumps from one to the other atomically
+        return dsl.select(field(select(coalesce(sum(TABLE_VERSION.VERSION), BigDecimal.ZERO)).from(TABLE_VERSION)
+                .where(TABLE_VERSION.TABLE_NAME.in(names)))
+                .add(field(selectCount().from(TABLE_VERSION_CHANGE).where(TABLE_VERSION_CHANGE.TABLE_NAME.in(names)))))
+                .fetchOne(0, long.class);
+    }
+
+    /** Moves the appended bumps into <code>table_version</code> */
+    void fold() {
+        Routines.foldTableVersions(dsl.configuration());
+    }
+
+    @EventListener
+    public void onTableChanged(TableChangedEvent event) {
+        folder.request();
+    }
+
+    @Override
+    public void destroy() {
+        folder.shutdown();
+    }
+}
@@ -0,0 +1,40 @@
+--
+-- Trigram indexes for the datatable substring filters.
+--
+-- The filters compile to "column ILIKE '%value%'", which no btree index can
+-- serve. pg_trgm GIN indexes support LIKE/ILIKE with leading wildcards once
+-- the search value has at least three characters.
+--
+
+CREATE EXTENSION IF NOT EXISTS pg_trgm WITH SCHEMA public;
+
+-- /api/datatable/customers
+
+CREATE INDEX idx_customer_first_name_trgm ON public.customer USING gin (first_name public.gin_trgm_ops);
+
+CREATE INDEX idx_customer_last_name_trgm ON public.customer USING gin (last_name public.gin_trgm_ops);
+
+CREATE INDEX idx_address_address_trgm ON public.address USING gin (address public.gin_trgm_ops);
+
+CREATE INDEX idx_address_address2_trgm ON public.address USING gin (address2 public.gin_trgm_ops);
+
+CREATE INDEX idx_address_postal_code_trgm ON public.address USING gin (postal_code public.gin_trgm_ops);
+
+CREATE INDEX idx_address_phone_trgm ON public.address USING gin (phone public.gin_trgm_ops);
+
+CREATE INDEX idx_city_city_trgm ON public.city USING gin (city public.gin_trgm_ops);
+
+CREATE INDEX idx_country_country_trgm ON public.country USING gin (country public.gin_trgm_ops);
+
+-- /api/datatable/films
+
+CREATE INDEX idx_film_title_trgm ON public.film USING gin (title public.gin_trgm_ops);
+
+CREATE INDEX idx_category_name_trgm ON public.category USING gin (name public.gin_trgm_ops);
+
+CREATE INDEX idx_actor_first_name_trgm ON public.actor USING gin (first_name public.gin_trgm_ops);
+
+CREATE INDEX idx_actor_last_name_trgm ON public.actor USING gin (last_name public.gin_trgm_ops);
+
+-- lets a category name match drive the film_category lookup, the primary key leads with film_id
+CREATE INDEX idx_fk_film_category_category_id ON public.film_category USING btree (category_id);
@@ -0,0 +1,47 @@
+--
+-- Change notifications for in-process caches.
+--
+-- Every statement that modifies one of the tables sends its name on the
+-- "table_change" channel. The triggers are per statement rather than per row,
+-- and PostgreSQL folds identical notifications of one transaction into one, so
+-- bulk changes cost a single notification per table. Listeners only see the
+-- notification once the transaction commits.
+--
+
+CREATE FUNCTION public.notify_table_change() RETURNS trigger
+    LANGUAGE plpgsql
+    AS $$
+BEGIN
+    PERFORM pg_notify('table_change', TG_TABLE_NAME);
+    RETURN NULL;
+END $$;
+
+CREATE TRIGGER notify_table_change AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON public.actor FOR EACH STATEMENT EXECUTE FUNCTION public.notify_table_change();
+
+CREATE TRIGGER notify_table_change AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON public.address FOR EACH STATEMENT EXECUTE FUNCTION public.notify_table_change();
+
+CREATE TRIGGER notify_table_change AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON public.category FOR EACH STATEMENT EXECUTE FUNCTION public.notify_table_change();
+
+CREATE TRIGGER notify_table_change AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON public.city FOR EACH STATEMENT EXECUTE FUNCTION public.notify_table_change();
+
+CREATE TRIGGER notify_table_change AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON public.country FOR EACH STATEMENT EXECUTE FUNCTION public.notify_table_change();
+
+CREATE TRIGGER notify_table_change AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON public.customer FOR EACH STATEMENT EXECUTE FUNCTION public.notify_table_change();
+
+CREATE TRIGGER notify_table_change AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON public.film FOR EACH STATEMENT EXECUTE FUNCTION public.notify_table_change();
+
+CREATE TRIGGER notify_table_change AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON public.film_actor FOR EACH STATEMENT EXECUTE FUNCTION public.notify_table_change();
+
+CREATE TRIGGER notify_table_change AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON public.film_category FOR EACH STATEMENT EXECUTE FUNCTION public.notify_table_change();
+
+CREATE TRIGGER notify_table_change AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON public.inventory FOR EACH STATEMENT EXECUTE FUNCTION public.notify_table_change();
+
+CREATE TRIGGER notify_table_change AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON public.language FOR EACH STATEMENT EXECUTE FUNCTION public.notify_table_change();
+
+CREATE TRIGGER notify_table_change AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON public.payment FOR EACH STATEMENT EXECUTE FUNCTION public.notify_table_change();
+
+CREATE TRIGGER notify_table_change AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON public.rental FOR EACH STATEMENT EXECUTE FUNCTION public.notify_table_change();
+
+CREATE TRIGGER notify_table_change AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON public.staff FOR EACH STATEMENT EXECUTE FUNCTION public.notify_table_change();
+
+CREATE TRIGGER notify_table_change AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON public.store FOR EACH STATEMENT EXECUTE FUNCTION public.notify_table_change();
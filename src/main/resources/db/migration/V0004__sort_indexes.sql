@@ -0,0 +1,44 @@
+--
+-- Sort indexes for the datatable orders.
+--
+-- Every sortable column is ordered by an expression (lower(), coalesce() for
+-- nullable columns) followed by the primary key as tie-breaker, in the same
+-- direction. Indexing exactly those expressions lets a page be read as a
+-- forward or backward index scan that stops after LIMIT rows, instead of
+-- sorting the whole filtered set. The expressions must match the SQL jOOQ
+-- renders for the sort keys in CustomerController and FilmController.
+--
+-- Orders on a joined table cannot include the primary key of the driving
+-- table, those indexes only cover the sort key: the planner walks them through
+-- the foreign key indexes and finishes the tie-breaker with an incremental sort.
+--
+
+-- /api/datatable/customers
+
+CREATE INDEX idx_customer_first_name_sort ON public.customer (lower(first_name), customer_id);
+
+CREATE INDEX idx_customer_last_name_sort ON public.customer (lower(last_name), customer_id);
+
+CREATE INDEX idx_customer_activebool_sort ON public.customer (activebool, customer_id);
+
+CREATE INDEX idx_address_address_sort ON public.address (lower(address), lower(COALESCE(address2, '')));
+
+CREATE INDEX idx_address_postal_code_sort ON public.address (lower(COALESCE(postal_code, '')));
+
+CREATE INDEX idx_address_phone_sort ON public.address (lower(phone));
+
+CREATE INDEX idx_city_city_sort ON public.city (lower(city));
+
+CREATE INDEX idx_country_country_sort ON public.country (lower(country));
+
+-- /api/datatable/films
+
+CREATE INDEX idx_film_title_sort ON public.film (lower(title), film_id);
+
+CREATE INDEX idx_film_length_sort ON public.film (COALESCE(length, 0), film_id);
+
+CREATE INDEX idx_film_rating_sort ON public.film (COALESCE(rating, 'G'), film_id);
+
+CREATE INDEX idx_film_rental_rate_sort ON public.film (rental_rate, film_id);
+
+CREATE INDEX idx_language_name_sort ON public.language (lower(name));
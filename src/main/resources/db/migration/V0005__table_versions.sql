@@ -0,0 +1,48 @@
+--
+-- Version counters for conditional datatable requests (ETag / If-None-Match).
+--
+-- Every statement that modifies one of the tables read by the datatable
+-- endpoints increments the version of the table. The counter is updated in
+-- the modifying transaction, so a new version is visible exactly when the
+-- change is, and deletes and truncates count as well, which max(last_update)
+-- would miss. Statement-level triggers keep bulk changes at one update per
+-- table. The version row stays locked until commit, concurrent writers of one
+-- table queue on it; the tables below are rarely written.
+--
+
+CREATE TABLE public.table_version (
+    table_name text PRIMARY KEY,
+    version bigint DEFAULT 0 NOT NULL
+);
+
+INSERT INTO public.table_version (table_name) VALUES
+    ('actor'), ('address'), ('category'), ('city'), ('country'), ('customer'), ('film'), ('film_actor'),
+    ('film_category'), ('language');
+
+CREATE FUNCTION public.bump_table_version() RETURNS trigger
+    LANGUAGE plpgsql
+    AS $$
+BEGIN
+    UPDATE public.table_version SET version = version + 1 WHERE table_name = TG_TABLE_NAME;
+    RETURN NULL;
+END $$;
+
+CREATE TRIGGER bump_table_version AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON public.actor FOR EACH STATEMENT EXECUTE FUNCTION public.bump_table_version();
+
+CREATE TRIGGER bump_table_version AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON public.address FOR EACH STATEMENT EXECUTE FUNCTION public.bump_table_version();
+
+CREATE TRIGGER bump_table_version AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON public.category FOR EACH STATEMENT EXECUTE FUNCTION public.bump_table_version();
+
+CREATE TRIGGER bump_table_version AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON public.city FOR EACH STATEMENT EXECUTE FUNCTION public.bump_table_version();
+
+CREATE TRIGGER bump_table_version AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON public.country FOR EACH STATEMENT EXECUTE FUNCTION public.bump_table_version();
+
+CREATE TRIGGER bump_table_version AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON public.customer FOR EACH STATEMENT EXECUTE FUNCTION public.bump_table_version();
+
+CREATE TRIGGER bump_table_version AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON public.film FOR EACH STATEMENT EXECUTE FUNCTION public.bump_table_version();
+
+CREATE TRIGGER bump_table_version AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON public.film_actor FOR EACH STATEMENT EXECUTE FUNCTION public.bump_table_version();
+
+CREATE TRIGGER bump_table_version AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON public.film_category FOR EACH STATEMENT EXECUTE FUNCTION public.bump_table_version();
+
+CREATE TRIGGER bump_table_version AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON public.language FOR EACH STATEMENT EXECUTE FUNCTION public.bump_table_version();
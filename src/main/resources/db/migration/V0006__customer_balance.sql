@@ -0,0 +1,239 @@
+--
+-- Customer balances for the customers datatable.
+--
+-- get_customer_balance, as ported from MySQL, fails: PostgreSQL has no IF()
+-- function, and a sum of intervals does not fit its INTEGER late fees. It is
+-- replaced by the MySQL semantics: the rental rate of every rental, plus one
+-- dollar per whole day a returned rental was kept beyond the rental duration,
+-- minus the payments. Rentals not returned yet carry no late fee.
+--
+-- customer_balance keeps the balance of every customer as of the latest change
+-- to its rentals and payments. Statement-level triggers collect the customers
+-- of the modified rows from the transition tables and recompute just those
+-- with one set-based aggregation, so a bulk change costs one statement rather
+-- than one per row. New customers get their row on insert, every customer has
+-- one, and the datatable inner joins it so that the sort index can drive the
+-- balance order like those of V0004__sort_indexes.sql.
+--
+-- Two transactions changing the rows of one customer would each aggregate
+-- without the other's uncommitted rows, and the second upsert would overwrite
+-- the first. The refresh takes a transaction-level advisory lock per
+-- customer, in customer_id order, before aggregating: the second waits for
+-- the first to commit and its aggregation, a new statement, sees the rows
+-- committed meanwhile.
+--
+-- The order only holds within one statement. A transaction changing the rows
+-- of several customers over several statements locks the customers of each
+-- statement in turn, and two of them locking the same customers in opposite
+-- orders deadlock: PostgreSQL aborts one with deadlock_detected (40P01).
+-- Such writers change the rows of their customers in one statement, or go
+-- through the customers in ascending customer_id order across statements, or
+-- retry on 40P01.
+--
+-- customer_balance is written along with every rental and payment, the
+-- version row of V0005__table_versions.sql would serialize those writers.
+-- bump_table_version now appends to table_version_change instead, which
+-- takes no lock, and fold_table_versions adds the appended rows to
+-- table_version from time to time. The version of a table is its
+-- table_version row plus its unfolded changes, both read in one statement,
+-- by table_name. The application folds after the notifications of changes,
+-- and every thousandth change folds in the writing transaction, so that
+-- table_version_change stays short without an application running.
+--
+
+CREATE OR REPLACE FUNCTION public.get_customer_balance(p_customer_id integer, p_effective_date timestamp without time zone) RETURNS numeric
+    LANGUAGE plpgsql
+    AS $$
+       --#OK, WE NEED TO CALCULATE THE CURRENT BALANCE GIVEN A CUSTOMER_ID AND A DATE
+       --#THAT WE WANT THE BALANCE TO BE EFFECTIVE FOR. THE BALANCE IS:
+       --#   1) RENTAL FEES FOR ALL PREVIOUS RENTALS
+       --#   2) ONE DOLLAR FOR EVERY DAY THE PREVIOUS RENTALS ARE OVERDUE
+       --#   3) IF A FILM IS MORE THAN RENTAL_DURATION * 2 OVERDUE, CHARGE THE REPLACEMENT_COST
+       --#   4) SUBTRACT ALL PAYMENTS MADE BEFORE THE DATE SPECIFIED
+DECLARE
+    v_rentfees DECIMAL(5,2); --#FEES PAID TO RENT THE VIDEOS INITIALLY
+    v_overfees INTEGER;      --#LATE FEES FOR PRIOR RENTALS
+    v_payments DECIMAL(5,2); --#SUM OF PAYMENTS MADE PREVIOUSLY
+BEGIN
+    SELECT COALESCE(SUM(film.rental_rate),0) INTO v_rentfees
+    FROM film, inventory, rental
+    WHERE film.film_id = inventory.film_id
+      AND inventory.inventory_id = rental.inventory_id
+      AND rental.rental_date <= p_effective_date
+      AND rental.customer_id = p_customer_id;
+
+    SELECT COALESCE(SUM(GREATEST(rental.return_date::date - rental.rental_date::date - film.rental_duration, 0)),0)
+        INTO v_overfees
+    FROM rental, inventory, film
+    WHERE film.film_id = inventory.film_id
+      AND inventory.inventory_id = rental.inventory_id
+      AND rental.rental_date <= p_effective_date
+      AND rental.customer_id = p_customer_id;
+
+    SELECT COALESCE(SUM(payment.amount),0) INTO v_payments
+    FROM payment
+    WHERE payment.payment_date <= p_effective_date
+    AND payment.customer_id = p_customer_id;
+
+    RETURN v_rentfees + v_overfees - v_payments;
+END
+$$;
+
+CREATE TABLE public.customer_balance (
+    customer_id integer PRIMARY KEY REFERENCES public.customer ON UPDATE CASCADE ON DELETE CASCADE,
+    balance numeric(8,2) NOT NULL
+);
+
+CREATE INDEX idx_customer_balance_sort ON public.customer_balance (balance, customer_id);
+
+-- no statement without customers, it would bump the version of customer_balance
+CREATE FUNCTION public.refresh_customer_balance(p_customer_ids integer[]) RETURNS void
+    LANGUAGE plpgsql
+    AS $$
+BEGIN
+    IF cardinality(p_customer_ids) = 0 THEN
+        RETURN;
+    END IF;
+
+    PERFORM pg_advisory_xact_lock('public.customer_balance'::regclass::oid::integer, ids.customer_id)
+    FROM (SELECT DISTINCT unnest(p_customer_ids) AS customer_id ORDER BY customer_id) ids;
+
+    INSERT INTO public.customer_balance (customer_id, balance)
+    SELECT customer.customer_id, COALESCE(fees.amount, 0) - COALESCE(payments.amount, 0)
+    FROM public.customer
+    LEFT JOIN (
+        SELECT rental.customer_id,
+            SUM(film.rental_rate + GREATEST(rental.return_date::date - rental.rental_date::date - film.rental_duration, 0))
+                AS amount
+        FROM public.rental
+        JOIN public.inventory ON inventory.inventory_id = rental.inventory_id
+        JOIN public.film ON film.film_id = inventory.film_id
+        WHERE rental.customer_id = ANY (p_customer_ids)
+        GROUP BY rental.customer_id
+    ) fees ON fees.customer_id = customer.customer_id
+    LEFT JOIN (
+        SELECT payment.customer_id, SUM(payment.amount) AS amount
+        FROM public.payment
+        WHERE payment.customer_id = ANY (p_customer_ids)
+        GROUP BY payment.customer_id
+    ) payments ON payments.customer_id = customer.customer_id
+    WHERE customer.customer_id = ANY (p_customer_ids)
+    ON CONFLICT (customer_id) DO UPDATE SET balance = excluded.balance
+        WHERE customer_balance.balance <> excluded.balance;
+END $$;
+
+-- customer, rental and payment: the customers of the old and new rows
+CREATE FUNCTION public.refresh_customer_balance_of_rows() RETURNS trigger
+    LANGUAGE plpgsql
+    AS $$
+BEGIN
+    IF TG_OP = 'INSERT' THEN
+        PERFORM public.refresh_customer_balance(ARRAY(SELECT DISTINCT customer_id FROM new_rows));
+    ELSIF TG_OP = 'UPDATE' THEN
+        PERFORM public.refresh_customer_balance(ARRAY(
+            SELECT customer_id FROM old_rows UNION SELECT customer_id FROM new_rows));
+    ELSIF TG_OP = 'DELETE' THEN
+        PERFORM public.refresh_customer_balance(ARRAY(SELECT DISTINCT customer_id FROM old_rows));
+    ELSE
+        PERFORM public.refresh_customer_balance(ARRAY(SELECT customer_id FROM public.customer));
+    END IF;
+    RETURN NULL;
+END $$;
+
+-- film and inventory: the customers renting the films whose fees changed
+CREATE FUNCTION public.refresh_customer_balance_of_films() RETURNS trigger
+    LANGUAGE plpgsql
+    AS $$
+BEGIN
+    IF TG_TABLE_NAME = 'film' THEN
+        PERFORM public.refresh_customer_balance(ARRAY(
+            SELECT DISTINCT rental.customer_id
+            FROM old_rows
+            JOIN new_rows ON new_rows.film_id = old_rows.film_id
+            JOIN public.inventory ON inventory.film_id = new_rows.film_id
+            JOIN public.rental ON rental.inventory_id = inventory.inventory_id
+            WHERE (new_rows.rental_rate, new_rows.rental_duration)
+                IS DISTINCT FROM (old_rows.rental_rate, old_rows.rental_duration)));
+    ELSE
+        PERFORM public.refresh_customer_balance(ARRAY(
+            SELECT DISTINCT rental.customer_id
+            FROM old_rows
+            JOIN new_rows ON new_rows.inventory_id = old_rows.inventory_id
+            JOIN public.rental ON rental.inventory_id = new_rows.inventory_id
+            WHERE new_rows.film_id <> old_rows.film_id));
+    END IF;
+    RETURN NULL;
+END $$;
+
+CREATE TRIGGER refresh_customer_balance_insert AFTER INSERT ON public.customer REFERENCING NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE FUNCTION public.refresh_customer_balance_of_rows();
+
+CREATE TRIGGER refresh_customer_balance_insert AFTER INSERT ON public.rental REFERENCING NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE FUNCTION public.refresh_customer_balance_of_rows();
+
+CREATE TRIGGER refresh_customer_balance_update AFTER UPDATE ON public.rental REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE FUNCTION public.refresh_customer_balance_of_rows();
+
+CREATE TRIGGER refresh_customer_balance_delete AFTER DELETE ON public.rental REFERENCING OLD TABLE AS old_rows FOR EACH STATEMENT EXECUTE FUNCTION public.refresh_customer_balance_of_rows();
+
+CREATE TRIGGER refresh_customer_balance_truncate AFTER TRUNCATE ON public.rental FOR EACH STATEMENT EXECUTE FUNCTION public.refresh_customer_balance_of_rows();
+
+CREATE TRIGGER refresh_customer_balance_insert AFTER INSERT ON public.payment REFERENCING NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE FUNCTION public.refresh_customer_balance_of_rows();
+
+CREATE TRIGGER refresh_customer_balance_update AFTER UPDATE ON public.payment REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE FUNCTION public.refresh_customer_balance_of_rows();
+
+CREATE TRIGGER refresh_customer_balance_delete AFTER DELETE ON public.payment REFERENCING OLD TABLE AS old_rows FOR EACH STATEMENT EXECUTE FUNCTION public.refresh_customer_balance_of_rows();
+
+CREATE TRIGGER refresh_customer_balance_truncate AFTER TRUNCATE ON public.payment FOR EACH STATEMENT EXECUTE FUNCTION public.refresh_customer_balance_of_rows();
+
+CREATE TRIGGER refresh_customer_balance_update AFTER UPDATE ON public.film REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE FUNCTION public.refresh_customer_balance_of_films();
+
+CREATE TRIGGER refresh_customer_balance_update AFTER UPDATE ON public.inventory REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE FUNCTION public.refresh_customer_balance_of_films();
+
+-- change notifications and versions, see V0003 and V0005
+CREATE TABLE public.table_version_change (
+    table_name text NOT NULL
+);
+
+CREATE INDEX idx_table_version_change_table_name ON public.table_version_change (table_name);
+
+-- counts the changes, not transactional, takes no lock
+CREATE SEQUENCE public.table_version_change_seq;
+
+-- moves the changes into table_version, the sum of both stays the same; one
+-- fold at a time, a concurrent one returns, the next one folds its changes
+CREATE FUNCTION public.fold_table_versions() RETURNS void
+    LANGUAGE plpgsql
+    AS $$
+BEGIN
+    IF NOT pg_try_advisory_xact_lock('public.table_version_change'::regclass::oid::integer, 0) THEN
+        RETURN;
+    END IF;
+
+    WITH folded AS (
+        DELETE FROM public.table_version_change RETURNING table_name
+    )
+    INSERT INTO public.table_version (table_name, version)
+    SELECT table_name, count(*) FROM folded GROUP BY table_name
+    ON CONFLICT (table_name) DO UPDATE SET version = table_version.version + excluded.version;
+END $$;
+
+-- folds on every thousandth change, in read committed only: the snapshot of a
+-- repeatable read transaction may still see changes deleted by a fold since
+-- and fail to delete them
+CREATE OR REPLACE FUNCTION public.bump_table_version() RETURNS trigger
+    LANGUAGE plpgsql
+    AS $$
+BEGIN
+    INSERT INTO public.table_version_change (table_name) VALUES (TG_TABLE_NAME);
+    IF nextval('public.table_version_change_seq') % 1000 = 0
+            AND current_setting('transaction_isolation') = 'read committed' THEN
+        PERFORM public.fold_table_versions();
+    END IF;
+    RETURN NULL;
+END $$;
+
+CREATE TRIGGER notify_table_change AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON public.customer_balance FOR EACH STATEMENT EXECUTE FUNCTION public.notify_table_change();
+
+INSERT INTO public.table_version (table_name) VALUES ('customer_balance');
+
+CREATE TRIGGER bump_table_version AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON public.customer_balance FOR EACH STATEMENT EXECUTE FUNCTION public.bump_table_version();
+
+SELECT public.refresh_customer_balance(ARRAY(SELECT customer_id FROM public.customer));
@@ -0,0 +1,16 @@
+--
+-- Version counters for the stock of the films datatable, see
+-- V0005__table_versions.sql.
+--
+-- The inStockAt filter of the films datatable reads inventory and the open
+-- rentals, so changes to those tables must change the tag of its responses.
+-- The stock of the films rows is read for each response rather than tagged.
+-- rental is written with every rental and return, its bumps are appended to
+-- table_version_change, see V0006__customer_balance.sql.
+--
+
+INSERT INTO public.table_version (table_name) VALUES ('inventory'), ('rental');
+
+CREATE TRIGGER bump_table_version AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON public.inventory FOR EACH STATEMENT EXECUTE FUNCTION public.bump_table_version();
+
+CREATE TRIGGER bump_table_version AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON public.rental FOR EACH STATEMENT EXECUTE FUNCTION public.bump_table_version();
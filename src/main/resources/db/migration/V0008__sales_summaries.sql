@@ -0,0 +1,180 @@
+--
+-- Pre-aggregated sales for the /api/reports/* endpoints.
+--
+-- sales_by_film_category and sales_by_store join payment, rental, inventory,
+-- film, film_category and the store tables on every read. The summaries keep
+-- the sales per category and per store instead; the endpoints join them to the
+-- small category and store tables and group like the views, so they return the
+-- rows of the views.
+--
+-- Statement-level triggers queue the changes of payment in
+-- sales_summary_change, one row per payment added or removed, an update both.
+-- Changes a payment row cannot describe, rentals, copies or film categories
+-- changing what a payment counts for, a truncated payment, queue a recompute
+-- row. The triggers only insert, writers of payment never wait for each other
+-- or for a refresh.
+--
+-- refresh_sales_summaries() drains the queue with one statement and adds the
+-- drained rows to the summaries: a change committed after the statement began
+-- stays queued for the next refresh. With a recompute row queued, the same
+-- statement drains the queue and reads every payment, the payments and the
+-- changes removed are those of one snapshot.
+--
+
+CREATE TABLE public.sales_summary_state (
+    id boolean PRIMARY KEY DEFAULT true CHECK (id),
+    last_payment_id integer DEFAULT 0 NOT NULL,
+    last_payment_date timestamp without time zone,
+    refreshed timestamp with time zone
+);
+
+INSERT INTO public.sales_summary_state DEFAULT VALUES;
+
+CREATE TABLE public.sales_summary_change (
+    payment_id integer,
+    payment_date timestamp without time zone,
+    rental_id integer,
+    amount numeric(5,2),
+    -- 1 for a payment added, -1 for one removed
+    payments integer,
+    recompute boolean DEFAULT false NOT NULL
+);
+
+-- a recompute, the summaries start empty
+INSERT INTO public.sales_summary_change (recompute) VALUES (true);
+
+-- payments counted, a row without any is deleted as the views would not list it
+CREATE TABLE public.sales_by_category_summary (
+    category_id integer PRIMARY KEY,
+    total_sales numeric(12,2) NOT NULL,
+    payments integer NOT NULL
+);
+
+CREATE TABLE public.sales_by_store_summary (
+    store_id integer PRIMARY KEY,
+    total_sales numeric(12,2) NOT NULL,
+    payments integer NOT NULL
+);
+
+-- the number of changes added, -1 for a full recomputation
+CREATE FUNCTION public.refresh_sales_summaries() RETURNS integer
+    LANGUAGE plpgsql
+    AS $$
+DECLARE
+    v_changes integer;
+BEGIN
+    IF NOT EXISTS (SELECT FROM public.sales_summary_change) THEN
+        RETURN 0;
+    END IF;
+
+    -- one refresh at a time
+    PERFORM FROM public.sales_summary_state FOR UPDATE;
+
+    CREATE TEMPORARY TABLE sales_summary_payments (
+        payment_id integer,
+        payment_date timestamp without time zone,
+        amount numeric(5,2),
+        payments integer,
+        film_id integer,
+        store_id integer
+    ) ON COMMIT DROP;
+
+    IF EXISTS (SELECT FROM public.sales_summary_change WHERE recompute) THEN
+        WITH drained AS (
+            DELETE FROM public.sales_summary_change
+        )
+        INSERT INTO sales_summary_payments
+        SELECT p.payment_id, p.payment_date, p.amount, 1, i.film_id, i.store_id
+        FROM public.payment p
+        JOIN public.rental r ON p.rental_id = r.rental_id
+        JOIN public.inventory i ON r.inventory_id = i.inventory_id;
+        DELETE FROM public.sales_by_category_summary;
+        DELETE FROM public.sales_by_store_summary;
+        v_changes := -1;
+    ELSE
+        -- a recompute queued meanwhile stays for the next refresh
+        WITH drained AS (
+            DELETE FROM public.sales_summary_change WHERE NOT recompute
+            RETURNING payment_id, payment_date, rental_id, amount, payments
+        )
+        INSERT INTO sales_summary_payments
+        SELECT d.payment_id, d.payment_date, d.amount, d.payments, i.film_id, i.store_id
+        FROM drained d
+        JOIN public.rental r ON d.rental_id = r.rental_id
+        JOIN public.inventory i ON r.inventory_id = i.inventory_id;
+        GET DIAGNOSTICS v_changes = ROW_COUNT;
+    END IF;
+
+    INSERT INTO public.sales_by_category_summary (category_id, total_sales, payments)
+    SELECT fc.category_id, sum(p.amount), sum(p.payments)
+    FROM sales_summary_payments p
+    JOIN public.film_category fc ON p.film_id = fc.film_id
+    GROUP BY fc.category_id
+    ON CONFLICT (category_id) DO UPDATE
+        SET total_sales = sales_by_category_summary.total_sales + excluded.total_sales,
+            payments = sales_by_category_summary.payments + excluded.payments;
+    DELETE FROM public.sales_by_category_summary WHERE payments = 0;
+
+    INSERT INTO public.sales_by_store_summary (store_id, total_sales, payments)
+    SELECT p.store_id, sum(p.amount), sum(p.payments)
+    FROM sales_summary_payments p
+    GROUP BY p.store_id
+    ON CONFLICT (store_id) DO UPDATE
+        SET total_sales = sales_by_store_summary.total_sales + excluded.total_sales,
+            payments = sales_by_store_summary.payments + excluded.payments;
+    DELETE FROM public.sales_by_store_summary WHERE payments = 0;
+
+    -- the newest payment added, a removed one does not move the mark back
+    UPDATE public.sales_summary_state
+    SET last_payment_id = COALESCE(GREATEST(CASE WHEN v_changes >= 0 THEN last_payment_id END,
+            (SELECT max(payment_id) FROM sales_summary_payments WHERE payments > 0)), 0),
+        last_payment_date = GREATEST(CASE WHEN v_changes >= 0 THEN last_payment_date END,
+            (SELECT max(payment_date) FROM sales_summary_payments WHERE payments > 0)),
+        refreshed = now();
+
+    DROP TABLE sales_summary_payments;
+    RETURN v_changes;
+END $$;
+
+CREATE FUNCTION public.queue_sales_summary_payments() RETURNS trigger
+    LANGUAGE plpgsql
+    AS $$
+BEGIN
+    IF TG_OP = 'TRUNCATE' THEN
+        INSERT INTO public.sales_summary_change (recompute) VALUES (true);
+        RETURN NULL;
+    END IF;
+    IF TG_OP IN ('UPDATE', 'DELETE') THEN
+        INSERT INTO public.sales_summary_change (payment_id, payment_date, rental_id, amount, payments)
+        SELECT payment_id, payment_date, rental_id, -amount, -1 FROM old_rows;
+    END IF;
+    IF TG_OP IN ('INSERT', 'UPDATE') THEN
+        INSERT INTO public.sales_summary_change (payment_id, payment_date, rental_id, amount, payments)
+        SELECT payment_id, payment_date, rental_id, amount, 1 FROM new_rows;
+    END IF;
+    RETURN NULL;
+END $$;
+
+CREATE FUNCTION public.recompute_sales_summaries() RETURNS trigger
+    LANGUAGE plpgsql
+    AS $$
+BEGIN
+    INSERT INTO public.sales_summary_change (recompute) VALUES (true);
+    RETURN NULL;
+END $$;
+
+CREATE TRIGGER queue_sales_summary_insert AFTER INSERT ON public.payment REFERENCING NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE FUNCTION public.queue_sales_summary_payments();
+
+CREATE TRIGGER queue_sales_summary_update AFTER UPDATE ON public.payment REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE FUNCTION public.queue_sales_summary_payments();
+
+CREATE TRIGGER queue_sales_summary_delete AFTER DELETE ON public.payment REFERENCING OLD TABLE AS old_rows FOR EACH STATEMENT EXECUTE FUNCTION public.queue_sales_summary_payments();
+
+CREATE TRIGGER queue_sales_summary_truncate AFTER TRUNCATE ON public.payment FOR EACH STATEMENT EXECUTE FUNCTION public.queue_sales_summary_payments();
+
+CREATE TRIGGER recompute_sales_summaries AFTER UPDATE OF rental_id, inventory_id OR DELETE OR TRUNCATE ON public.rental FOR EACH STATEMENT EXECUTE FUNCTION public.recompute_sales_summaries();
+
+CREATE TRIGGER recompute_sales_summaries AFTER UPDATE OF inventory_id, film_id, store_id OR DELETE OR TRUNCATE ON public.inventory FOR EACH STATEMENT EXECUTE FUNCTION public.recompute_sales_summaries();
+
+CREATE TRIGGER recompute_sales_summaries AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON public.film_category FOR EACH STATEMENT EXECUTE FUNCTION public.recompute_sales_summaries();
+
+SELECT public.refresh_sales_summaries();
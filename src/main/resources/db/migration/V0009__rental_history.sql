@@ -0,0 +1,27 @@
+--
+-- Indexes and version counters for /api/datatable/rentals.
+--
+-- rental and payment grow with every rental, the history is read newest first
+-- and a page at a time: pages seek on (rental_date, rental_id), the order of
+-- the datatable with its tie-breaker, so a page is an index range scan that
+-- stops after LIMIT rows however long the history gets. A customer's history
+-- is read the same way through (customer_id, rental_date, rental_id), the
+-- history of a film through its copies.
+--
+-- rental is not partitioned by month: payment references rental(rental_id),
+-- and the primary key of a partitioned table must include the partition key.
+-- The seek indexes bound the pages the same way, without moving the key.
+--
+
+CREATE INDEX idx_rental_rental_date_sort ON public.rental (rental_date, rental_id);
+
+CREATE INDEX idx_rental_customer_id_sort ON public.rental (customer_id, rental_date, rental_id);
+
+CREATE INDEX idx_inventory_film_id ON public.inventory (film_id);
+
+-- the rows carry the amount paid, see V0005__table_versions.sql; payment is
+-- written with every rental, its bumps are appended to table_version_change,
+-- see V0006__customer_balance.sql
+INSERT INTO public.table_version (table_name) VALUES ('payment');
+
+CREATE TRIGGER bump_table_version AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON public.payment FOR EACH STATEMENT EXECUTE FUNCTION public.bump_table_version();
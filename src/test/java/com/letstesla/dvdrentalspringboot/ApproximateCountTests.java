@@ -0,0 +1,140 @@
+package com.letstesla.dvdrentalspringboot;
+
+import static com.letstesla.dvdrentalspringboot.db.tables.Customer.CUSTOMER;
+import static com.letstesla.dvdrentalspringboot.db.tables.Rental.RENTAL;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import com.letstesla.dvdrentalspringboot.DataTableQueryParams.Filter;
+import com.letstesla.dvdrentalspringboot.DataTableQueryParams.Order;
+import com.letstesla.dvdrentalspringboot.TableCounts.Count;
+
+import org.jooq.DSLContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Checks that counts at or above
+ * <code>datatable.approximate-count-threshold</code> are reported as
+ * estimates, that the rows of a small table are counted without asking the
+ * planner, and that a total counted across a change is not cached.
+ */
+@SpringBootTest
+class ApproximateCountTests {
+
+	private static final int THRESHOLD = 1000;
+
+	@Autowired
+	private DSLContext dsl;
+
+	@Autowired
+	private MeterRegistry registry;
+
+	@Autowired
+	private DataTableProperties properties;
+
+	@Autowired
+	private TableCounts tableCounts;
+
+	@Autowired
+	private CustomerController customerController;
+
+	@Autowired
+	private RentalController rentalController;
+
+	@BeforeEach
+	void estimate() {
+		// reltuples is -1 until the table is analyzed
+		dsl.execute("analyze rental");
+		dsl.execute("analyze customer");
+		tableCounts.onTableChanged(new TableChangedEvent(null));
+		properties.setApproximateCountThreshold(THRESHOLD);
+	}
+
+	@AfterEach
+	void reset() {
+		properties.setApproximateCountThreshold(0);
+		tableCounts.onTableChanged(new TableChangedEvent(null));
+	}
+
+	private static DataTableQueryParams params(String filterId, String value, String orderId) {
+		DataTableQueryParams params = new DataTableQueryParams();
+		params.limit = 10;
+		if (filterId != null) {
+			Filter filter = new Filter();
+			filter.id = filterId;
+			filter.value = value;
+			params.filters = new Filter[] { filter };
+		}
+		Order order = new Order();
+		order.id = orderId;
+		params.orders = new Order[] { order };
+		return params;
+	}
+
+	private long estimates(String endpoint, String shape) {
+		Timer timer = registry.find("datatable.query").tag("endpoint", endpoint).tag("role", "filtered-estimate")
+				.tag("shape", shape).tag("phase", "execute").timer();
+		return timer == null ? 0 : timer.count();
+	}
+
+	@Test
+	void largeCountsAreEstimated() {
+		int rentals = dsl.fetchCount(RENTAL);
+
+		DataTableResponse response = rentalController.rentals(params(null, null, "rentalDate"));
+
+		assertThat(response.recordsApproximate).isTrue();
+		assertThat(response.recordsTotal).isCloseTo(rentals, within(rentals / 10));
+		assertThat(response.recordsFiltered).isCloseTo(rentals, within(rentals / 10));
+		assertThat(response.data).hasSize(10);
+	}
+
+	@Test
+	void smallFilteredRowsAreCounted() {
+		DataTableQueryParams params = params("customer.customerId", "1", "rentalDate");
+
+		DataTableResponse response = rentalController.rentals(params);
+
+		// the total is still an estimate
+		assertThat(response.recordsApproximate).isTrue();
+		assertThat(response.recordsFiltered).isEqualTo(dsl.fetchCount(RENTAL, RENTAL.CUSTOMER_ID.eq((short) 1)));
+		assertThat(estimates("rentals", RentalController.COLUMNS.request(params).shape)).isPositive();
+	}
+
+	@Test
+	void smallTablesAreNotExplained() {
+		DataTableQueryParams params = params("lastName", "son", "lastName");
+		String shape = CustomerController.COLUMNS.request(params).shape;
+		tableCounts.total("customers", CUSTOMER);
+		long before = estimates("customers", shape);
+
+		DataTableResponse response = customerController.customers(params);
+
+		assertThat(response.recordsApproximate).isFalse();
+		assertThat(response.recordsTotal).isEqualTo(dsl.fetchCount(CUSTOMER));
+		assertThat(response.recordsFiltered)
+				.isEqualTo(dsl.fetchCount(CUSTOMER, CUSTOMER.LAST_NAME.likeIgnoreCase("%son%")));
+		assertThat(estimates("customers", shape)).isEqualTo(before);
+	}
+
+	@Test
+	void totalsCountedAcrossAChangeAreNotCached() {
+		long generation = tableCounts.generation(CUSTOMER);
+		tableCounts.onTableChanged(new TableChangedEvent("customer"));
+		tableCounts.cache(CUSTOMER, generation, new Count(1, false));
+
+		assertThat(tableCounts.cached(CUSTOMER)).isNull();
+
+		tableCounts.cache(CUSTOMER, tableCounts.generation(CUSTOMER), new Count(1, false));
+
+		assertThat(tableCounts.cached(CUSTOMER).value).isEqualTo(1);
+	}
+
+}
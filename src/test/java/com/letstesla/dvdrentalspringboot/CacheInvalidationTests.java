@@ -0,0 +1,136 @@
+package com.letstesla.dvdrentalspringboot;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.function.BooleanSupplier;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.letstesla.dvdrentalspringboot.DataTableQueryParams.Filter;
+import com.letstesla.dvdrentalspringboot.DataTableQueryParams.Order;
+
+import org.jooq.DSLContext;
+import org.jooq.Record;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.event.EventListener;
+
+/**
+ * Checks that a committed change to a table evicts the cached responses of the
+ * endpoints reading it, through the <code>table_change</code> notifications,
+ * also after a listener of an earlier notification failed, and that a rental
+ * only evicts the films filtered by stock.
+ */
+@SpringBootTest(properties = "datatable.cache.enabled=true")
+class CacheInvalidationTests {
+
+	/** Fails on the notifications of a table named <code>failing</code> */
+	@TestConfiguration
+	static class FailingListener {
+		@EventListener
+		public void onTableChanged(TableChangedEvent event) {
+			if ("failing".equals(event.getTable()))
+				throw new IllegalStateException("failing listener");
+		}
+	}
+
+	@Autowired
+	private DataTableCache cache;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Autowired
+	private CustomerController customerController;
+
+	@Autowired
+	private FilmController filmController;
+
+	@Autowired
+	private DSLContext dsl;
+
+	private static Filter filter(String id, String value) {
+		Filter filter = new Filter();
+		filter.id = id;
+		filter.value = value;
+		return filter;
+	}
+
+	private static DataTableQueryParams params(String orderId, Filter... filters) {
+		DataTableQueryParams params = new DataTableQueryParams();
+		params.limit = 10;
+		params.filters = filters;
+		Order order = new Order();
+		order.id = orderId;
+		params.orders = new Order[] { order };
+		return params;
+	}
+
+	private static DataTableQueryParams params(String firstName) {
+		return params("lastName", filter("firstName", firstName));
+	}
+
+	private static void await(BooleanSupplier condition) throws InterruptedException {
+		for (int i = 0; i < 1000 && !condition.getAsBoolean(); i++)
+			Thread.sleep(10);
+		assertThat(condition.getAsBoolean()).isTrue();
+	}
+
+	@Test
+	void evictsChangedResponses() throws InterruptedException {
+		DataTableQueryParams params = params("Evicted");
+		assertThat(customerController.customers(params).recordsFiltered).isZero();
+		long hits = cache.stats().hitCount;
+		assertThat(customerController.customers(params).recordsFiltered).isZero();
+		assertThat(cache.stats().hitCount).isEqualTo(hits + 1);
+
+		dsl.execute("select pg_notify('table_change', 'failing')");
+		try {
+			dsl.execute("update customer set first_name = 'Evicted' where customer_id = 1");
+			await(() -> customerController.customers(params).recordsFiltered == 1);
+		} finally {
+			dsl.execute("update customer set first_name = 'Mary' where customer_id = 1");
+		}
+		await(() -> customerController.customers(params).recordsFiltered == 0);
+	}
+
+	/** @return the copies in stock at store 1 of the single film of the films page */
+	private int inStock(DataTableQueryParams params) {
+		JsonNode rows = objectMapper.valueToTree(filmController.customers(params)).get("data");
+		assertThat(rows).hasSize(1);
+		for (JsonNode stock : rows.get(0).get("stock")) {
+			if (stock.get("storeId").intValue() == 1)
+				return stock.get("inStock").intValue();
+		}
+		return 0;
+	}
+
+	@Test
+	void keepsFilmsAcrossRentals() throws InterruptedException {
+		// a film with a single copy in stock at store 1
+		Record copy = dsl.fetchOne("select f.title, min(s.inventory_id) from film f, "
+				+ "film_in_stock(f.film_id, 1) s(inventory_id) group by f.film_id having count(*) = 1 limit 1");
+		DataTableQueryParams film = params("title", filter("title", copy.get(0, String.class)));
+		DataTableQueryParams inStock = params("title", filter("title", copy.get(0, String.class)),
+				filter("inStockAt", "1"));
+		assertThat(inStock(film)).isEqualTo(1);
+		assertThat(filmController.customers(inStock).recordsFiltered).isEqualTo(1);
+
+		int rentalId = dsl.fetchOne("insert into rental (rental_date, inventory_id, customer_id, staff_id) "
+				+ "values (now(), ?, 1, 1) returning rental_id", copy.get(1, Integer.class)).get(0, int.class);
+		try {
+			await(() -> filmController.customers(inStock).recordsFiltered == 0);
+			long hits = cache.stats().hitCount;
+			// still cached, with the stock read again
+			assertThat(inStock(film)).isZero();
+			assertThat(cache.stats().hitCount).isEqualTo(hits + 1);
+		} finally {
+			dsl.execute("delete from rental where rental_id = ?", rentalId);
+		}
+		await(() -> filmController.customers(inStock).recordsFiltered == 1);
+		assertThat(inStock(film)).isEqualTo(1);
+	}
+
+}
@@ -0,0 +1,119 @@
+package com.letstesla.dvdrentalspringboot;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.letstesla.dvdrentalspringboot.DataTableQueryParams.Filter;
+import com.letstesla.dvdrentalspringboot.DataTableQueryParams.Order;
+
+import org.jooq.DSLContext;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+/**
+ * Checks that with the response cache, a changed table changes the
+ * <code>ETag</code> and the body together, before the notification of the
+ * change evicts the cached response or total.
+ */
+@SpringBootTest(properties = { "datatable.conditional-requests=true", "datatable.cache.enabled=true",
+		"datatable.coalesce-requests=true" })
+class ConditionalCacheTests {
+
+	/** Holds the notifications of the customer table while {@link #held} is set */
+	@TestConfiguration
+	static class HoldingListener {
+		@EventListener
+		@org.springframework.core.annotation.Order(Ordered.HIGHEST_PRECEDENCE)
+		public void onTableChanged(TableChangedEvent event) throws InterruptedException {
+			CountDownLatch held = ConditionalCacheTests.held;
+			if (held != null && "customer".equals(event.getTable()))
+				held.await(10, TimeUnit.SECONDS);
+		}
+	}
+
+	private static volatile CountDownLatch held;
+
+	@Autowired
+	private CustomerController customerController;
+
+	@Autowired
+	private DSLContext dsl;
+
+	private static DataTableQueryParams params(String firstName) {
+		DataTableQueryParams params = new DataTableQueryParams();
+		params.limit = 10;
+		Filter filter = new Filter();
+		filter.id = "firstName";
+		filter.value = firstName;
+		params.filters = new Filter[] { filter };
+		Order order = new Order();
+		order.id = "lastName";
+		params.orders = new Order[] { order };
+		return params;
+	}
+
+	@Test
+	void tagsMatchBodies() {
+		DataTableQueryParams params = params("Tagged");
+		ResponseEntity<DataTableResponse> response = customerController.customers(params, null);
+		String eTag = response.getHeaders().getETag();
+		assertThat(response.getBody().recordsFiltered).isZero();
+		// cached
+		assertThat(customerController.customers(params, null).getHeaders().getETag()).isEqualTo(eTag);
+		assertThat(customerController.customers(params, eTag).getStatusCode()).isEqualTo(HttpStatus.NOT_MODIFIED);
+
+		held = new CountDownLatch(1);
+		try {
+			dsl.execute("update customer set first_name = 'Tagged' where customer_id = 1");
+			// the cached response is not evicted yet
+			response = customerController.customers(params, eTag);
+			assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+			assertThat(response.getHeaders().getETag()).isNotEqualTo(eTag);
+			assertThat(response.getBody().recordsFiltered).isEqualTo(1);
+		} finally {
+			held.countDown();
+			held = null;
+			dsl.execute("update customer set first_name = 'Mary' where customer_id = 1");
+		}
+		response = customerController.customers(params, null);
+		assertThat(response.getBody().recordsFiltered).isZero();
+	}
+
+	@Test
+	void tagsMatchTotals() {
+		DataTableQueryParams params = params("Counted");
+		int total = customerController.customers(params, null).getBody().recordsTotal;
+
+		held = new CountDownLatch(1);
+		int customerId = 0;
+		try {
+			customerId = dsl.fetchOne("insert into customer (store_id, first_name, last_name, address_id) "
+					+ "values (1, 'Counted', 'Total', 1) returning customer_id").get(0, int.class);
+			// the cached total is not evicted yet
+			ResponseEntity<DataTableResponse> response = customerController.customers(params, null);
+			assertThat(response.getBody().recordsTotal).isEqualTo(total + 1);
+			assertThat(response.getBody().recordsFiltered).isEqualTo(1);
+		} finally {
+			held.countDown();
+			held = null;
+			dsl.execute("delete from customer where customer_id = ?", customerId);
+		}
+	}
+
+	@Test
+	void tagsDigestRequests() {
+		String eTag = customerController.customers(params("Mary"), null).getHeaders().getETag();
+
+		assertThat(eTag).matches("W/\"[0-9a-f]+-[0-9a-f]{32}\"");
+		assertThat(customerController.customers(params("Marx"), null).getHeaders().getETag()).isNotEqualTo(eTag);
+	}
+
+}
@@ -0,0 +1,183 @@
+package com.letstesla.dvdrentalspringboot;
+
+import static com.letstesla.dvdrentalspringboot.db.tables.City.*;
+import static com.letstesla.dvdrentalspringboot.db.tables.Country.*;
+import static com.letstesla.dvdrentalspringboot.db.tables.Payment.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.letstesla.dvdrentalspringboot.DataTableQueryParams.Order;
+
+import org.jooq.DSLContext;
+import org.jooq.Table;
+import org.jooq.impl.DSL;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Checks that a datatable request with the <code>ETag</code> of its response
+ * is answered <code>304 Not Modified</code> without running its statements,
+ * until one of the endpoint's tables changes, that folding the appended
+ * version bumps, by the application or the writers, keeps the tags, and that
+ * concurrent writers of a table do not wait for each other's bumps.
+ */
+@SpringBootTest(properties = "datatable.conditional-requests=true")
+class ConditionalRequestTests {
+
+	private static final Table<?>[] TABLES = { COUNTRY, CITY };
+
+	@Autowired
+	private MeterRegistry registry;
+
+	@Autowired
+	private CustomerController customerController;
+
+	@Autowired
+	private FilmController filmController;
+
+	@Autowired
+	private TableVersions tableVersions;
+
+	@Autowired
+	private DSLContext dsl;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	private static DataTableQueryParams params(int fetchId, String orderId) {
+		Order order = new Order();
+		order.id = orderId;
+		DataTableQueryParams params = new DataTableQueryParams();
+		params.fetchId = fetchId;
+		params.orders = new Order[] { order };
+		return params;
+	}
+
+	private long pages(String endpoint, String shape) {
+		Timer timer = registry.find("datatable.query").tag("endpoint", endpoint).tag("role", "page")
+				.tag("shape", shape).tag("phase", "execute").timer();
+		return timer == null ? 0 : timer.count();
+	}
+
+	@Test
+	void notModifiedUntilChanged() {
+		ResponseEntity<DataTableResponse> response = customerController.customers(params(1, "lastName"), null);
+		String eTag = response.getHeaders().getETag();
+		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+		assertThat(eTag).startsWith("W/\"");
+
+		// any fetchId, the tag weak or not, among others
+		String shape = CustomerController.COLUMNS.request(params(2, "lastName")).shape;
+		long pages = pages("customers", shape);
+		response = customerController.customers(params(2, "lastName"), "\"other\", " + eTag.substring(2));
+		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NOT_MODIFIED);
+		assertThat(response.getBody()).isNull();
+		assertThat(pages("customers", shape)).isEqualTo(pages);
+
+		// another request, another tag
+		assertThat(customerController.customers(params(1, "firstName"), eTag).getStatusCode())
+				.isEqualTo(HttpStatus.OK);
+		// unrelated tables, same tag
+		dsl.execute("update film set title = title where film_id = 1");
+		assertThat(customerController.customers(params(1, "lastName"), eTag).getStatusCode())
+				.isEqualTo(HttpStatus.NOT_MODIFIED);
+
+		dsl.execute("update country set country = country where country_id = 1");
+		response = customerController.customers(params(1, "lastName"), eTag);
+		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+		assertThat(response.getHeaders().getETag()).isNotEqualTo(eTag);
+	}
+
+	@Test
+	void filmsCarryTags() {
+		String eTag = filmController.customers(params(1, "title"), null).getHeaders().getETag();
+		assertThat(filmController.customers(params(1, "title"), eTag).getStatusCode())
+				.isEqualTo(HttpStatus.NOT_MODIFIED);
+		dsl.execute("delete from film_actor where false");
+		assertThat(filmController.customers(params(1, "title"), eTag).getStatusCode()).isEqualTo(HttpStatus.OK);
+	}
+
+	@Test
+	void foldsKeepVersions() {
+		long stamp = tableVersions.stamp("test", TABLES);
+		dsl.execute("update country set country = country where country_id = 1");
+		dsl.execute("update city set city = city where city_id = 1");
+		assertThat(tableVersions.stamp("test", TABLES)).isEqualTo(stamp + 2);
+
+		String eTag = customerController.customers(params(1, "lastName"), null).getHeaders().getETag();
+		tableVersions.fold();
+
+		assertThat(dsl.fetchCount(DSL.table("table_version_change"))).isZero();
+		assertThat(tableVersions.stamp("test", TABLES)).isEqualTo(stamp + 2);
+		assertThat(customerController.customers(params(1, "lastName"), eTag).getStatusCode())
+				.isEqualTo(HttpStatus.NOT_MODIFIED);
+	}
+
+	@Test
+	void writersFold() {
+		long stamp = tableVersions.stamp("test", TABLES);
+		// the next change is the thousandth
+		dsl.execute("select setval('table_version_change_seq', 999)");
+		dsl.execute("update country set country = country where country_id = 1");
+
+		assertThat(dsl.fetchCount(DSL.table("table_version_change"))).isZero();
+		assertThat(tableVersions.stamp("test", TABLES)).isEqualTo(stamp + 1);
+	}
+
+	private void pay(int customerId, int rentalId) {
+		dsl.insertInto(PAYMENT, PAYMENT.CUSTOMER_ID, PAYMENT.STAFF_ID, PAYMENT.RENTAL_ID, PAYMENT.AMOUNT,
+				PAYMENT.PAYMENT_DATE).values((short) customerId, (short) 1, rentalId, new BigDecimal("2.99"),
+						LocalDateTime.of(2007, 5, 16, 10, 0)).execute();
+	}
+
+	@Test
+	void paymentsDoNotQueue() throws Exception {
+		TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+		CountDownLatch paid = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(1);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Future<?> first = executor.submit(() -> transaction.executeWithoutResult(status -> {
+				pay(1, 76);
+				paid.countDown();
+				try {
+					done.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				status.setRollbackOnly();
+			}));
+			assertThat(paid.await(10, TimeUnit.SECONDS)).isTrue();
+
+			// fails on a lock held by the first
+			transaction.executeWithoutResult(status -> {
+				dsl.execute("set local lock_timeout = '2s'");
+				pay(2, 320);
+				status.setRollbackOnly();
+			});
+
+			done.countDown();
+			first.get(10, TimeUnit.SECONDS);
+		} finally {
+			done.countDown();
+			executor.shutdown();
+		}
+	}
+
+}
@@ -0,0 +1,85 @@
+package com.letstesla.dvdrentalspringboot;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.function.Function;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.letstesla.dvdrentalspringboot.DataTableProperties.CountMode;
+import com.letstesla.dvdrentalspringboot.DataTableQueryParams.Filter;
+import com.letstesla.dvdrentalspringboot.DataTableQueryParams.Order;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+/**
+ * Checks that <code>count(*) over ()</code> counts the filtered rows as the
+ * separate count statement does, also for an offset past the last row, where
+ * the empty page carries no count.
+ */
+@SpringBootTest
+class CountModeTests {
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Autowired
+	private DataTableProperties properties;
+
+	@Autowired
+	private CustomerController customerController;
+
+	@Autowired
+	private FilmController filmController;
+
+	@AfterEach
+	void reset() {
+		properties.setCountMode(CountMode.SEPARATE);
+	}
+
+	private static DataTableQueryParams params(int offset, String filterId, String value, String orderId) {
+		DataTableQueryParams params = new DataTableQueryParams();
+		params.limit = 10;
+		params.offset = offset;
+		if (filterId != null) {
+			Filter filter = new Filter();
+			filter.id = filterId;
+			filter.value = value;
+			params.filters = new Filter[] { filter };
+		}
+		Order order = new Order();
+		order.id = orderId;
+		params.orders = new Order[] { order };
+		return params;
+	}
+
+	private void assertSameCounts(Function<DataTableQueryParams, DataTableResponse> endpoint,
+			DataTableQueryParams params) {
+		properties.setCountMode(CountMode.SEPARATE);
+		DataTableResponse separate = endpoint.apply(params);
+		properties.setCountMode(CountMode.WINDOW);
+		DataTableResponse window = endpoint.apply(params);
+
+		assertThat(window.recordsFiltered).isEqualTo(separate.recordsFiltered);
+		assertThat(window.recordsTotal).isEqualTo(separate.recordsTotal);
+		assertThat(objectMapper.valueToTree(window.data).toString())
+				.isEqualTo(objectMapper.valueToTree(separate.data).toString());
+	}
+
+	@ParameterizedTest
+	@CsvSource({ "0, , ", "0, lastName, son", "20, lastName, son", "10000, lastName, son", "0, lastName, zzz",
+			"10000, , " })
+	void customerCountsMatch(int offset, String filterId, String value) {
+		assertSameCounts(customerController::customers, params(offset, filterId, value, "lastName"));
+	}
+
+	@ParameterizedTest
+	@CsvSource({ "0, , ", "0, title, love", "10000, title, love", "0, title, zzz", "10000, , " })
+	void filmCountsMatch(int offset, String filterId, String value) {
+		assertSameCounts(filmController::customers, params(offset, filterId, value, "title"));
+	}
+
+}
@@ -0,0 +1,127 @@
+package com.letstesla.dvdrentalspringboot;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.jooq.impl.DSL.inline;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.letstesla.dvdrentalspringboot.DataTableQueryParams.Filter;
+import com.letstesla.dvdrentalspringboot.DataTableQueryParams.Order;
+
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.impl.SQLDataType;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+/**
+ * Checks the CSV exports: the header, one line per row, the quoting of values
+ * with separators, quotes and line breaks, joined arrays and empty
+ * <code>NULL</code>s.
+ */
+@SpringBootTest
+class CsvExportTests {
+
+	@Autowired
+	private DataTableExport export;
+
+	@Autowired
+	private FilmController filmController;
+
+	@Autowired
+	private DSLContext dsl;
+
+	private static String body(ResponseEntity<StreamingResponseBody> response) {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			response.getBody().writeTo(out);
+			return out.toString("UTF-8");
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/** @return the records of <code>csv</code>, each a list of its values */
+	private static List<List<String>> parse(String csv) {
+		List<List<String>> records = new ArrayList<>();
+		List<String> record = new ArrayList<>();
+		StringBuilder value = new StringBuilder();
+		boolean quoted = false;
+		for (int i = 0; i < csv.length(); i++) {
+			char c = csv.charAt(i);
+			if (quoted) {
+				if (c != '"')
+					value.append(c);
+				else if (i + 1 < csv.length() && csv.charAt(i + 1) == '"')
+					value.append(csv.charAt(++i));
+				else
+					quoted = false;
+			} else if (c == '"') {
+				quoted = true;
+			} else if (c == ',') {
+				record.add(value.toString());
+				value.setLength(0);
+			} else if (c == '\r' && csv.charAt(i + 1) == '\n') {
+				i++;
+				record.add(value.toString());
+				value.setLength(0);
+				records.add(record);
+				record = new ArrayList<>();
+			} else {
+				value.append(c);
+			}
+		}
+		assertThat(value).as("after the last line break").isEmpty();
+		return records;
+	}
+
+	@Test
+	void quotesValues() {
+		Field<?>[] columns = { inline("a,b").as("separator"), inline("say \"hi\"").as("quote"),
+				inline("two\r\nlines").as("line break"), inline(null, SQLDataType.VARCHAR).as("null"),
+				inline(new String[] { "x", "y" }).as("array"), inline("plain").as("plain") };
+		ResponseEntity<StreamingResponseBody> response = export.csv("test", tx -> tx.select(columns), columns);
+
+		assertThat(response.getHeaders().getContentType())
+				.isEqualTo(MediaType.parseMediaType("text/csv;charset=UTF-8"));
+		String csv = body(response);
+		assertThat(csv).isEqualTo("separator,quote,line break,null,array,plain\r\n"
+				+ "\"a,b\",\"say \"\"hi\"\"\",\"two\r\nlines\",,\"x,y\",plain\r\n");
+		assertThat(parse(csv)).containsExactly(List.of("separator", "quote", "line break", "null", "array", "plain"),
+				List.of("a,b", "say \"hi\"", "two\r\nlines", "", "x,y", "plain"));
+	}
+
+	@Test
+	void exportsFilms() {
+		DataTableQueryParams params = new DataTableQueryParams();
+		Filter filter = new Filter();
+		filter.id = "title";
+		filter.value = "love";
+		params.filters = new Filter[] { filter };
+		Order order = new Order();
+		order.id = "title";
+		params.orders = new Order[] { order };
+
+		List<List<String>> records = parse(body(filmController.exportFilms(params, "csv")));
+		assertThat(records.get(0)).containsExactly("film_id", "title", "description", "release_year",
+				"rental_duration", "rental_rate", "length", "replacement_cost", "rating", "special_features",
+				"last_update", "language", "categories", "actors");
+		List<Integer> filmIds = dsl.fetch("select film_id from film where title ilike '%love%' order by lower(title)")
+				.getValues(0, Integer.class);
+		assertThat(records).hasSize(filmIds.size() + 1).allSatisfy(record -> assertThat(record).hasSize(14));
+
+		List<String> first = records.get(1);
+		assertThat(first.get(0)).isEqualTo(filmIds.get(0).toString());
+		// the special features array joined, quoted for its separators
+		assertThat(first.get(9)).isEqualTo(String.join(",", dsl
+				.fetchOne("select special_features from film where film_id = ?", filmIds.get(0))
+				.get(0, String[].class)));
+	}
+
+}
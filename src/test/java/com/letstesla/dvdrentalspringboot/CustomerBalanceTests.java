@@ -0,0 +1,145 @@
+package com.letstesla.dvdrentalspringboot;
+
+import static com.letstesla.dvdrentalspringboot.db.tables.Customer.*;
+import static com.letstesla.dvdrentalspringboot.db.tables.CustomerBalance.*;
+import static com.letstesla.dvdrentalspringboot.db.tables.Film.*;
+import static com.letstesla.dvdrentalspringboot.db.tables.Payment.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.letstesla.dvdrentalspringboot.DataTableQueryParams.Order;
+import com.letstesla.dvdrentalspringboot.db.Routines;
+
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.impl.DSL;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Checks the <code>balance</code> column of the customers datatable against
+ * <code>get_customer_balance</code>, before and after changes to the rows it
+ * is computed from, also by concurrent transactions.
+ */
+@SpringBootTest
+class CustomerBalanceTests {
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Autowired
+	private CustomerController customerController;
+
+	@Autowired
+	private DSLContext dsl;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	/** @return <code>get_customer_balance</code> of every customer, now */
+	private Map<Integer, BigDecimal> expected() {
+		Field<BigDecimal> balance = Routines.getCustomerBalance(CUSTOMER.CUSTOMER_ID, DSL.val(LocalDateTime.now()));
+		return dsl.select(CUSTOMER.CUSTOMER_ID, balance).from(CUSTOMER).fetchMap(CUSTOMER.CUSTOMER_ID, balance);
+	}
+
+	private void assertMaintained() {
+		Map<Integer, BigDecimal> expected = expected();
+		Map<Integer, BigDecimal> actual = dsl.select(CUSTOMER_BALANCE.CUSTOMER_ID, CUSTOMER_BALANCE.BALANCE)
+				.from(CUSTOMER_BALANCE).fetchMap(CUSTOMER_BALANCE.CUSTOMER_ID, CUSTOMER_BALANCE.BALANCE);
+		assertThat(actual).hasSameSizeAs(expected);
+		expected.forEach(
+				(id, balance) -> assertThat(actual.get(id)).as("customer %d", id).isEqualByComparingTo(balance));
+	}
+
+	@Test
+	void listsBalancesInOrder() throws Exception {
+		Order order = new Order();
+		order.id = "balance";
+		order.desc = true;
+		DataTableQueryParams params = new DataTableQueryParams();
+		params.limit = 1000;
+		params.orders = new Order[] { order };
+
+		JsonNode data = objectMapper.valueToTree(customerController.customers(params)).get("data");
+
+		Map<Integer, BigDecimal> expected = expected();
+		assertThat(data).hasSameSizeAs(expected.values());
+		List<BigDecimal> balances = new ArrayList<>();
+		for (JsonNode row : data) {
+			BigDecimal balance = row.get("balance").decimalValue();
+			assertThat(balance).isEqualByComparingTo(expected.get(row.get("customerId").intValue()));
+			balances.add(balance);
+		}
+		assertThat(balances).isSortedAccordingTo((a, b) -> b.compareTo(a));
+	}
+
+	@Test
+	@Transactional
+	void followsChanges() {
+		dsl.insertInto(PAYMENT, PAYMENT.CUSTOMER_ID, PAYMENT.STAFF_ID, PAYMENT.RENTAL_ID, PAYMENT.AMOUNT,
+				PAYMENT.PAYMENT_DATE).values((short) 1, (short) 1, 76, new BigDecimal("1.50"),
+						LocalDateTime.of(2007, 5, 1, 0, 0)).execute();
+		dsl.update(PAYMENT).set(PAYMENT.CUSTOMER_ID, (short) 2).where(PAYMENT.PAYMENT_ID.eq(
+				dsl.select(DSL.min(PAYMENT.PAYMENT_ID)).from(PAYMENT).where(PAYMENT.CUSTOMER_ID.eq((short) 3))))
+				.execute();
+		dsl.update(FILM).set(FILM.RENTAL_DURATION, (short) 1).where(FILM.FILM_ID.le(20)).execute();
+		assertMaintained();
+	}
+
+	private void pay(short customerId, LocalDateTime date) {
+		dsl.insertInto(PAYMENT, PAYMENT.CUSTOMER_ID, PAYMENT.STAFF_ID, PAYMENT.RENTAL_ID, PAYMENT.AMOUNT,
+				PAYMENT.PAYMENT_DATE).values(customerId, (short) 1, 76, new BigDecimal("0.75"), date).execute();
+	}
+
+	@Test
+	void followsConcurrentChanges() throws Exception {
+		LocalDateTime date = LocalDateTime.of(2007, 5, 2, 0, 0);
+		TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+		CountDownLatch paid = new CountDownLatch(1);
+		CountDownLatch commit = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			Future<?> first = executor.submit(() -> transaction.executeWithoutResult(status -> {
+				pay((short) 1, date);
+				paid.countDown();
+				try {
+					commit.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}));
+			assertThat(paid.await(10, TimeUnit.SECONDS)).isTrue();
+			Future<?> second = executor.submit(() -> transaction.executeWithoutResult(status -> pay((short) 1, date)));
+			// the second waits for the first to commit
+			for (int i = 0; i < 1000 && dsl.fetchCount(DSL.table("pg_locks"), DSL.field("granted").isFalse()) == 0; i++)
+				Thread.sleep(10);
+			commit.countDown();
+			first.get(10, TimeUnit.SECONDS);
+			second.get(10, TimeUnit.SECONDS);
+
+			assertMaintained();
+		} finally {
+			commit.countDown();
+			executor.shutdown();
+			dsl.deleteFrom(PAYMENT).where(PAYMENT.PAYMENT_DATE.eq(date)).execute();
+		}
+	}
+
+}
@@ -0,0 +1,159 @@
+package com.letstesla.dvdrentalspringboot;
+
+import static com.letstesla.dvdrentalspringboot.db.tables.Film.FILM;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.time.Duration;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.letstesla.dvdrentalspringboot.DataTableBatchController.Query;
+import com.letstesla.dvdrentalspringboot.DataTableQueryParams.Filter;
+import com.letstesla.dvdrentalspringboot.DataTableQueryParams.Order;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Checks that a batch answers each request as its endpoint does, counting
+ * each table total and running each distinct request once, without caching
+ * what it read from its snapshot.
+ */
+@SpringBootTest
+class DataTableBatchTests {
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Autowired
+	private MeterRegistry registry;
+
+	@Autowired
+	private DataTableProperties properties;
+
+	@Autowired
+	private TableCounts tableCounts;
+
+	@Autowired
+	private DataTableCache cache;
+
+	@Autowired
+	private DataTableBatchController batchController;
+
+	@Autowired
+	private CustomerController customerController;
+
+	@Autowired
+	private FilmController filmController;
+
+	@Autowired
+	private RentalController rentalController;
+
+	@AfterEach
+	void reset() {
+		properties.setTotalCountTtl(Duration.ofMinutes(1));
+		properties.setBatchMaxQueries(20);
+		properties.getCache().setEnabled(false);
+	}
+
+	private static Query query(String endpoint, int fetchId, String filterId, String value, String orderId) {
+		Query query = new Query();
+		query.endpoint = endpoint;
+		query.params.fetchId = fetchId;
+		if (filterId != null) {
+			Filter filter = new Filter();
+			filter.id = filterId;
+			filter.value = value;
+			query.params.filters = new Filter[] { filter };
+		}
+		Order order = new Order();
+		order.id = orderId;
+		query.params.orders = new Order[] { order };
+		return query;
+	}
+
+	private long count(String endpoint, String role, String shape) {
+		Timer timer = registry.find("datatable.query").tag("endpoint", endpoint).tag("role", role)
+				.tag("shape", shape).tag("phase", "execute").timer();
+		return timer == null ? 0 : timer.count();
+	}
+
+	@Test
+	void answersAsEachEndpoint() throws Exception {
+		Query[] queries = { query("customers", 1, "lastName", "son", "lastName"), query("films", 2, null, null, "title"),
+				query("films", 3, "categories.category", "act", "length"), query("films", 4, null, null, "title"),
+				query("rentals", 5, "customer.customerId", "1", "rentalDate") };
+
+		DataTableResponse[] responses = batchController.batch(queries);
+
+		assertThat(responses).hasSize(queries.length);
+		assertThat(objectMapper.writeValueAsString(responses[0]))
+				.isEqualTo(objectMapper.writeValueAsString(customerController.customers(queries[0].params)));
+		for (int i = 1; i < queries.length - 1; i++) {
+			assertThat(responses[i].fetchId).isEqualTo(queries[i].params.fetchId);
+			assertThat(objectMapper.writeValueAsString(responses[i]))
+					.isEqualTo(objectMapper.writeValueAsString(filmController.customers(queries[i].params)));
+		}
+		assertThat(objectMapper.writeValueAsString(responses[4]))
+				.isEqualTo(objectMapper.writeValueAsString(rentalController.rentals(queries[4].params)));
+	}
+
+	@Test
+	void sharesWork() {
+		// totals are never kept across requests
+		properties.setTotalCountTtl(Duration.ZERO);
+		tableCounts.onTableChanged(new TableChangedEvent(null));
+		Query[] queries = { query("films", 1, "title", "love", "title"), query("films", 2, "title", "love", "title"),
+				query("films", 3, "rating", "r", "title") };
+		String shape = FilmController.COLUMNS.request(queries[0].params).shape;
+		long totals = count("films", "total-count", QueryMetrics.NONE);
+		long pages = count("films", "page", shape);
+
+		batchController.batch(queries);
+
+		assertThat(count("films", "total-count", QueryMetrics.NONE)).isEqualTo(totals + 1);
+		assertThat(count("films", "page", shape)).isEqualTo(pages + 1);
+	}
+
+	@Test
+	void keepsSnapshotsOutOfCaches() throws Exception {
+		properties.getCache().setEnabled(true);
+		tableCounts.onTableChanged(new TableChangedEvent(null));
+		Query[] queries = { query("films", 1, "title", "snapshot", "title"),
+				query("customers", 2, "lastName", "snapshot", "lastName") };
+		long size = cache.stats().size;
+
+		DataTableResponse[] responses = batchController.batch(queries);
+
+		assertThat(tableCounts.cached(FILM)).isNull();
+		assertThat(cache.stats().size).isEqualTo(size);
+		// a single request caches what it read
+		assertThat(objectMapper.writeValueAsString(filmController.customers(queries[0].params)))
+				.isEqualTo(objectMapper.writeValueAsString(responses[0]));
+		assertThat(tableCounts.cached(FILM)).isNotNull();
+		assertThat(cache.stats().size).isEqualTo(size + 1);
+	}
+
+	@Test
+	void rejectsUnknownEndpoints() {
+		assertThatThrownBy(() -> batchController.batch(new Query[] { query("payments", 1, null, null, "title") }))
+				.isInstanceOf(DataTableBatchController.UnsupportedEndpointException.class);
+	}
+
+	@Test
+	void rejectsLargeBatches() {
+		properties.setBatchMaxQueries(2);
+		Query[] queries = { query("films", 1, null, null, "title"), query("films", 2, null, null, "title"),
+				query("films", 3, null, null, "title") };
+
+		assertThatThrownBy(() -> batchController.batch(queries))
+				.isInstanceOf(DataTableBatchController.BatchSizeException.class);
+		assertThat(batchController.batch(new Query[] { queries[0], queries[1] })).hasSize(2);
+	}
+
+}
@@ -0,0 +1,225 @@
+package com.letstesla.dvdrentalspringboot;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.web.server.LocalServerPort;
+
+/**
+ * Drives the datatable endpoints with a mix of filters, orders and deep
+ * offsets from <code>loadtest.threads</code> closed-loop clients, and reports
+ * throughput and latency percentiles per scenario.
+ * <p>
+ * Runs against the database the app is configured with, seeded by Flyway from
+ * <code>V0001__initial.sql</code>, only with the <code>loadtest</code> profile:
+ * <code>./mvnw test -P loadtest</code>. Any <code>datatable.*</code> property
+ * can be passed as <code>-D</code> to compare settings, e.g. the R2DBC
+ * endpoints: <code>-Ddatatable.reactive.enabled=true
+ * -Dloadtest.path-prefix=/api/reactive</code>. The response cache is off
+ * whatever is passed: the scenarios repeat their requests, the run would
+ * mostly measure cache hits.
+ */
+@Tag("loadtest")
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT, properties = "datatable.cache.enabled=false")
+class DataTableLoadTests {
+
+	/** A request body chosen per call, from the client's own seeded random */
+	private static class Scenario {
+		final String name;
+		final String path;
+		final Function<Random, String> body;
+
+		Scenario(String name, String path, Function<Random, String> body) {
+			this.name = name;
+			this.path = path;
+			this.body = body;
+		}
+	}
+
+	/** Latencies in nanoseconds of one scenario on one client */
+	private static class Samples {
+		long[] latencies = new long[1024];
+		int size;
+		int errors;
+
+		void add(long latency) {
+			if (size == latencies.length)
+				latencies = Arrays.copyOf(latencies, size * 2);
+			latencies[size++] = latency;
+		}
+	}
+
+	private static final List<Scenario> SCENARIOS = List.of(
+			new Scenario("customers, deep offset by last name", "/datatable/customers",
+					random -> "{\"limit\":10,\"offset\":" + random.nextInt(590)
+							+ ",\"orders\":[{\"id\":\"lastName\"}]}"),
+			new Scenario("customers, last name filter by first name desc", "/datatable/customers",
+					random -> "{\"limit\":10,\"filters\":[{\"id\":\"lastName\",\"value\":\""
+							+ new String[] { "son", "ma", "er", "lee" }[random.nextInt(4)]
+							+ "\"}],\"orders\":[{\"id\":\"firstName\",\"desc\":true}]}"),
+			new Scenario("customers, city filter by country", "/datatable/customers",
+					random -> "{\"limit\":25,\"filters\":[{\"id\":\"address.city.city\",\"value\":\""
+							+ new String[] { "lon", "san", "ar" }[random.nextInt(3)]
+							+ "\"}],\"orders\":[{\"id\":\"address.city.country.country\"}]}"),
+			new Scenario("customers, active and phone by active desc, country", "/datatable/customers",
+					random -> "{\"limit\":10,\"offset\":" + random.nextInt(50)
+							+ ",\"filters\":[{\"id\":\"activebool\",\"value\":\"1\"},"
+							+ "{\"id\":\"address.phone\",\"value\":\"" + (10 + random.nextInt(90)) + "\"}],"
+							+ "\"orders\":[{\"id\":\"activebool\",\"desc\":true},"
+							+ "{\"id\":\"address.city.country.country\"}]}"),
+			new Scenario("films, deep offset by title", "/datatable/films",
+					random -> "{\"limit\":10,\"offset\":" + random.nextInt(990)
+							+ ",\"orders\":[{\"id\":\"title\"}]}"),
+			new Scenario("films, title and actor filters by length desc, language", "/datatable/films",
+					random -> "{\"limit\":10,\"filters\":[{\"id\":\"title\",\"value\":\"a\"},"
+							+ "{\"id\":\"actors.fullName\",\"value\":\""
+							+ new String[] { "e", "nick", "ann" }[random.nextInt(3)] + "\"}],"
+							+ "\"orders\":[{\"id\":\"length\",\"desc\":true},{\"id\":\"language.name\"}]}"),
+			new Scenario("films, full text by relevance", "/datatable/films",
+					random -> "{\"limit\":10,\"filters\":[{\"id\":\"q\",\"value\":\""
+							+ new String[] { "drama robot", "epic", "boring astronaut" }[random.nextInt(3)]
+							+ "\"}],\"orders\":[{\"id\":\"q\",\"desc\":true}]}"),
+			new Scenario("films, category filter by rating desc", "/datatable/films",
+					random -> "{\"limit\":10,\"offset\":" + random.nextInt(50)
+							+ ",\"filters\":[{\"id\":\"categories.category\",\"value\":\"act\"}],"
+							+ "\"orders\":[{\"id\":\"rating\",\"desc\":true}]}"),
+			new Scenario("films, deep offset by rental rate desc", "/datatable/films",
+					random -> "{\"limit\":50,\"offset\":" + (800 + random.nextInt(150))
+							+ ",\"orders\":[{\"id\":\"rentalRate\",\"desc\":true}]}"));
+
+	@LocalServerPort
+	private int port;
+
+	@Value("${loadtest.threads:8}")
+	private int threads;
+
+	@Value("${loadtest.warmup:5s}")
+	private Duration warmup;
+
+	@Value("${loadtest.duration:30s}")
+	private Duration duration;
+
+	@Value("${loadtest.seed:42}")
+	private long seed;
+
+	@Value("${loadtest.path-prefix:/api}")
+	private String pathPrefix;
+
+	private final HttpClient client = HttpClient.newHttpClient();
+
+	Logger logger = LoggerFactory.getLogger(DataTableLoadTests.class);
+
+	private Samples[] run(int clientId, Duration length, boolean record) throws Exception {
+		Samples[] samples = new Samples[SCENARIOS.size()];
+		Arrays.setAll(samples, i -> new Samples());
+		Random random = new Random(seed + clientId);
+		long end = System.nanoTime() + length.toNanos();
+		while (System.nanoTime() < end) {
+			int index = random.nextInt(SCENARIOS.size());
+			Scenario scenario = SCENARIOS.get(index);
+			URI uri = URI.create("http://localhost:" + port + pathPrefix + scenario.path);
+			HttpRequest request = HttpRequest.newBuilder(uri).header("Content-Type", "application/json")
+					.POST(HttpRequest.BodyPublishers.ofString(scenario.body.apply(random))).build();
+
+			long start = System.nanoTime();
+			HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+			long latency = System.nanoTime() - start;
+			if (!record)
+				continue;
+			if (response.statusCode() != 200)
+				samples[index].errors++;
+			else
+				samples[index].add(latency);
+		}
+		return samples;
+	}
+
+	private List<Samples[]> runAll(Duration length, boolean record) throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<Samples[]>> futures = new ArrayList<>();
+			for (int i = 0; i < threads; i++) {
+				final int clientId = i;
+				futures.add(pool.submit(() -> run(clientId, length, record)));
+			}
+			List<Samples[]> results = new ArrayList<>();
+			for (Future<Samples[]> future : futures) {
+				results.add(future.get());
+			}
+			return results;
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	private static double percentile(long[] sorted, double p) {
+		if (sorted.length == 0)
+			return Double.NaN;
+		int index = (int) Math.ceil(p * sorted.length) - 1;
+		return sorted[Math.max(index, 0)] / 1e6;
+	}
+
+	private static String line(String name, long[] latencies, int errors, double seconds) {
+		Arrays.sort(latencies);
+		return String.format("%-58s %8d %6d %9.1f %8.2f %8.2f %8.2f", name, latencies.length, errors,
+				latencies.length / seconds, percentile(latencies, 0.50), percentile(latencies, 0.99),
+				percentile(latencies, 0.999));
+	}
+
+	@Test
+	void datatables() throws Exception {
+		runAll(warmup, false);
+
+		long start = System.nanoTime();
+		List<Samples[]> results = runAll(duration, true);
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		StringBuilder report = new StringBuilder(String.format("%n%d clients, %.1f s%n%-58s %8s %6s %9s %8s %8s %8s%n",
+				threads, seconds, "scenario", "requests", "errors", "req/s", "p50 ms", "p99 ms", "p999 ms"));
+		long[] all = {};
+		int errors = 0;
+		for (int i = 0; i < SCENARIOS.size(); i++) {
+			long[] latencies = {};
+			int scenarioErrors = 0;
+			for (Samples[] samples : results) {
+				int from = latencies.length;
+				latencies = Arrays.copyOf(latencies, from + samples[i].size);
+				System.arraycopy(samples[i].latencies, 0, latencies, from, samples[i].size);
+				scenarioErrors += samples[i].errors;
+			}
+			int from = all.length;
+			all = Arrays.copyOf(all, from + latencies.length);
+			System.arraycopy(latencies, 0, all, from, latencies.length);
+			errors += scenarioErrors;
+			report.append(line(SCENARIOS.get(i).name, latencies, scenarioErrors, seconds)).append('\n');
+		}
+		report.append(line("all", all, errors, seconds)).append('\n');
+		report.append(String.format("peak threads %d", ManagementFactory.getThreadMXBean().getPeakThreadCount()));
+		logger.info("{}", report);
+
+		assertThat(errors).isZero();
+		assertThat(all).isNotEmpty();
+	}
+
+}
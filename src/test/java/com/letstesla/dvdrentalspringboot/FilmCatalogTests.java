@@ -0,0 +1,194 @@
+package com.letstesla.dvdrentalspringboot;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.sql.SQLException;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.letstesla.dvdrentalspringboot.DataTableProperties.FilmSource;
+import com.letstesla.dvdrentalspringboot.DataTableQueryParams.Filter;
+import com.letstesla.dvdrentalspringboot.DataTableQueryParams.Order;
+
+import org.jooq.DSLContext;
+import org.jooq.tools.jdbc.MockConnection;
+import org.jooq.tools.jdbc.MockDataProvider;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Checks that the films pages of the {@link FilmCatalog} are the SQL pages:
+ * the same rows in the same order, counts and <code>next</code> cursors, and
+ * that it answers no request behind the changes to its tables or without its
+ * database.
+ */
+@SpringBootTest
+class FilmCatalogTests {
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Autowired
+	private DataTableProperties properties;
+
+	@Autowired
+	private FilmController filmController;
+
+	@Autowired
+	private FilmCatalog catalog;
+
+	@Autowired
+	private DSLContext dsl;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Autowired
+	private TableVersions tableVersions;
+
+	@AfterEach
+	void reset() {
+		properties.setFilmSource(FilmSource.DATABASE);
+		properties.setConditionalRequests(false);
+	}
+
+	/**
+	 * @param filters filter id and value pairs
+	 * @param orders  order ids, prefixed with <code>-</code> for descending
+	 */
+	private static DataTableQueryParams params(int limit, int offset, String[] filters, String... orders) {
+		DataTableQueryParams params = new DataTableQueryParams();
+		params.limit = limit;
+		params.offset = offset;
+		params.filters = new Filter[filters.length / 2];
+		for (int i = 0; i < params.filters.length; i++) {
+			params.filters[i] = new Filter();
+			params.filters[i].id = filters[2 * i];
+			params.filters[i].value = filters[2 * i + 1];
+		}
+		params.orders = new Order[orders.length];
+		for (int i = 0; i < orders.length; i++) {
+			params.orders[i] = new Order();
+			params.orders[i].id = orders[i].replace("-", "");
+			params.orders[i].desc = orders[i].startsWith("-");
+		}
+		return params;
+	}
+
+	private static String[] filters(String... filters) {
+		return filters;
+	}
+
+	private String json(DataTableQueryParams params, FilmSource source) throws Exception {
+		properties.setFilmSource(source);
+		return objectMapper.writeValueAsString(filmController.customers(params));
+	}
+
+	/** Compares a page and the next one, with either source */
+	private void assertSamePages(DataTableQueryParams params) throws Exception {
+		String expected = json(params, FilmSource.DATABASE);
+		assertThat(json(params, FilmSource.CATALOG)).isEqualTo(expected);
+
+		params.after = objectMapper.readTree(expected).path("next").textValue();
+		if (params.after != null)
+			assertThat(json(params, FilmSource.CATALOG)).isEqualTo(json(params, FilmSource.DATABASE));
+	}
+
+	@Test
+	void pagesMatch() throws Exception {
+		for (DataTableQueryParams params : new DataTableQueryParams[] { params(10, 0, filters(), "title"),
+				params(10, 0, filters()), params(25, 990, filters(), "-title"),
+				params(10, 0, filters(), "length", "-rentalRate"), params(10, 30, filters(), "-rating", "title"),
+				params(10, 0, filters(), "language.name", "-length"), params(10, 0, filters(), "unknown", "-length"),
+				params(10, 0, filters("title", "LOVE"), "title"), params(10, 0, filters("length", "8"), "-length"),
+				params(10, 0, filters("rating", "pg-"), "rating"), params(10, 0, filters("rentalRate", ".9"), "title"),
+				params(10, 0, filters("language.name", "h "), "title"),
+				params(10, 0, filters("categories.category", "act", "actors.fullName", "nick"), "-rentalRate"),
+				params(10, 0, filters("actors.fullName", "son", "title", "a"), "rating", "-length"),
+				params(10, 0, filters("title", "%_\\"), "title"), params(10, 0, filters("q", "drama robot"), "-q"),
+				params(10, 0, filters("q", "drama", "rating", "r"), "length", "-q"),
+				params(10, 0, filters("inStockAt", "2", "title", "a"), "-length"),
+				params(10, 0, filters(), "q", "title") }) {
+			assertSamePages(params);
+		}
+	}
+
+	/** Reports a change of <code>film</code>, then waits for the catalog to refresh */
+	private void filmChanged() throws InterruptedException {
+		catalog.onTableChanged(new TableChangedEvent("film"));
+		for (int i = 0; i < 500 && !catalog.isCurrent(); i++)
+			Thread.sleep(10);
+		assertThat(catalog.isCurrent()).isTrue();
+	}
+
+	@Test
+	void refreshesChangedFilms() throws Exception {
+		DataTableQueryParams params = params(10, 0, filters("title", "catalog refresh"), "title");
+		assertThat(json(params, FilmSource.CATALOG)).contains("\"recordsFiltered\":0");
+		try {
+			dsl.execute("update film set title = title || ' catalog refresh' where film_id = 1");
+			catalog.onTableChanged(new TableChangedEvent("film"));
+			// by SQL until refreshed
+			assertThat(json(params, FilmSource.CATALOG)).contains("\"recordsFiltered\":1");
+			filmChanged();
+			assertThat(json(params, FilmSource.CATALOG)).contains("\"recordsFiltered\":1")
+					.isEqualTo(json(params, FilmSource.DATABASE));
+		} finally {
+			dsl.execute("update film set title = replace(title, ' catalog refresh', '') where film_id = 1");
+			filmChanged();
+		}
+		assertThat(json(params, FilmSource.CATALOG)).contains("\"recordsFiltered\":0");
+	}
+
+	@Test
+	void leavesFailedLoadsToSql() throws Exception {
+		MockDataProvider down = context -> {
+			throw new SQLException("connection lost", "08006");
+		};
+		DSLContext failing = dsl.configuration().derive(new MockConnection(down)).dsl();
+		FilmCatalog catalog = new FilmCatalog(failing, transactionManager, tableVersions, properties);
+		try {
+			assertThat(catalog.page(FilmController.COLUMNS.request(params(10, 0, filters(), "title")))).isNull();
+		} finally {
+			catalog.destroy();
+		}
+	}
+
+	@Test
+	void refreshesLongTransactions() throws Exception {
+		DataTableQueryParams params = params(10, 0, filters("title", "long transaction"), "title");
+		assertThat(json(params, FilmSource.CATALOG)).contains("\"recordsFiltered\":0");
+		try {
+			// as written by a transaction started long before, committed after the last refresh
+			new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+				// without the trigger setting last_update to now()
+				dsl.execute("set local session_replication_role = replica");
+				dsl.execute("update film set title = title || ' long transaction', "
+						+ "last_update = now() - interval '1 day' where film_id = 2");
+			});
+			filmChanged();
+			assertThat(json(params, FilmSource.CATALOG)).contains("\"recordsFiltered\":1");
+		} finally {
+			dsl.execute("update film set title = replace(title, ' long transaction', '') where film_id = 2");
+			filmChanged();
+		}
+	}
+
+	@Test
+	void awaitsVersions() throws Exception {
+		properties.setConditionalRequests(true);
+		DataTableColumns.Request request = FilmController.COLUMNS.request(params(10, 0, filters(), "title"));
+		filmChanged();
+		assertThat(catalog.page(request)).isNotNull();
+
+		// a change committed, its notification still to come
+		dsl.execute("insert into table_version_change (table_name) values ('film')");
+		assertThat(catalog.page(request)).isNull();
+		filmChanged();
+		assertThat(catalog.page(request)).isNotNull();
+	}
+
+}
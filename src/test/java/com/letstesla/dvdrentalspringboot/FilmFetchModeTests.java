@@ -0,0 +1,76 @@
+package com.letstesla.dvdrentalspringboot;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.letstesla.dvdrentalspringboot.DataTableProperties.FetchMode;
+import com.letstesla.dvdrentalspringboot.DataTableProperties.RowSerialization;
+import com.letstesla.dvdrentalspringboot.DataTableQueryParams.Filter;
+import com.letstesla.dvdrentalspringboot.DataTableQueryParams.Order;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+/**
+ * Checks that films pages fetched with their <code>json_agg</code> subqueries
+ * are byte for byte the JSON of the pages fetched with the separate
+ * categories, actors and stock queries.
+ */
+@SpringBootTest
+class FilmFetchModeTests {
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Autowired
+	private DataTableProperties properties;
+
+	@Autowired
+	private FilmController filmController;
+
+	@AfterEach
+	void reset() {
+		properties.setFilmFetchMode(FetchMode.SEPARATE);
+		properties.setRowSerialization(RowSerialization.POJO);
+	}
+
+	private static DataTableQueryParams params(int limit, String filterId, String value, String orderId) {
+		DataTableQueryParams params = new DataTableQueryParams();
+		params.limit = limit;
+		if (filterId != null) {
+			Filter filter = new Filter();
+			filter.id = filterId;
+			filter.value = value;
+			params.filters = new Filter[] { filter };
+		}
+		Order order = new Order();
+		order.id = orderId;
+		params.orders = new Order[] { order };
+		return params;
+	}
+
+	private String json(DataTableQueryParams params, FetchMode fetchMode) throws Exception {
+		properties.setFilmFetchMode(fetchMode);
+		return objectMapper.writeValueAsString(filmController.customers(params));
+	}
+
+	@ParameterizedTest
+	@CsvSource({ "1000, , , title, POJO", "1000, , , title, STREAMING", "10, title, love, length, POJO",
+			"10, q, drama robot, q, STREAMING", "10, title, zzz, title, POJO" })
+	void pagesMatch(int limit, String filterId, String value, String orderId, RowSerialization serialization)
+			throws Exception {
+		properties.setRowSerialization(serialization);
+		DataTableQueryParams params = params(limit, filterId, value, orderId);
+		String separate = json(params, FetchMode.SEPARATE);
+		assertThat(json(params, FetchMode.AGGREGATED)).isEqualTo(separate);
+
+		// the seek page after the first
+		params.after = objectMapper.readTree(separate).path("next").textValue();
+		if (params.after != null)
+			assertThat(json(params, FetchMode.AGGREGATED)).isEqualTo(json(params, FetchMode.SEPARATE));
+	}
+
+}
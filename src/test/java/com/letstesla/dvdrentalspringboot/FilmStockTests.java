@@ -0,0 +1,106 @@
+package com.letstesla.dvdrentalspringboot;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.letstesla.dvdrentalspringboot.DataTableProperties.FetchMode;
+import com.letstesla.dvdrentalspringboot.DataTableQueryParams.Filter;
+import com.letstesla.dvdrentalspringboot.DataTableQueryParams.Order;
+
+import org.jooq.DSLContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+/**
+ * Checks the <code>stock</code> of the films rows and the
+ * <code>inStockAt</code> filter against <code>film_in_stock</code>, which
+ * tells the copies in stock one film and store at a time.
+ */
+@SpringBootTest
+class FilmStockTests {
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Autowired
+	private DataTableProperties properties;
+
+	@Autowired
+	private FilmController filmController;
+
+	@Autowired
+	private DSLContext dsl;
+
+	@AfterEach
+	void reset() {
+		properties.setFilmFetchMode(FetchMode.SEPARATE);
+	}
+
+	private static DataTableQueryParams params(int limit, String inStockAt) {
+		DataTableQueryParams params = new DataTableQueryParams();
+		params.limit = limit;
+		if (inStockAt != null) {
+			Filter filter = new Filter();
+			filter.id = "inStockAt";
+			filter.value = inStockAt;
+			params.filters = new Filter[] { filter };
+		}
+		Order order = new Order();
+		order.id = "title";
+		params.orders = new Order[] { order };
+		return params;
+	}
+
+	private JsonNode data(DataTableQueryParams params) {
+		return objectMapper.valueToTree(filmController.customers(params)).get("data");
+	}
+
+	private int count(String sql, Object... bindings) {
+		return dsl.fetchOne(sql, bindings).get(0, int.class);
+	}
+
+	@Test
+	void matchesFilmInStock() {
+		for (FetchMode mode : FetchMode.values()) {
+			properties.setFilmFetchMode(mode);
+			for (JsonNode row : data(params(50, null))) {
+				int filmId = row.get("filmId").intValue();
+				List<Integer> stores = new ArrayList<>();
+				for (JsonNode stock : row.get("stock")) {
+					int storeId = stock.get("storeId").intValue();
+					stores.add(storeId);
+					assertThat(stock.get("copies").intValue()).as("film %d store %d", filmId, storeId).isEqualTo(
+							count("select count(*) from inventory where film_id = ? and store_id = ?", filmId, storeId));
+					assertThat(stock.get("inStock").intValue()).as("film %d store %d", filmId, storeId)
+							.isEqualTo(count("select count(*) from film_in_stock(?, ?)", filmId, storeId));
+				}
+				assertThat(stores).isSorted().hasSize(
+						count("select count(distinct store_id) from inventory where film_id = ?", filmId));
+			}
+		}
+	}
+
+	@Test
+	void filtersInStockAt() {
+		for (String store : new String[] { "1", "2" }) {
+			List<Integer> filmIds = new ArrayList<>();
+			for (JsonNode row : data(params(1000, store))) {
+				filmIds.add(row.get("filmId").intValue());
+			}
+			assertThat(filmIds).hasSize(count("select count(*) from film f "
+					+ "where exists (select from film_in_stock(f.film_id, ?::int))", Integer.valueOf(store)));
+			for (int filmId : filmIds) {
+				assertThat(count("select count(*) from film_in_stock(?, ?::int)", filmId, Integer.valueOf(store)))
+						.isPositive();
+			}
+		}
+		assertThat(data(params(10, "any"))).isEmpty();
+	}
+
+}
@@ -0,0 +1,96 @@
+package com.letstesla.dvdrentalspringboot;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+
+import com.letstesla.dvdrentalspringboot.DataTableQueryParams.Filter;
+
+import org.jooq.Condition;
+import org.jooq.DSLContext;
+import org.jooq.Table;
+import org.jooq.impl.DSL;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+/**
+ * Checks the EXPLAIN plans of the datatable filters, so that a predicate the
+ * trigram or full-text indexes cannot serve does not slip in unnoticed.
+ */
+@SpringBootTest
+class FilterIndexUsageTests {
+
+	@Autowired
+	private DSLContext dsl;
+
+	@Autowired
+	private CustomerController customerController;
+
+	@Autowired
+	private FilmController filmController;
+
+	@Autowired
+	private RentalController rentalController;
+
+	private static Filter[] filter(String id, String value) {
+		Filter filter = new Filter();
+		filter.id = id;
+		filter.value = value;
+		return new Filter[] { filter };
+	}
+
+	private String plan(Table<?> from, List<Condition> conditions) {
+		return dsl.transactionResult(configuration -> {
+			DSLContext tx = DSL.using(configuration);
+			// the sample data is small enough for sequential scans to win, leave the planner only
+			// bitmap index scans so the plan shows whether an index is usable at all
+			tx.execute("set local enable_seqscan = off");
+			tx.execute("set local enable_indexscan = off");
+			return tx.explain(tx.selectCount().from(from).where(conditions)).plan();
+		});
+	}
+
+	@ParameterizedTest
+	@CsvSource({ "firstName, mar, idx_customer_first_name_trgm", //
+			"lastName, son, idx_customer_last_name_trgm", //
+			"address.address, lane, idx_address_address_trgm idx_address_address2_trgm", //
+			"address.city.city, lon, idx_city_city_trgm", //
+			"address.postalCode, 123, idx_address_postal_code_trgm", //
+			"address.city.country.country, land, idx_country_country_trgm", //
+			"address.phone, 555, idx_address_phone_trgm" })
+	void customerFiltersUseTrigramIndexes(String id, String value, String indexes) {
+		String plan = plan(CustomerController.FROM, customerController.conditions(filter(id, value)));
+		for (String index : indexes.split(" ")) {
+			assertThat(plan).contains(index);
+		}
+	}
+
+	@ParameterizedTest
+	@CsvSource({ "title, love, idx_film_title_trgm", //
+			"categories.category, act, idx_category_name_trgm idx_fk_film_category_category_id", //
+			"actors.fullName, nick, idx_actor_first_name_trgm idx_actor_last_name_trgm film_actor_pkey", //
+			"q, drama robot, film_fulltext_idx", //
+			"inStockAt, 1, idx_store_id_film_id idx_fk_inventory_id" })
+	void filmFiltersUseIndexes(String id, String value, String indexes) {
+		String plan = plan(FilmController.FROM, filmController.conditions(filter(id, value)));
+		for (String index : indexes.split(" ")) {
+			assertThat(plan).contains(index);
+		}
+	}
+
+	@ParameterizedTest
+	@CsvSource({ "rentalDate, 2005-06, idx_rental_rental_date_sort", //
+			"customer.customerId, 1, idx_rental_customer_id_sort", //
+			"customer.fullName, son, idx_customer_first_name_trgm idx_customer_last_name_trgm idx_rental_customer_id_sort", //
+			"inventory.film.filmId, 1, idx_inventory_film_id idx_fk_inventory_id", //
+			"inventory.film.title, love, idx_film_title_trgm idx_inventory_film_id idx_fk_inventory_id" })
+	void rentalFiltersUseIndexes(String id, String value, String indexes) {
+		String plan = plan(RentalController.FROM, rentalController.conditions(filter(id, value)));
+		for (String index : indexes.split(" ")) {
+			assertThat(plan).contains(index);
+		}
+	}
+
+}
@@ -0,0 +1,132 @@
+package com.letstesla.dvdrentalspringboot;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Supplier;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.letstesla.dvdrentalspringboot.DataTableProperties.Execution;
+import com.letstesla.dvdrentalspringboot.DataTableQueryParams.Filter;
+import com.letstesla.dvdrentalspringboot.DataTableQueryParams.Order;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+/**
+ * Checks <code>datatable.execution=parallel</code>: the same responses as
+ * sequential execution, and the permits of a {@link QueryExecutor} of its own,
+ * which are released on failure and fall back to the calling thread when
+ * taken.
+ */
+@SpringBootTest
+class QueryExecutorTests {
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Autowired
+	private DataTableProperties properties;
+
+	@Autowired
+	private CustomerController customerController;
+
+	@Autowired
+	private FilmController filmController;
+
+	private final List<QueryExecutor> executors = new ArrayList<>();
+
+	@AfterEach
+	void reset() {
+		properties.setExecution(Execution.SEQUENTIAL);
+		executors.forEach(QueryExecutor::destroy);
+	}
+
+	/** @return a parallel executor of two permits */
+	private QueryExecutor executor() {
+		DataTableProperties properties = new DataTableProperties();
+		properties.setExecution(Execution.PARALLEL);
+		properties.setParallelism(2);
+		QueryExecutor executor = new QueryExecutor(properties);
+		executors.add(executor);
+		return executor;
+	}
+
+	private static DataTableQueryParams params(String filterId, String value, String orderId) {
+		DataTableQueryParams params = new DataTableQueryParams();
+		params.limit = 10;
+		Filter filter = new Filter();
+		filter.id = filterId;
+		filter.value = value;
+		params.filters = new Filter[] { filter };
+		Order order = new Order();
+		order.id = orderId;
+		params.orders = new Order[] { order };
+		return params;
+	}
+
+	private String[] both(Supplier<DataTableResponse> response) throws Exception {
+		properties.setExecution(Execution.SEQUENTIAL);
+		String sequential = objectMapper.writeValueAsString(response.get());
+		properties.setExecution(Execution.PARALLEL);
+		return new String[] { sequential, objectMapper.writeValueAsString(response.get()) };
+	}
+
+	@Test
+	void responsesMatchSequential() throws Exception {
+		String[] json = both(() -> customerController.customers(params("lastName", "son", "lastName")));
+		assertThat(json[1]).isEqualTo(json[0]);
+
+		// categories, actors and stock of the page as well
+		json = both(() -> filmController.customers(params("title", "love", "title")));
+		assertThat(json[1]).isEqualTo(json[0]).contains("\"actors\":[{");
+	}
+
+	/**
+	 * Takes both permits with blocked statements, the statement submitted then
+	 * runs on the calling thread
+	 */
+	private static void assertBothPermitsFree(QueryExecutor executor) {
+		CountDownLatch release = new CountDownLatch(1);
+		Supplier<String> blocked = () -> {
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return Thread.currentThread().getName();
+		};
+		CompletableFuture<String> first = executor.submit(blocked);
+		CompletableFuture<String> second = executor.submit(blocked);
+
+		CompletableFuture<String> third = executor.submit(() -> Thread.currentThread().getName());
+		assertThat(third).isCompletedWithValue(Thread.currentThread().getName());
+
+		release.countDown();
+		assertThat(QueryExecutor.join(first)).startsWith("datatable-query-");
+		assertThat(QueryExecutor.join(second)).startsWith("datatable-query-");
+	}
+
+	@Test
+	void fallsBackToCallerThread() {
+		assertBothPermitsFree(executor());
+	}
+
+	@Test
+	void releasesPermitsOnFailure() {
+		QueryExecutor executor = executor();
+		for (int i = 0; i < 3; i++)
+			assertThatThrownBy(() -> QueryExecutor.join(executor.submit(() -> {
+				throw new IllegalStateException("failed");
+			}))).isInstanceOf(IllegalStateException.class).hasMessage("failed");
+
+		assertBothPermitsFree(executor);
+	}
+
+}
@@ -0,0 +1,99 @@
+package com.letstesla.dvdrentalspringboot;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.letstesla.dvdrentalspringboot.DataTableQueryParams.Filter;
+import com.letstesla.dvdrentalspringboot.DataTableQueryParams.Order;
+
+import org.jooq.DSLContext;
+import org.jooq.ExecuteListenerProvider;
+import org.jooq.impl.DSL;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Checks that the statements of a datatable request are timed under their
+ * endpoint, role and shape, and that the number of shapes is bounded.
+ */
+@SpringBootTest
+class QueryMetricsTests {
+
+	@Autowired
+	private MeterRegistry registry;
+
+	@Autowired
+	private DSLContext dsl;
+
+	@Autowired
+	private CustomerController customerController;
+
+	@Autowired
+	private FilmController filmController;
+
+	private static DataTableQueryParams params(String filterId, String value, String orderId) {
+		Filter filter = new Filter();
+		filter.id = filterId;
+		filter.value = value;
+		Order order = new Order();
+		order.id = orderId;
+		DataTableQueryParams params = new DataTableQueryParams();
+		params.filters = new Filter[] { filter };
+		params.orders = new Order[] { order };
+		return params;
+	}
+
+	private long count(String endpoint, String role, String shape, String phase) {
+		Timer timer = registry.find("datatable.query").tag("endpoint", endpoint).tag("role", role)
+				.tag("shape", shape).tag("phase", phase).timer();
+		return timer == null ? 0 : timer.count();
+	}
+
+	@Test
+	void customerStatementsAreTagged() {
+		DataTableQueryParams params = params("lastName", "son", "firstName");
+		String shape = CustomerController.COLUMNS.request(params).shape;
+
+		customerController.customers(params);
+
+		for (String phase : new String[] { "render", "prepare", "execute", "fetch" }) {
+			assertThat(count("customers", "page", shape, phase)).as(phase).isPositive();
+			assertThat(count("customers", "filtered-count", shape, phase)).as(phase).isPositive();
+		}
+	}
+
+	@Test
+	void filmStatementsAreTagged() {
+		DataTableQueryParams params = params("title", "love", "title");
+		String shape = FilmController.COLUMNS.request(params).shape;
+
+		filmController.customers(params);
+
+		assertThat(count("films", "page", shape, "execute")).isPositive();
+		assertThat(count("films", "filtered-count", shape, "execute")).isPositive();
+		assertThat(count("films", "categories", QueryMetrics.NONE, "execute")).isPositive();
+		assertThat(count("films", "actors", QueryMetrics.NONE, "execute")).isPositive();
+	}
+
+	@Test
+	void shapesAreBounded() {
+		DataTableProperties properties = new DataTableProperties();
+		properties.setMetricsMaxShapes(2);
+		MeterRegistry registry = new SimpleMeterRegistry();
+		ExecuteListenerProvider metrics = new QueryMetrics(registry, properties);
+		DSLContext dsl = DSL.using(this.dsl.configuration().derive(metrics));
+
+		for (String shape : new String[] { "a", "b", "c", "a" })
+			QueryMetrics.tag(dsl, "customers", "page", shape).selectOne().fetch();
+
+		assertThat(registry.find("datatable.query").timers()).extracting(timer -> timer.getId().getTag("shape"))
+				.containsOnly("a", "b");
+		assertThat(registry.find("datatable.query").tag("shape", "a").tag("phase", "execute").timer().count())
+				.isEqualTo(2);
+	}
+
+}
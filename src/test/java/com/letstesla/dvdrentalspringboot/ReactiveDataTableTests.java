@@ -0,0 +1,87 @@
+package com.letstesla.dvdrentalspringboot;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.letstesla.dvdrentalspringboot.DataTableQueryParams.Filter;
+import com.letstesla.dvdrentalspringboot.DataTableQueryParams.Order;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+/**
+ * Checks that the R2DBC endpoints answer exactly as the JDBC ones, for offset
+ * and seek pages, enum and relevance sort keys, and <code>null</code> bind
+ * values.
+ */
+@SpringBootTest(properties = "datatable.reactive.enabled=true")
+class ReactiveDataTableTests {
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Autowired
+	private CustomerController customerController;
+
+	@Autowired
+	private FilmController filmController;
+
+	@Autowired
+	private ReactiveDataTableController reactiveController;
+
+	private static DataTableQueryParams params(int offset, String filterId, String value, String orderId,
+			boolean desc) {
+		DataTableQueryParams params = new DataTableQueryParams();
+		params.limit = 10;
+		params.offset = offset;
+		if (filterId != null) {
+			Filter filter = new Filter();
+			filter.id = filterId;
+			filter.value = value;
+			params.filters = new Filter[] { filter };
+		}
+		Order order = new Order();
+		order.id = orderId;
+		order.desc = desc;
+		params.orders = new Order[] { order };
+		return params;
+	}
+
+	private String json(DataTableResponse response) throws Exception {
+		return objectMapper.writeValueAsString(response);
+	}
+
+	@Test
+	void customersMatch() throws Exception {
+		for (DataTableQueryParams params : new DataTableQueryParams[] { params(0, null, null, "lastName", false),
+				params(590, null, null, "lastName", false), params(0, "address.city.city", "lon", "activebool", true),
+				params(1000, null, null, "firstName", false) }) {
+			DataTableResponse expected = customerController.customers(params);
+			assertThat(json(reactiveController.customers(params).block())).isEqualTo(json(expected));
+
+			params.after = expected.next;
+			if (params.after != null)
+				assertThat(json(reactiveController.customers(params).block()))
+						.isEqualTo(json(customerController.customers(params)));
+		}
+	}
+
+	@Test
+	void filmsMatch() throws Exception {
+		for (DataTableQueryParams params : new DataTableQueryParams[] { params(0, null, null, "title", false),
+				params(0, "categories.category", "act", "rating", true), params(0, "q", "drama robot", "q", true),
+				params(950, "actors.fullName", "nick", "length", true),
+				// binds a null smallint, the store of a non-numeric value
+				params(0, "inStockAt", "x", "title", false) }) {
+			DataTableResponse expected = filmController.customers(params);
+			assertThat(json(reactiveController.films(params).block())).isEqualTo(json(expected));
+
+			params.after = expected.next;
+			if (params.after != null)
+				assertThat(json(reactiveController.films(params).block()))
+						.isEqualTo(json(filmController.customers(params)));
+		}
+	}
+
+}
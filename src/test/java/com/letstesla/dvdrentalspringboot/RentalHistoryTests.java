@@ -0,0 +1,116 @@
+package com.letstesla.dvdrentalspringboot;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.letstesla.dvdrentalspringboot.DataTableProperties.RowSerialization;
+import com.letstesla.dvdrentalspringboot.DataTableQueryParams.Filter;
+import com.letstesla.dvdrentalspringboot.DataTableQueryParams.Order;
+
+import org.jooq.DSLContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+/**
+ * Checks the rentals datatable against plain SQL: the filters, the
+ * <code>paid</code> amounts and the history read page by page with
+ * <code>after</code>.
+ */
+@SpringBootTest
+class RentalHistoryTests {
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Autowired
+	private DataTableProperties properties;
+
+	@Autowired
+	private RentalController rentalController;
+
+	@Autowired
+	private DSLContext dsl;
+
+	@AfterEach
+	void reset() {
+		properties.setRowSerialization(RowSerialization.POJO);
+	}
+
+	private static DataTableQueryParams params(int limit, String filterId, String value, boolean desc) {
+		DataTableQueryParams params = new DataTableQueryParams();
+		params.limit = limit;
+		if (filterId != null) {
+			Filter filter = new Filter();
+			filter.id = filterId;
+			filter.value = value;
+			params.filters = new Filter[] { filter };
+		}
+		Order order = new Order();
+		order.id = "rentalDate";
+		order.desc = desc;
+		params.orders = new Order[] { order };
+		return params;
+	}
+
+	private int count(String sql, Object... bindings) {
+		return dsl.fetchOne(sql, bindings).get(0, int.class);
+	}
+
+	@ParameterizedTest
+	@CsvSource({ "2005-06, rental_date >= '2005-06-01' and rental_date < '2005-07-01'", //
+			"2005-05-25..2005-05-31, rental_date >= '2005-05-25' and rental_date < '2005-06-01'", //
+			"2005-08.., rental_date >= '2005-08-01'", //
+			"..2005, rental_date < '2006-01-01'", //
+			"2005-13, false", //
+			"yesterday, false" })
+	void filtersRentalDate(String value, String where) {
+		DataTableResponse response = rentalController.rentals(params(10, "rentalDate", value, false));
+		assertThat(response.recordsFiltered).as(value).isEqualTo(count("select count(*) from rental where " + where));
+	}
+
+	@Test
+	void filtersFilm() {
+		assertThat(rentalController.rentals(params(10, "inventory.film.filmId", "1", false)).recordsFiltered)
+				.isEqualTo(count("select count(*) from rental join inventory using (inventory_id) where film_id = 1"));
+		assertThat(rentalController.rentals(params(10, "inventory.film.filmId", "one", false)).recordsFiltered)
+				.isZero();
+	}
+
+	@Test
+	void pagesThroughHistory() {
+		for (RowSerialization serialization : RowSerialization.values()) {
+			properties.setRowSerialization(serialization);
+			DataTableQueryParams params = params(5, "customer.customerId", "1", true);
+			List<Integer> rentalIds = new ArrayList<>();
+			do {
+				DataTableResponse response = rentalController.rentals(params);
+				for (JsonNode row : objectMapper.valueToTree(response).get("data")) {
+					int rentalId = row.get("rentalId").intValue();
+					rentalIds.add(rentalId);
+					assertThat(row.get("customer").get("customerId").intValue()).isEqualTo(1);
+					assertThat(row.get("inventory").get("film").get("filmId").intValue()).isEqualTo(count(
+							"select film_id from rental join inventory using (inventory_id) where rental_id = ?",
+							rentalId));
+					assertThat(row.get("paid").decimalValue()).isEqualByComparingTo(dsl.fetchOne(
+							"select coalesce(sum(amount), 0) from payment where rental_id = ?", rentalId)
+							.get(0, BigDecimal.class));
+				}
+				params.after = response.next;
+			} while (params.after != null);
+
+			assertThat(rentalIds).as(serialization.name()).isEqualTo(dsl.fetch(
+					"select rental_id from rental where customer_id = 1 order by rental_date desc, rental_id desc")
+					.getValues(0, Integer.class));
+		}
+	}
+
+}
@@ -0,0 +1,139 @@
+package com.letstesla.dvdrentalspringboot;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+import org.jooq.Table;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that concurrent calls of {@link RequestCoalescer} with one key share
+ * one computation, its result and its exception, and that each
+ * {@link DataTableCache} caller gets its own <code>fetchId</code>.
+ */
+class RequestCoalescerTests {
+
+	private static final int CALLERS = 8;
+
+	/**
+	 * Starts <code>CALLERS</code> concurrent calls, returns once all but the
+	 * computing one wait for its result
+	 */
+	private static <T> List<Future<T>> concurrently(RequestCoalescer coalescer, IntFunction<T> call)
+			throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+		try {
+			List<Future<T>> results = new ArrayList<>();
+			for (int i = 0; i < CALLERS; i++) {
+				final int caller = i;
+				results.add(executor.submit(() -> call.apply(caller)));
+			}
+			// every caller but the computing one is counted once it waits
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+			while (coalescer.getCoalescedCount() < CALLERS - 1 && System.nanoTime() < deadline) {
+				Thread.sleep(1);
+			}
+			return results;
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	void sharesOneComputation() throws Exception {
+		RequestCoalescer coalescer = new RequestCoalescer();
+		AtomicInteger computations = new AtomicInteger();
+		CountDownLatch release = new CountDownLatch(1);
+
+		List<Future<Integer>> results = concurrently(coalescer, caller -> coalescer.get("key", () -> {
+			computations.incrementAndGet();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				throw new IllegalStateException(e);
+			}
+			return 42;
+		}));
+		release.countDown();
+		for (Future<Integer> result : results) {
+			assertThat(result.get(10, TimeUnit.SECONDS)).isEqualTo(42);
+		}
+		assertThat(computations).hasValue(1);
+		assertThat(coalescer.getCoalescedCount()).isEqualTo(CALLERS - 1);
+
+		// nothing is kept once complete
+		assertThat(coalescer.get("key", () -> 43)).isEqualTo(43);
+		assertThat(coalescer.get("other", () -> 44)).isEqualTo(44);
+	}
+
+	@Test
+	void sharesExceptions() throws Exception {
+		RequestCoalescer coalescer = new RequestCoalescer();
+		CountDownLatch release = new CountDownLatch(1);
+
+		List<Future<Object>> results = concurrently(coalescer, caller -> {
+			try {
+				return coalescer.get("key", () -> {
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						throw new IllegalStateException(e);
+					}
+					throw new IllegalArgumentException("shared");
+				});
+			} catch (IllegalArgumentException e) {
+				return e.getMessage();
+			}
+		});
+		release.countDown();
+		for (Future<Object> result : results) {
+			assertThat(result.get(10, TimeUnit.SECONDS)).isEqualTo("shared");
+		}
+		assertThatThrownBy(() -> coalescer.get("key", () -> {
+			throw new IllegalStateException("again");
+		})).hasMessage("again");
+	}
+
+	@Test
+	void keepsEachFetchId() throws Exception {
+		DataTableProperties properties = new DataTableProperties();
+		properties.setCoalesceRequests(true);
+		RequestCoalescer coalescer = new RequestCoalescer();
+		DataTableCache cache = new DataTableCache(properties, coalescer, null);
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger computations = new AtomicInteger();
+
+		List<Future<DataTableResponse>> results = concurrently(coalescer, caller -> {
+			DataTableQueryParams params = new DataTableQueryParams();
+			params.limit = 10;
+			params.fetchId = caller;
+			return cache.get("films", new Table<?>[0], params, () -> {
+				computations.incrementAndGet();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					throw new IllegalStateException(e);
+				}
+				return new DataTableResponse(params.fetchId, 1, 2, new Object[] { "row" });
+			});
+		});
+		release.countDown();
+		for (int i = 0; i < CALLERS; i++) {
+			DataTableResponse response = results.get(i).get(10, TimeUnit.SECONDS);
+			assertThat(response.fetchId).isEqualTo(i);
+			assertThat(response.data).containsExactly("row");
+		}
+		assertThat(computations).hasValue(1);
+	}
+
+}
@@ -0,0 +1,112 @@
+package com.letstesla.dvdrentalspringboot;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.util.function.Supplier;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.letstesla.dvdrentalspringboot.DataTableProperties.RowSerialization;
+import com.letstesla.dvdrentalspringboot.DataTableQueryParams.Filter;
+import com.letstesla.dvdrentalspringboot.DataTableQueryParams.Order;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+/**
+ * Checks that rows written from their records by {@link RecordJsonWriter} are
+ * byte for byte the JSON of the POJO rows, in pages and in NDJSON exports.
+ */
+@SpringBootTest
+class RowSerializationTests {
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Autowired
+	private DataTableProperties properties;
+
+	@Autowired
+	private CustomerController customerController;
+
+	@Autowired
+	private FilmController filmController;
+
+	@AfterEach
+	void reset() {
+		properties.setRowSerialization(RowSerialization.POJO);
+	}
+
+	private static DataTableQueryParams params(int limit, String filterId, String value, String orderId) {
+		DataTableQueryParams params = new DataTableQueryParams();
+		params.limit = limit;
+		if (filterId != null) {
+			Filter filter = new Filter();
+			filter.id = filterId;
+			filter.value = value;
+			params.filters = new Filter[] { filter };
+		}
+		Order order = new Order();
+		order.id = orderId;
+		params.orders = new Order[] { order };
+		return params;
+	}
+
+	/** @return the JSON of <code>output</code> with POJO rows, then with streamed rows */
+	private String[] both(Supplier<String> output) {
+		properties.setRowSerialization(RowSerialization.POJO);
+		String pojo = output.get();
+		properties.setRowSerialization(RowSerialization.STREAMING);
+		return new String[] { pojo, output.get() };
+	}
+
+	private String json(DataTableResponse response) {
+		try {
+			return objectMapper.writeValueAsString(response);
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String body(ResponseEntity<StreamingResponseBody> response) {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			response.getBody().writeTo(out);
+			return out.toString("UTF-8");
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Test
+	void customerPagesMatch() {
+		String[] json = both(() -> json(customerController.customers(params(1000, null, null, "lastName"))));
+		// each nested object with its own last_update, customers were updated after their countries
+		assertThat(json[1]).isEqualTo(json[0]).contains("\"lastUpdate\":\"2013-05-26T14:49:45.738\",\"active\"");
+	}
+
+	@Test
+	void filmPagesMatch() {
+		String[] json = both(() -> json(filmController.customers(params(1000, null, null, "title"))));
+		assertThat(json[1]).isEqualTo(json[0]).contains("\"categories\":[{");
+
+		json = both(() -> json(filmController.customers(params(10, "q", "drama robot", "q"))));
+		assertThat(json[1]).isEqualTo(json[0]);
+	}
+
+	@Test
+	void exportsMatch() {
+		String[] ndjson = both(() -> body(customerController.exportCustomers(params(0, "lastName", "son", "lastName"),
+				"ndjson")));
+		assertThat(ndjson[1]).isEqualTo(ndjson[0]).isNotEmpty();
+
+		// categories and actors of the json_agg subqueries
+		ndjson = both(() -> body(filmController.exportFilms(params(0, "title", "love", "title"), "ndjson")));
+		assertThat(ndjson[1]).isEqualTo(ndjson[0]).contains("\"actors\":[{");
+	}
+
+}
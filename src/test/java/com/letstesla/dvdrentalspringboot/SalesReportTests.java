@@ -0,0 +1,135 @@
+package com.letstesla.dvdrentalspringboot;
+
+import static com.letstesla.dvdrentalspringboot.db.tables.FilmCategory.*;
+import static com.letstesla.dvdrentalspringboot.db.tables.Payment.*;
+import static com.letstesla.dvdrentalspringboot.db.tables.SalesByFilmCategory.*;
+import static com.letstesla.dvdrentalspringboot.db.tables.SalesByStore.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.letstesla.dvdrentalspringboot.db.tables.pojos.SalesByFilmCategory;
+import com.letstesla.dvdrentalspringboot.db.tables.pojos.SalesByStore;
+
+import org.jooq.DSLContext;
+import org.jooq.impl.DSL;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Checks that the reports read from the sales summaries are the rows of the
+ * live views, after incremental and full refreshes, and that a refresh does
+ * not wait for the writers of payment. The changes roll back.
+ */
+@SpringBootTest
+@Transactional
+class SalesReportTests {
+
+	@Autowired
+	private SalesReportController controller;
+
+	@Autowired
+	private SalesSummaries summaries;
+
+	@Autowired
+	private DSLContext dsl;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	private void assertSameAsViews() {
+		assertThat(controller.salesByFilmCategory().rows)
+				.isEqualTo(dsl.selectFrom(SALES_BY_FILM_CATEGORY).fetchInto(SalesByFilmCategory.class));
+		assertThat(controller.salesByStore().rows)
+				.isEqualTo(dsl.selectFrom(SALES_BY_STORE).fetchInto(SalesByStore.class));
+	}
+
+	private void pay(int customerId, int rentalId, String amount) {
+		dsl.insertInto(PAYMENT, PAYMENT.CUSTOMER_ID, PAYMENT.STAFF_ID, PAYMENT.RENTAL_ID, PAYMENT.AMOUNT,
+				PAYMENT.PAYMENT_DATE).values((short) customerId, (short) 1, rentalId, new BigDecimal(amount),
+						LocalDateTime.of(2007, 5, 15, 10, 0)).execute();
+	}
+
+	@Test
+	void addsNewPayments() {
+		summaries.refresh();
+		assertSameAsViews();
+
+		pay(1, 76, "7.99");
+		pay(2, 320, "12.50");
+		assertThat(summaries.refresh()).isEqualTo(2);
+		assertSameAsViews();
+		assertThat(controller.salesByStore().lastPaymentId)
+				.isEqualTo(dsl.select(DSL.max(PAYMENT.PAYMENT_ID)).from(PAYMENT).fetchOne(0, Integer.class));
+		assertThat(summaries.refresh()).isZero();
+	}
+
+	@Test
+	void addsChangedPayments() {
+		summaries.refresh();
+		dsl.update(PAYMENT).set(PAYMENT.AMOUNT, PAYMENT.AMOUNT.plus(100)).where(PAYMENT.PAYMENT_ID.le(17600))
+				.execute();
+		dsl.deleteFrom(PAYMENT).where(PAYMENT.PAYMENT_ID.eq(17601)).execute();
+		assertThat(controller.salesByFilmCategory().stale).isFalse();
+
+		assertThat(summaries.refresh()).isPositive();
+		assertSameAsViews();
+	}
+
+	@Test
+	void recomputesAfterChanges() {
+		summaries.refresh();
+		dsl.update(FILM_CATEGORY).set(FILM_CATEGORY.CATEGORY_ID, (short) 1).where(FILM_CATEGORY.FILM_ID.le((short) 100))
+				.execute();
+		assertThat(controller.salesByFilmCategory().stale).isTrue();
+
+		assertThat(summaries.refresh()).isEqualTo(-1);
+		assertSameAsViews();
+		assertThat(controller.salesByFilmCategory().stale).isFalse();
+	}
+
+	@Test
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	void refreshesBesideWriters() throws Exception {
+		TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+		CountDownLatch paid = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(1);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Future<?> writer = executor.submit(() -> transaction.executeWithoutResult(status -> {
+				pay(1, 76, "3.00");
+				paid.countDown();
+				try {
+					done.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				status.setRollbackOnly();
+			}));
+			assertThat(paid.await(10, TimeUnit.SECONDS)).isTrue();
+
+			// the uncommitted payment is neither waited for nor added
+			summaries.refresh();
+			assertSameAsViews();
+
+			done.countDown();
+			writer.get(10, TimeUnit.SECONDS);
+		} finally {
+			done.countDown();
+			executor.shutdown();
+		}
+	}
+
+}
@@ -0,0 +1,119 @@
+package com.letstesla.dvdrentalspringboot;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.util.Base64;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.letstesla.dvdrentalspringboot.DataTableQueryParams.Order;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+
+/**
+ * Checks that the pages read with <code>after</code> are the pages read with
+ * <code>offset</code>, and that a malformed <code>after</code>, or one issued
+ * for other orders, is answered with 400.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+class SeekPagingTests {
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Autowired
+	private MockMvc mockMvc;
+
+	@Autowired
+	private CustomerController customerController;
+
+	@Autowired
+	private FilmController filmController;
+
+	private static DataTableQueryParams params(int limit, String orderId, Boolean desc) {
+		DataTableQueryParams params = new DataTableQueryParams();
+		params.limit = limit;
+		Order order = new Order();
+		order.id = orderId;
+		order.desc = desc;
+		params.orders = new Order[] { order };
+		return params;
+	}
+
+	private String json(Object[] data) throws Exception {
+		return objectMapper.writeValueAsString(data);
+	}
+
+	@Test
+	void customerPagesMatch() throws Exception {
+		for (DataTableQueryParams seek : new DataTableQueryParams[] { params(100, "address.city.city", true),
+				params(100, "activebool", null), params(100, "lastName", false) }) {
+			DataTableQueryParams offset = params(seek.limit, seek.orders[0].id, seek.orders[0].desc);
+			DataTableResponse page;
+			int rows = 0;
+			do {
+				page = customerController.customers(seek);
+				assertThat(json(page.data)).as("offset %d", offset.offset)
+						.isEqualTo(json(customerController.customers(offset).data));
+				rows += page.data.length;
+				seek.after = page.next;
+				offset.offset += offset.limit;
+			} while (seek.after != null);
+
+			assertThat(rows).isEqualTo(page.recordsFiltered);
+		}
+	}
+
+	@Test
+	void filmPagesMatch() throws Exception {
+		// many films share a length, the tie-breaker orders them
+		DataTableQueryParams seek = params(100, "length", true);
+		DataTableQueryParams offset = params(100, "length", true);
+		DataTableResponse page;
+		int rows = 0;
+		do {
+			page = filmController.customers(seek);
+			assertThat(json(page.data)).as("offset %d", offset.offset)
+					.isEqualTo(json(filmController.customers(offset).data));
+			rows += page.data.length;
+			seek.after = page.next;
+			offset.offset += offset.limit;
+		} while (seek.after != null);
+
+		assertThat(rows).isEqualTo(page.recordsFiltered);
+	}
+
+	private int status(DataTableQueryParams params) throws Exception {
+		return mockMvc.perform(post("/api/datatable/customers").contentType(MediaType.APPLICATION_JSON)
+				.content(objectMapper.writeValueAsString(params))).andReturn().getResponse().getStatus();
+	}
+
+	@Test
+	void rejectsInvalidCursors() throws Exception {
+		DataTableQueryParams params = params(10, "lastName", null);
+		assertThat(status(params)).isEqualTo(200);
+		String next = customerController.customers(params).next;
+
+		params.after = next;
+		assertThat(status(params)).isEqualTo(200);
+		params.after = "not a cursor";
+		assertThat(status(params)).isEqualTo(400);
+		params.after = Base64.getUrlEncoder().encodeToString("{\"shape\":1}".getBytes());
+		assertThat(status(params)).isEqualTo(400);
+
+		DataTableQueryParams other = params(10, "firstName", false);
+		other.after = next;
+		assertThat(status(other)).isEqualTo(400);
+		other = params(10, "lastName", true);
+		other.after = next;
+		assertThat(status(other)).isEqualTo(400);
+	}
+
+}
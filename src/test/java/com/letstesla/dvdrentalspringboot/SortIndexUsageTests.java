@@ -0,0 +1,136 @@
+package com.letstesla.dvdrentalspringboot;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.letstesla.dvdrentalspringboot.DataTableColumns.Request;
+import com.letstesla.dvdrentalspringboot.DataTableProperties.FetchMode;
+import com.letstesla.dvdrentalspringboot.DataTableQueryParams.Order;
+
+import org.jooq.DSLContext;
+import org.jooq.impl.DSL;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+/**
+ * Checks the EXPLAIN plans of the offset and seek pages of the datatable
+ * orders, the statements of {@link DataTablePages} with the values they are
+ * bound to, so that a sort key which no longer matches the expression indexes
+ * of <code>V0004__sort_indexes.sql</code> does not slip in unnoticed. The
+ * <code>q</code> relevance order ranks by <code>ts_rank()</code> of the search
+ * value and cannot be indexed.
+ */
+@SpringBootTest
+class SortIndexUsageTests {
+
+	@Autowired
+	private DSLContext dsl;
+
+	@Autowired
+	private DataTableProperties properties;
+
+	@Autowired
+	private CustomerController customerController;
+
+	@Autowired
+	private FilmController filmController;
+
+	@Autowired
+	private RentalController rentalController;
+
+	private static DataTableQueryParams params(String id, boolean desc) {
+		Order order = new Order();
+		order.id = id;
+		order.desc = desc;
+		DataTableQueryParams params = new DataTableQueryParams();
+		params.limit = 10;
+		params.offset = 20;
+		params.orders = new Order[] { order };
+		return params;
+	}
+
+	private String plan(QueryTemplate<Request> template, Request request) {
+		return dsl.transactionResult(configuration -> {
+			DSLContext tx = DSL.using(configuration);
+			// the sample data is small enough for sorting to win, leave the planner only
+			// index scans (and incremental sorts) so the plan shows whether an index is usable at all
+			tx.execute("set local enable_seqscan = off");
+			tx.execute("set local enable_sort = off");
+			return tx.explain(tx.resultQuery(template.getSQL(), template.bindValues(request))).plan();
+		});
+	}
+
+	private void assertIndexed(DataTablePages pages, String id, boolean desc, String indexes) {
+		DataTableQueryParams params = params(id, desc);
+		Request request = pages.request(params);
+		String offsetPlan = plan(pages.templates(request).offsetPage, request);
+
+		params.after = pages.page(request).next;
+		request = pages.request(params);
+		String seekPlan = plan(pages.templates(request).seekPage, request);
+
+		for (String plan : new String[] { offsetPlan, seekPlan }) {
+			for (String index : indexes.split(" ")) {
+				assertThat(plan).contains(index);
+			}
+			// sort keys on joined tables end with an incremental sort of the tie-breaker, but
+			// never with a full sort
+			assertThat(plan).doesNotContainPattern("->\\s+Sort\\s");
+		}
+	}
+
+	@ParameterizedTest
+	@CsvSource({ "firstName, false, idx_customer_first_name_sort", //
+			"firstName, true, idx_customer_first_name_sort", //
+			"lastName, false, idx_customer_last_name_sort", //
+			"lastName, true, idx_customer_last_name_sort", //
+			"address.address, false, idx_address_address_sort idx_fk_address_id", //
+			"address.address, true, idx_address_address_sort idx_fk_address_id", //
+			"address.city.city, false, idx_city_city_sort idx_fk_city_id idx_fk_address_id", //
+			"address.city.city, true, idx_city_city_sort idx_fk_city_id idx_fk_address_id", //
+			"address.postalCode, false, idx_address_postal_code_sort idx_fk_address_id", //
+			"address.postalCode, true, idx_address_postal_code_sort idx_fk_address_id", //
+			"address.city.country.country, false, idx_country_country_sort idx_fk_country_id", //
+			"address.city.country.country, true, idx_country_country_sort idx_fk_country_id", //
+			"address.phone, false, idx_address_phone_sort idx_fk_address_id", //
+			"address.phone, true, idx_address_phone_sort idx_fk_address_id", //
+			"activebool, false, idx_customer_activebool_sort", //
+			"activebool, true, idx_customer_activebool_sort", //
+			"balance, false, idx_customer_balance_sort", //
+			"balance, true, idx_customer_balance_sort" })
+	void customerOrdersUseIndexes(String id, boolean desc, String indexes) {
+		assertIndexed(customerController.pages, id, desc, indexes);
+	}
+
+	@ParameterizedTest
+	@CsvSource({ "title, false, idx_film_title_sort", //
+			"title, true, idx_film_title_sort", //
+			"length, false, idx_film_length_sort", //
+			"length, true, idx_film_length_sort", //
+			"rating, false, idx_film_rating_sort", //
+			"rating, true, idx_film_rating_sort", //
+			"rentalRate, false, idx_film_rental_rate_sort", //
+			"rentalRate, true, idx_film_rental_rate_sort", //
+			"language.name, false, idx_language_name_sort idx_fk_language_id", //
+			"language.name, true, idx_language_name_sort idx_fk_language_id" })
+	void filmOrdersUseIndexes(String id, boolean desc, String indexes) {
+		// the pages of either fetch mode
+		try {
+			for (FetchMode mode : FetchMode.values()) {
+				properties.setFilmFetchMode(mode);
+				assertIndexed(filmController.pages(), id, desc, indexes);
+			}
+		} finally {
+			properties.setFilmFetchMode(FetchMode.SEPARATE);
+		}
+	}
+
+	@ParameterizedTest
+	@CsvSource({ "rentalDate, false, idx_rental_rental_date_sort", //
+			"rentalDate, true, idx_rental_rental_date_sort" })
+	void rentalOrdersUseIndexes(String id, boolean desc, String indexes) {
+		assertIndexed(rentalController.pages, id, desc, indexes);
+	}
+
+}